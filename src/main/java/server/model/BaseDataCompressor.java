@@ -0,0 +1,56 @@
+package server.model;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Потоковое сжатие через сжатие массива целиком, для кодеков без потокового формата
+ */
+public abstract class BaseDataCompressor implements DataCompressor {
+
+    @Override
+    public InputStream decompress(InputStream inputStream) {
+        try (InputStream input = inputStream) {
+            return new ByteArrayInputStream(decompress(IOUtils.toByteArray(input)));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public OutputStream compress(OutputStream outputStream) {
+        return new ByteArrayOutputStream() {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try (OutputStream output = outputStream) {
+                    output.write(compress(toByteArray()));
+                }
+            }
+        };
+    }
+
+    protected static void writeLength(byte[] bytes, int length) {
+        bytes[0] = (byte) (length >>> 24);
+        bytes[1] = (byte) (length >>> 16);
+        bytes[2] = (byte) (length >>> 8);
+        bytes[3] = (byte) length;
+    }
+
+    protected static int readLength(byte[] bytes) {
+        if (bytes.length < Integer.BYTES) {
+            throw new IllegalArgumentException("compressed data is too short");
+        }
+        return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+    }
+}
@@ -1,5 +1,7 @@
 package server.model;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import server.model.pojo.FieldCondition;
 
 import java.io.File;
@@ -9,6 +11,7 @@ import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 public abstract class BaseFieldKeeper<U extends Comparable<U>, V> implements FieldKeeper<U, V>, Destroyable {
+    private static final Logger log = LoggerFactory.getLogger(BaseFieldKeeper.class);
     protected static DeleteResult NOT = new DeleteResult(false, false);
     protected static DeleteResult NOT_FULLY = new DeleteResult(true, false);
     protected static DeleteResult FULLY = new DeleteResult(true, true);
@@ -17,23 +20,54 @@ public abstract class BaseFieldKeeper<U extends Comparable<U>, V> implements Fie
     protected final String path;
     protected final ObjectConverter objectConverter;
     protected final ConditionService conditionService;
-    protected final Variables<U, V> variables;
     protected volatile boolean changed;
+    private volatile Variables<U, V> variables;
+    private boolean loading;
 
     protected BaseFieldKeeper(String fieldName, String path, ObjectConverter objectConverter, ConditionService conditionService) {
         this.fieldName = fieldName;
         this.path = path;
         this.objectConverter = objectConverter;
         this.conditionService = conditionService;
-        if (new File(getFileName()).exists()) {
-            this.variables = objectConverter.fromFile(Variables.class, getFileName());
-        } else {
-            this.variables = createVariables();
+    }
+
+    /**
+     * Данные индекса читаются с диска при первом обращении. Во время создания новых данных возвращает null
+     */
+    protected Variables<U, V> variables() {
+        Variables<U, V> variables = this.variables;
+        if (variables == null) {
+            synchronized (this) {
+                if (this.variables == null && !loading) {
+                    loading = true;
+                    try {
+                        this.variables = Utils.logTime(log, "index " + getFileName(), () -> {
+                            final Variables<U, V> read = readVariables();
+                            return read != null ? read : createVariables();
+                        });
+                    } finally {
+                        loading = false;
+                    }
+                }
+                variables = this.variables;
+            }
         }
+        return variables;
     }
 
     protected abstract Variables<U, V> createVariables();
 
+    /**
+     * @return сохраненные данные индекса или null, если индекс еще не сохранялся
+     */
+    protected Variables<U, V> readVariables() {
+        return new File(getFileName()).exists() ? objectConverter.fromFile(Variables.class, getFileName()) : null;
+    }
+
+    protected void writeVariables(Variables<U, V> variables) {
+        objectConverter.toFile(variables, getFileName());
+    }
+
     @Override
     public void transform(U oldKey, U key, V value) {
         if (oldKey == null && key == null) {
@@ -50,9 +84,10 @@ public abstract class BaseFieldKeeper<U extends Comparable<U>, V> implements Fie
     @Override
     public void insert(U key, V value) {
         if (key == null) {
-            final int size = variables.nullSet.size();
-            variables.nullSet.add(value);
-            if (size != variables.nullSet.size()) {
+            final Set<V> nullSet = variables().nullSet;
+            final int size = nullSet.size();
+            nullSet.add(value);
+            if (size != nullSet.size()) {
                 changed = true;
             }
             return;
@@ -64,7 +99,8 @@ public abstract class BaseFieldKeeper<U extends Comparable<U>, V> implements Fie
     public DeleteResult delete(U key, V value) {
         final DeleteResult deleteResult;
         if (key == null) {
-            deleteResult = new DeleteResult(variables.nullSet.remove(value), variables.nullSet.isEmpty());
+            final Set<V> nullSet = variables().nullSet;
+            deleteResult = new DeleteResult(nullSet.remove(value), nullSet.isEmpty());
         } else {
             deleteResult = deleteNotNull(key, value);
         }
@@ -79,7 +115,7 @@ public abstract class BaseFieldKeeper<U extends Comparable<U>, V> implements Fie
         final Set<V> set = new HashSet<>();
         conditionSearchNotNull(condition, set, size);
         if (!Utils.isFull(set, size) && conditionService.check(null, condition)) {
-            Utils.fillToFull(set, size, variables.nullSet);
+            Utils.fillToFull(set, size, variables().nullSet);
         }
         return set;
     }
@@ -87,7 +123,7 @@ public abstract class BaseFieldKeeper<U extends Comparable<U>, V> implements Fie
     @Override
     public Set<V> search(U key) {
         if (key == null) {
-            return new HashSet<>(variables.nullSet);
+            return new HashSet<>(variables().nullSet);
         }
         return searchNotNull(key);
     }
@@ -118,8 +154,8 @@ public abstract class BaseFieldKeeper<U extends Comparable<U>, V> implements Fie
 
     @Override
     public void destroy() {
-        if (changed) {
-            objectConverter.toFile(variables, getFileName());
+        if (changed && variables != null) {
+            writeVariables(variables);
             changed = false;
         }
     }
@@ -1,5 +1,6 @@
 package server.model;
 
+import server.model.pojo.BackpressureStatistics;
 import server.model.pojo.TableType;
 
 import java.util.Objects;
@@ -12,12 +13,26 @@ public interface Buffer<V extends TableType> {
 
     int size();
 
+    /**
+     * Объем несброшенных изменений в байтах
+     */
+    long bytes();
+
     StoppableStream<Element<V>> stream();
 
     void flush();
 
+    /**
+     * Если объем несброшенных изменений достиг верхней границы, ждет, пока сброс не опустит его до нижней
+     *
+     * @throws BufferFullException если место не освободилось за время ожидания
+     */
+    void awaitCapacity();
+
+    BackpressureStatistics getBackpressureStatistics();
+
     enum State {
-        ADDED, UPDATED, DELETED, READ
+        ADDED, UPDATED, DELETED
     }
 
     class Element<V> {
@@ -39,7 +54,7 @@ public interface Buffer<V extends TableType> {
         }
 
         public boolean isFlushed() {
-            return flushed || State.READ == state;
+            return flushed;
         }
 
         public void setFlushed(boolean flushed) {
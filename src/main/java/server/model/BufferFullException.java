@@ -0,0 +1,9 @@
+package server.model;
+
+public class BufferFullException extends RuntimeException {
+
+    public BufferFullException(String message) {
+        super(message);
+    }
+
+}
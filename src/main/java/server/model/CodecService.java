@@ -0,0 +1,16 @@
+package server.model;
+
+public interface CodecService extends Destroyable {
+
+    DataCompressor getCompressor(DataKind dataKind);
+
+    ObjectConverter getObjectConverter(DataKind dataKind);
+
+    void setCodec(DataKind dataKind, String codec);
+
+    String getCodec(DataKind dataKind);
+
+    enum DataKind {
+        Rows, Indexes, Metadata
+    }
+}
@@ -4,6 +4,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 public interface DataCompressor {
+    byte getId();
+
     byte[] compress(byte[] input);
 
     InputStream decompress(InputStream inputStream);
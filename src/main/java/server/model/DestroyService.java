@@ -8,4 +8,9 @@ public interface DestroyService extends Destroyable {
     long getSleepTime();
 
     void wakeUp();
+
+    /**
+     * Внеочередной сброс одного компонента, не затрагивающий остальные
+     */
+    void wakeUp(Destroyable destroyable);
 }
@@ -7,4 +7,11 @@ public interface Destroyable {
     default void stop() {
 
     }
+
+    /**
+     * Объем несброшенных изменений в байтах, по сумме объемов планировщик сбрасывает самые большие компоненты раньше срока
+     */
+    default long getDirtyBytes() {
+        return 0;
+    }
 }
@@ -1,8 +1,11 @@
 package server.model;
 
 import server.model.pojo.FieldCondition;
+import server.model.pojo.Pair;
 
+import java.util.Iterator;
 import java.util.Set;
+import java.util.function.Consumer;
 
 public interface FieldKeeper<U extends Comparable<U>, V> extends Destroyable {
 
@@ -12,6 +15,14 @@ public interface FieldKeeper<U extends Comparable<U>, V> extends Destroyable {
 
     DeleteResult delete(U key, V value);
 
+    /**
+     * Начинает построение нового индекса из пар, отсортированных по ключу. Изменения индекса после вызова не теряются,
+     * возвращенная функция загружает пары и вызывается ровно один раз. По умолчанию пары вставляются по одной
+     */
+    default Consumer<Iterator<Pair<U, V>>> bulkInsert() {
+        return sortedPairs -> sortedPairs.forEachRemaining(pair -> insert(pair.getFirst(), pair.getSecond()));
+    }
+
     Set<V> conditionSearch(FieldCondition condition, int size);
 
     Set<V> search(U key);
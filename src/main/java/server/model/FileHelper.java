@@ -5,14 +5,21 @@ import server.model.pojo.RowAddress;
 import java.io.Closeable;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 public interface FileHelper {
 
     void write(String fileName, byte[] bytes, boolean append);
 
+    long append(String fileName, byte[] bytes);
+
     byte[] read(RowAddress rowAddress);
 
+    long length(String fileName);
+
+    void release(String path);
+
     void skip(InputStream inputStream, long size);
 
     ChainStream<InputStream> getChainInputStream();
@@ -21,6 +28,8 @@ public interface FileHelper {
 
     void collect(StoppableBatchStream<RowAddress> stream, Consumer<CollectBean> consumer);
 
+    void compact(String fileName, StoppableBatchStream<RowAddress> stream, BiConsumer<RowAddress, Long> positionConsumer);
+
     interface ChainStream<T extends Closeable> extends Chained<String> {
         T getStream();
     }
@@ -20,6 +20,26 @@ public interface IndexService extends Destroyable {
 
     void subscribeOnNewIndexes(Consumer<Set<String>> fieldsConsumer);
 
+    /**
+     * Построитель новых индексов fields за один проход по строкам
+     */
+    IndexBuilder builder(Set<String> fields);
+
+    interface IndexBuilder {
+
+        void add(Row row);
+
+        /**
+         * Загружает собранные пары в индексы
+         */
+        void build();
+
+        /**
+         * Удаляет временные файлы, вызывается и при ошибке прохода по строкам. Индексы, которые не были загружены, удаляются
+         */
+        void clear();
+    }
+
     class SearchResult {
         public final boolean found;
         public final Set<Integer> idSet;
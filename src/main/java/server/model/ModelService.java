@@ -30,11 +30,17 @@ public interface ModelService extends Destroyable {
 
     void subscribeOnIndexesChanges(Consumer<Set<String>> fieldsConsumer);
 
+    /**
+     * Последний выданный порядковый номер поля. Номер не больше него, которого нет среди полей, принадлежит удаленному полю
+     */
+    int getLastOrdinal();
+
     class FieldInfo implements Serializable {
         private static final long serialVersionUID = 3990344518009191295L;
         private String name;
         private Class<?> type;
         private boolean isIndex;
+        private int ordinal;
 
         public FieldInfo() {
 
@@ -69,5 +75,13 @@ public interface ModelService extends Destroyable {
         public void setIndex(boolean index) {
             isIndex = index;
         }
+
+        public int getOrdinal() {
+            return ordinal;
+        }
+
+        public void setOrdinal(int ordinal) {
+            this.ordinal = ordinal;
+        }
     }
 }
@@ -0,0 +1,25 @@
+package server.model;
+
+import server.model.pojo.CacheStatistics;
+
+/**
+ * Общий для всех страничных файлов кэш страниц с бюджетом в байтах
+ */
+public interface PageCache {
+
+    /**
+     * Номер, под которым страницы очередного открытого файла лежат в кэше
+     */
+    int register();
+
+    byte[] get(int file, long page);
+
+    void put(int file, long page, byte[] data);
+
+    /**
+     * Убирает из кэша все страницы файла
+     */
+    void invalidate(int file);
+
+    CacheStatistics getStatistics();
+}
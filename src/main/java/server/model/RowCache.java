@@ -0,0 +1,38 @@
+package server.model;
+
+import server.model.pojo.CacheStatistics;
+import server.model.pojo.Row;
+
+/**
+ * Общий для всех таблиц кэш прочитанных строк с бюджетом в байтах
+ */
+public interface RowCache {
+
+    /**
+     * Номер, под которым строки очередной открытой таблицы лежат в кэше
+     */
+    int register();
+
+    /**
+     * Метка, которую нужно получить до чтения строки из файла и передать в put
+     */
+    long stamp(int table);
+
+    Row get(int table, int id);
+
+    /**
+     * Строка не кладется, если после получения stamp строки таблицы инвалидировались
+     *
+     * @param weight приблизительный размер строки в памяти
+     */
+    void put(int table, Row row, long weight, long stamp);
+
+    void invalidate(int table, int id);
+
+    /**
+     * Убирает из кэша все строки таблицы
+     */
+    void invalidate(int table);
+
+    CacheStatistics getStatistics();
+}
@@ -0,0 +1,17 @@
+package server.model;
+
+import server.model.pojo.Row;
+
+public interface RowConverter {
+
+    byte[] toBytes(Row row);
+
+    Row fromBytes(byte[] bytes);
+
+    /**
+     * Есть ли в строке значения полей, удаленных из модели. fromBytes их пропускает, поэтому по прочитанной строке
+     * этого не видно
+     */
+    boolean hasDeletedFields(byte[] bytes);
+
+}
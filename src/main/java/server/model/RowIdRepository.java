@@ -1,9 +1,11 @@
 package server.model;
 
+import server.model.pojo.CacheStatistics;
 import server.model.pojo.RowAddress;
 
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 public interface RowIdRepository extends Repository<RowAddress> {
 
@@ -13,12 +15,30 @@ public interface RowIdRepository extends Repository<RowAddress> {
 
     void save(int id, Consumer<RowAddress> rowAddressConsumer);
 
+    void relocate(int id, long position, int size);
+
+    void restore(int id);
+
     StoppableBatchStream<RowAddress> batchStream();
 
     StoppableBatchStream<RowAddress> batchStream(Set<Integer> idSet, ProcessType processType);
 
+    /**
+     * Полный обход, в котором mapper может выполняться параллельно для разных файлов строк.
+     * Результаты отдаются в порядке id, null пропускаются
+     */
+    <T> StoppableStream<T> batchStream(Function<RowAddress, T> mapper);
+
     String getRowFileName(int rowId);
 
+    /**
+     * Все id, которые отображаются в файл строк, вычисляются по номеру файла без обхода адресов.
+     * Удаленные id тоже входят, потоки по набору id их пропускают
+     */
+    Set<Integer> getRowFileIds(String rowFileName);
+
+    CacheStatistics getCacheStatistics();
+
     enum ProcessType {
         Read, Write
     }
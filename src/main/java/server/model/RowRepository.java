@@ -1,5 +1,7 @@
 package server.model;
 
+import server.model.pojo.BackpressureStatistics;
+import server.model.pojo.CacheStatistics;
 import server.model.pojo.ICondition;
 import server.model.pojo.Row;
 
@@ -13,4 +15,8 @@ public interface RowRepository extends Repository<Row> {
 
     List<Row> getList(ICondition iCondition, int from, int size);
 
+    CacheStatistics getCacheStatistics();
+
+    BackpressureStatistics getBackpressureStatistics();
+
 }
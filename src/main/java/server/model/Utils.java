@@ -1,5 +1,6 @@
 package server.model;
 
+import org.slf4j.Logger;
 import server.model.pojo.ComplexCondition;
 import server.model.pojo.ICondition;
 import server.model.pojo.SimpleCondition;
@@ -11,6 +12,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class Utils {
@@ -63,6 +65,16 @@ public class Utils {
         return sb.toString();
     }
 
+    /**
+     * Выполняет загрузку и пишет в лог затраченное время
+     */
+    public static <T> T logTime(Logger log, String name, Supplier<T> supplier) {
+        final long begin = System.currentTimeMillis();
+        final T result = supplier.get();
+        log.info(name + " loaded in " + (System.currentTimeMillis() - begin) + " ms");
+        return result;
+    }
+
     public static <T> void compareAndRun(T actual, T previous, Consumer<T> consumer) {
         if (!actual.equals(previous)) {
             consumer.accept(actual);
@@ -0,0 +1,15 @@
+package server.model;
+
+import server.model.pojo.Row;
+
+import java.util.function.BiConsumer;
+
+public interface WriteAheadLog extends Destroyable {
+
+    void append(Buffer.State state, Row row, Runnable applier);
+
+    void replay(BiConsumer<Buffer.State, Row> consumer);
+
+    void checkpoint(Runnable flusher);
+
+}
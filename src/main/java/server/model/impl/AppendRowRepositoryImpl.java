@@ -0,0 +1,202 @@
+package server.model.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import server.model.*;
+import server.model.pojo.Row;
+import server.model.pojo.RowAddress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Хранилище строк только на дописывание: новые версии строк пишутся в конец файла строк,
+ * RowAddress указывает на последнюю версию, старые версии удаляются фоновым уплотнением.
+ * Уплотнение запускается после сброса в compactionExecutor и не задерживает следующий сброс
+ */
+public class AppendRowRepositoryImpl extends RowRepositoryImpl {
+    private static final Logger log = LoggerFactory.getLogger(AppendRowRepositoryImpl.class);
+    private static final String GARBAGE_FILE_NAME = "rowGarbage";
+
+    private final Map<String, Long> garbage;
+    private final String garbageFileName;
+    private final double compactionRatio;
+    private final Executor compactionExecutor;
+    private volatile CompletableFuture<Void> compaction = CompletableFuture.completedFuture(null);
+    private volatile boolean garbageChanged;
+
+    public AppendRowRepositoryImpl(String filePath, boolean init, ObjectConverter objectConverter, DestroyService destroyService, RowIdRepository rowIdRepository, FileHelper fileHelper, IndexService indexService, ConditionService conditionService, ModelService modelService, int bufferSize, double compactionRatio) {
+        this(filePath, init, objectConverter, destroyService, rowIdRepository, fileHelper, indexService, conditionService, modelService, bufferSize,
+                null, new RowConverterImpl(modelService, objectConverter), new RowCacheImpl(DEFAULT_ROW_CACHE_SIZE), Long.MAX_VALUE, Long.MAX_VALUE, -1, null, compactionRatio, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Аргументы до flushExecutor включительно те же, что у RowRepositoryImpl, поэтому класс подставляется в бин rowRepository
+     *
+     * @param compactionRatio    доля мусора в файле строк, после которой файл уплотняется
+     * @param compactionExecutor пул фонового уплотнения
+     */
+    public AppendRowRepositoryImpl(String filePath, boolean init, ObjectConverter objectConverter, DestroyService destroyService, RowIdRepository rowIdRepository, FileHelper fileHelper, IndexService indexService, ConditionService conditionService, ModelService modelService, int bufferSize, WriteAheadLog writeAheadLog, RowConverter rowConverter, RowCache rowCache,
+                                   long bufferHighWatermark, long bufferLowWatermark, long bufferTimeout, ExecutorService flushExecutor, double compactionRatio, Executor compactionExecutor) {
+        super(filePath, init, objectConverter, destroyService, rowIdRepository, fileHelper, indexService, conditionService, modelService, bufferSize,
+                writeAheadLog, rowConverter, rowCache, bufferHighWatermark, bufferLowWatermark, bufferTimeout, flushExecutor);
+        this.compactionRatio = compactionRatio;
+        this.compactionExecutor = compactionExecutor;
+        this.garbageFileName = filePath + GARBAGE_FILE_NAME;
+        this.garbage = new ConcurrentHashMap<>();
+        if (new File(garbageFileName).exists()) {
+            final Map<String, Long> saved = objectConverter.fromFile(HashMap.class, garbageFileName);
+            garbage.putAll(saved);
+        }
+    }
+
+    @Override
+    protected Consumer<List<Buffer.Element<Row>>> bufferConsumer() {
+        return list -> {
+            if (list.isEmpty()) {
+                return;
+            }
+            final Map<Integer, Buffer.Element<Row>> map = list.stream().collect(Collectors.toMap(element -> element.getValue().getId(), Function.identity()));
+            final StoppableBatchStream<RowAddress> stream = rowIdRepository.batchStream(map.keySet(), RowIdRepository.ProcessType.Write);
+            final Batch batch = new Batch();
+            stream.addOnBatchEnd(batch::write);
+            stream.forEach(rowAddress -> {
+                final Buffer.Element<Row> element = map.get(rowAddress.getId());
+                if (!rowAddress.getFilePath().equals(batch.fileName)) {
+                    batch.write();
+                    batch.fileName = rowAddress.getFilePath();
+                }
+                if (rowAddress.isSaved()) {
+                    addGarbage(rowAddress.getFilePath(), rowAddress.getSize());
+                }
+                if (Buffer.State.DELETED == element.getState()) {
+                    batch.deleted.add(rowAddress);
+                } else {
+                    batch.add(rowAddress, rowConverter.toBytes(element.getValue()));
+                }
+            });
+        };
+    }
+
+    private void addGarbage(String fileName, long size) {
+        if (size <= 0) {
+            return;
+        }
+        garbage.merge(fileName, size, Long::sum);
+        garbageChanged = true;
+    }
+
+    /**
+     * Сохраняет учет мусора и запускает уплотнение в фоне, изменения учета от уплотнения сохраняются следующим сбросом
+     */
+    @Override
+    public void destroy() {
+        super.destroy();
+        if (garbageChanged) {
+            garbageChanged = false;
+            objectConverter.toFile(new HashMap<>(garbage), garbageFileName);
+        }
+        scheduleCompaction();
+    }
+
+    /**
+     * Ждет начатое уплотнение, чтобы не освобождать файлы под ним
+     */
+    @Override
+    public void stop() {
+        compaction.join();
+        super.stop();
+    }
+
+    /**
+     * Одновременно идет не больше одного уплотнения, пока оно идет, новые не запускаются
+     */
+    private synchronized void scheduleCompaction() {
+        if (!compaction.isDone() || getCompactedFiles().isEmpty()) {
+            return;
+        }
+        compaction = CompletableFuture.runAsync(() -> getCompactedFiles().forEach(this::compact), compactionExecutor)
+                .exceptionally(e -> {
+                    log.error("compaction failed", e);
+                    return null;
+                });
+    }
+
+    private List<String> getCompactedFiles() {
+        final List<String> files = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : garbage.entrySet()) {
+            final long fileSize = fileHelper.length(entry.getKey());
+            if (fileSize <= 0 || entry.getValue() >= fileSize * compactionRatio) {
+                files.add(entry.getKey());
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Id файла вычисляются по его номеру, отсутствующие id поток пропускает.
+     * Мусор, добавленный сбросом во время уплотнения, остается учтенным
+     */
+    private void compact(String fileName) {
+        log.info("compacting row file " + fileName);
+        final long compactedGarbage = garbage.getOrDefault(fileName, 0L);
+        final Set<Integer> idSet = rowIdRepository.getRowFileIds(fileName);
+        final StoppableBatchStream<RowAddress> stream = rowIdRepository.batchStream(idSet, RowIdRepository.ProcessType.Write);
+        final List<Runnable> afterBatchActions = new ArrayList<>();
+        stream.addOnBatchEnd(() -> {
+            afterBatchActions.forEach(Runnable::run);
+            afterBatchActions.clear();
+        });
+        fileHelper.compact(fileName, stream, (rowAddress, position) ->
+                afterBatchActions.add(() -> rowIdRepository.relocate(rowAddress.getId(), position, rowAddress.getSize())));
+        garbage.computeIfPresent(fileName, (key, value) -> value > compactedGarbage ? value - compactedGarbage : null);
+        garbageChanged = true;
+        log.info("compacting row file " + fileName + " done");
+    }
+
+    private class Batch {
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private final List<RowAddress> written = new ArrayList<>();
+        private final List<Integer> sizes = new ArrayList<>();
+        private final List<RowAddress> deleted = new ArrayList<>();
+        private String fileName;
+
+        private void add(RowAddress rowAddress, byte[] bytes) {
+            try {
+                output.write(bytes);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            written.add(rowAddress);
+            sizes.add(bytes.length);
+        }
+
+        private void write() {
+            if (!written.isEmpty()) {
+                long position = fileHelper.append(fileName, output.toByteArray());
+                for (int i = 0; i < written.size(); i++) {
+                    rowIdRepository.relocate(written.get(i).getId(), position, sizes.get(i));
+                    position += sizes.get(i);
+                }
+            }
+            deleted.forEach(rowAddress -> {
+                rowIdRepository.relocate(rowAddress.getId(), rowAddress.getPosition(), 0);
+                rowIdRepository.delete(rowAddress.getId());
+            });
+            output.reset();
+            written.clear();
+            sizes.clear();
+            deleted.clear();
+        }
+    }
+}
@@ -11,7 +11,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.function.Function;
 
 public class BPlusTree<U extends Comparable<U>, V> extends BaseFieldKeeper<U, V> {
     private static final Set<SearchDirection> ALL = new HashSet<>(Arrays.asList(SearchDirection.LEFT_DOWN, SearchDirection.RIGHT, SearchDirection.RIGHT_DOWN));
@@ -20,11 +19,20 @@ public class BPlusTree<U extends Comparable<U>, V> extends BaseFieldKeeper<U, V>
     protected final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
     private final Map<String, LeafNode<U, V>> map = new ConcurrentHashMap<>();
     private final int maxLeafPairsSize;
+    private final Class<?> keyType;
 
     public BPlusTree(String fieldName, String path, ObjectConverter objectConverter, ConditionService conditionService, int treeFactor, int maxLeafPairsSize) {
+        this(fieldName, path, objectConverter, conditionService, treeFactor, maxLeafPairsSize, null);
+    }
+
+    /**
+     * @param keyType тип поля, для Integer, Long и Double ключи узлов хранятся в примитивных массивах
+     */
+    public BPlusTree(String fieldName, String path, ObjectConverter objectConverter, ConditionService conditionService, int treeFactor, int maxLeafPairsSize, Class<?> keyType) {
         super(fieldName, path, objectConverter, conditionService);
         this.treeFactor = treeFactor;
         this.maxLeafPairsSize = maxLeafPairsSize;
+        this.keyType = keyType;
     }
 
     @Override
@@ -79,8 +87,12 @@ public class BPlusTree<U extends Comparable<U>, V> extends BaseFieldKeeper<U, V>
         insert(readChild(node, index), key, value);
     }
 
+    /**
+     * Индекс первого ключа больше key, он же индекс потомка, в котором может лежать key
+     */
     private int getChildIndex(Node<U, V> node, U key) {
-        return find(node.pairs, key, compareResult -> compareResult < 0).getFirst();
+        final int index = binarySearch(node.pairs, key);
+        return index >= 0 ? index + 1 : -index - 1;
     }
 
     private void split(InternalNode<U, V> node, int index) {
@@ -128,23 +140,23 @@ public class BPlusTree<U extends Comparable<U>, V> extends BaseFieldKeeper<U, V>
     }
 
     private void delete(Node<U, V> node, U key) {
-        final Pair<Integer, Boolean> indexPair = find(node.pairs, key, compareResult -> compareResult == 0);
-        if (indexPair.getSecond()) {
+        final int index = binarySearch(node.pairs, key);
+        if (index >= 0) {
             if (isLeaf(node)) {
-                node.pairs.remove(indexPair.getFirst().intValue());
+                node.pairs.remove(index);
                 save(node);
                 return;
             }
-            final Node<U, V> childLeft = readChild(node, indexPair.getFirst());
+            final Node<U, V> childLeft = readChild(node, index);
             if (childLeft.pairs.size() >= treeFactor) {
-                move(childLeft, node, findPredecessor(childLeft, key), indexPair.getFirst());
+                move(childLeft, node, findPredecessor(childLeft, key), index);
             } else {
-                final Node<U, V> childRight = readChild(node, indexPair.getFirst() + 1);
+                final Node<U, V> childRight = readChild(node, index + 1);
                 if (childRight.pairs.size() >= treeFactor) {
-                    move(childRight, node, findSuccessor(childRight, key), indexPair.getFirst());
+                    move(childRight, node, findSuccessor(childRight, key), index);
                 } else {
-                    final Pair<U, Set<V>> pair = node.pairs.get(indexPair.getFirst());
-                    merge((InternalNode<U, V>) node, childLeft, childRight, indexPair.getFirst() + 1);
+                    final Pair<U, Set<V>> pair = node.pairs.get(index);
+                    merge((InternalNode<U, V>) node, childLeft, childRight, index + 1);
                     delete(read(childLeft), pair.getFirst());
                     if (node.pairs.isEmpty()) {
                         getVariables().root = read(childLeft);
@@ -216,14 +228,27 @@ public class BPlusTree<U extends Comparable<U>, V> extends BaseFieldKeeper<U, V>
         return read(childLeft);
     }
 
-    private Pair<Integer, Boolean> find(List<Pair<U, Set<V>>> pairs, U key, Function<Integer, Boolean> compareFunction) {
-        for (int i = 0; i < pairs.size(); i++) {
-            final Pair<U, Set<V>> pair = pairs.get(i);
-            if (compareFunction.apply(key.compareTo(pair.getFirst()))) {
-                return new Pair<>(i, true);
+    /**
+     * Пары узлов, прочитанных из старых файлов, лежат в ArrayList, по ним тоже ищется бинарным поиском
+     */
+    private int binarySearch(List<Pair<U, Set<V>>> pairs, U key) {
+        if (pairs instanceof NodePairs) {
+            return ((NodePairs<U, V>) pairs).search(key);
+        }
+        int low = 0;
+        int high = pairs.size() - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int compareResult = key.compareTo(pairs.get(middle).getFirst());
+            if (compareResult > 0) {
+                low = middle + 1;
+            } else if (compareResult < 0) {
+                high = middle - 1;
+            } else {
+                return middle;
             }
         }
-        return new Pair<>(pairs.size(), false);
+        return -(low + 1);
     }
 
     private void move(Node<U, V> nodeFrom, Node<U, V> nodeTo, Pair<U, Set<V>> pair, int indexTo) {
@@ -248,19 +273,19 @@ public class BPlusTree<U extends Comparable<U>, V> extends BaseFieldKeeper<U, V>
     }
 
     private Pair<U, Set<V>> findPredecessor(Node<U, V> node, U key) {
-        final Pair<Integer, Boolean> pair = find(node.pairs, key, compareResult -> compareResult < 0);
+        final int index = getChildIndex(node, key);
         if (isLeaf(node)) {
-            return node.pairs.get(pair.getFirst() - 1);
+            return node.pairs.get(index - 1);
         }
-        return findPredecessor(read(getChildren(node).get(pair.getFirst() != node.pairs.size() ? pair.getFirst() - 1 : pair.getFirst())), key);
+        return findPredecessor(read(getChildren(node).get(index != node.pairs.size() ? index - 1 : index)), key);
     }
 
     private Pair<U, Set<V>> findSuccessor(Node<U, V> node, U key) {
-        final Pair<Integer, Boolean> pair = find(node.pairs, key, compareResult -> compareResult < 0);
+        final int index = getChildIndex(node, key);
         if (isLeaf(node)) {
-            return node.pairs.get(pair.getFirst());
+            return node.pairs.get(index);
         }
-        return findSuccessor(read(getChildren(node).get(pair.getFirst())), key);
+        return findSuccessor(read(getChildren(node).get(index)), key);
     }
 
     @Override
@@ -310,20 +335,13 @@ public class BPlusTree<U extends Comparable<U>, V> extends BaseFieldKeeper<U, V>
         if (node == null || node.pairs.isEmpty()) {
             return new Pair<>(null, new Pair<>(null, Collections.emptySet()));
         }
-        Pair<U, Set<V>> pair = null;
-        int index = 0;
-        for (; index < node.pairs.size(); index++) {
-            pair = node.pairs.get(index);
-            if (key.compareTo(pair.getFirst()) <= 0) {
-                break;
-            }
-        }
-        if (pair.getFirst().compareTo(key) == 0) {
-            return new Pair<>(node, pair);
+        final int index = binarySearch(node.pairs, key);
+        if (index >= 0) {
+            return new Pair<>(node, node.pairs.get(index));
         } else if (isLeaf(node)) {
             return new Pair<>(node, new Pair<>(null, Collections.emptySet()));
         }
-        return search(readChild(node, index), key);
+        return search(readChild(node, -index - 1), key);
     }
 
     private Node<U, V> read(Node<U, V> node) {
@@ -338,17 +356,17 @@ public class BPlusTree<U extends Comparable<U>, V> extends BaseFieldKeeper<U, V>
                 map.put(leafNode.fileName, leafNode);
             }
         }
-        leafNode.init();
+        leafNode.init(keyType);
         return leafNode;
     }
 
     private <T extends Node<U, V>> T createNode(Class<T> clazz) {
         if (LeafNode.class.equals(clazz)) {
             final LeafNode<U, V> leafNode = new LeafNode<>(getFileName(getVariables() == null ? Long.MIN_VALUE : getVariables().counter.incrementAndGet()));
-            leafNode.init();
+            leafNode.init(keyType);
             return (T) leafNode;
         }
-        return (T) new InternalNode<U, V>();
+        return (T) new InternalNode<U, V>(keyType);
     }
 
     private void save(Node<U, V> node) {
@@ -393,7 +411,7 @@ public class BPlusTree<U extends Comparable<U>, V> extends BaseFieldKeeper<U, V>
     }
 
     protected BTreeVariables<U, V> getVariables() {
-        return (BTreeVariables<U, V>) variables;
+        return (BTreeVariables<U, V>) variables();
     }
 
     private enum SearchDirection {
@@ -420,7 +438,11 @@ public class BPlusTree<U extends Comparable<U>, V> extends BaseFieldKeeper<U, V>
         private final List<Node<U, V>> children = new ArrayList<>();
 
         public InternalNode() {
-            pairs = new ArrayList<>();
+            this(null);
+        }
+
+        public InternalNode(Class<?> keyType) {
+            pairs = NodePairs.create(keyType);
         }
     }
 
@@ -433,9 +455,9 @@ public class BPlusTree<U extends Comparable<U>, V> extends BaseFieldKeeper<U, V>
             this.fileName = fileName;
         }
 
-        private void init() {
+        private void init(Class<?> keyType) {
             if (!initialized) {
-                pairs = new ArrayList<>();
+                pairs = NodePairs.create(keyType);
                 initialized = true;
             }
         }
@@ -168,7 +168,7 @@ public class BinaryTree<U extends Comparable<U>, V> extends BaseFieldKeeper<U, V
     }
 
     private BinaryTreeVariables<U, V> getVariables() {
-        return (BinaryTreeVariables<U, V>) variables;
+        return (BinaryTreeVariables<U, V>) variables();
     }
 
     private enum SearchDirection {
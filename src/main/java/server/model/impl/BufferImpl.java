@@ -2,34 +2,79 @@ package server.model.impl;
 
 import server.model.BaseStoppableStream;
 import server.model.Buffer;
+import server.model.BufferFullException;
 import server.model.StoppableStream;
+import server.model.pojo.BackpressureStatistics;
 import server.model.pojo.TableType;
 
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.function.ToLongFunction;
 
+/**
+ * Буфер хранит только несброшенные изменения в skip list по id, поэтому обход и сброс идут в порядке id без сортировки.
+ * Изменения пишутся в активное поколение. Сброс подменяет его новым и пишет замороженное поколение,
+ * поэтому писатели не ждут ввода-вывода, а сброс видит согласованный снимок. Чтение смотрит оба поколения.
+ * Объем изменений в байтах оценивается weigher: достигнув highWatermark, писатели в awaitCapacity ждут,
+ * пока сброс не опустит его до lowWatermark
+ */
 public class BufferImpl<V extends TableType> implements Buffer<V> {
-    private final Map<Integer, Element<V>> map = new ConcurrentHashMap<>();
+    private static final long MAX_WAIT = 100;
+
+    private final ReadWriteLock generationLock = new ReentrantReadWriteLock();
+    private final Object flushLock = new Object();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final ReentrantLock capacityLock = new ReentrantLock();
+    private final Condition capacityCondition = capacityLock.newCondition();
     private final int maxSize;
     private final Runnable onFilledAction;
     private final Consumer<List<Element<V>>> flushConsumer;
+    private final ToLongFunction<V> weigher;
+    private final long highWatermark;
+    private final long lowWatermark;
+    private final long timeout;
+    private volatile Generations<V> generations = new Generations<>(new Generation<>(), null);
+    private volatile boolean throttled;
+    private long waits;
+    private long waitTime;
+    private long rejections;
 
     public BufferImpl(int maxSize, Consumer<List<Element<V>>> flushConsumer) {
-        this.maxSize = maxSize;
-        this.onFilledAction = null;
-        this.flushConsumer = flushConsumer;
+        this(maxSize, null, flushConsumer);
     }
 
     public BufferImpl(int maxSize, Runnable onFilledAction, Consumer<List<Element<V>>> flushConsumer) {
+        this(maxSize, onFilledAction, flushConsumer, value -> 0, Long.MAX_VALUE, Long.MAX_VALUE, -1);
+    }
+
+    /**
+     * @param timeout время ожидания места в миллисекундах: 0 - сразу отказ, отрицательное - ждать без ограничения
+     */
+    public BufferImpl(int maxSize, Runnable onFilledAction, Consumer<List<Element<V>>> flushConsumer, ToLongFunction<V> weigher,
+                      long highWatermark, long lowWatermark, long timeout) {
+        if (lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("lowWatermark cannot be greater than highWatermark");
+        }
         this.maxSize = maxSize;
         this.onFilledAction = onFilledAction;
         this.flushConsumer = flushConsumer;
+        this.weigher = weigher;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.timeout = timeout;
     }
 
     @Override
@@ -37,31 +82,125 @@ public class BufferImpl<V extends TableType> implements Buffer<V> {
         if (value == null) {
             return;
         }
-        map.compute(value.getId(), (k, v) -> {
-            if (v == null) {
-                return new Element<>(value, state);
+        generationLock.readLock().lock();
+        try {
+            put(generations.active, value.getId(), value, state);
+        } finally {
+            generationLock.readLock().unlock();
+        }
+        if ((size.get() > maxSize || throttled) && onFilledAction != null) {
+            onFilledAction.run();
+        }
+    }
+
+    private void put(Generation<V> generation, int id, V value, State state) {
+        while (true) {
+            final Element<V> previous = generation.map.get(id);
+            if (previous == null) {
+                if (generation.map.putIfAbsent(id, new Element<>(value, state)) == null) {
+                    generation.size.incrementAndGet();
+                    size.incrementAndGet();
+                    addBytes(generation, weigher.applyAsLong(value));
+                    return;
+                }
+            } else if (generation.map.replace(id, previous, new Element<>(value, finalState(previous, state)))) {
+                addBytes(generation, weigher.applyAsLong(value) - weigher.applyAsLong(previous.getValue()));
+                return;
             }
-            final State finalState;
-            if (!v.isFlushed() && State.DELETED != state) {
-                finalState = State.ADDED;
-            } else {
-                finalState = state;
+        }
+    }
+
+    private State finalState(Element<V> previous, State state) {
+        if (!previous.isFlushed() && State.DELETED != state) {
+            return State.ADDED;
+        }
+        return state;
+    }
+
+    private void addBytes(Generation<V> generation, long delta) {
+        generation.bytes.addAndGet(delta);
+        final long current = bytes.addAndGet(delta);
+        if (current >= highWatermark) {
+            throttled = true;
+        } else if (throttled && current <= lowWatermark) {
+            capacityLock.lock();
+            try {
+                throttled = false;
+                capacityCondition.signalAll();
+            } finally {
+                capacityLock.unlock();
             }
-            return new Element<>(value, finalState);
-        });
-        if (map.size() > maxSize && onFilledAction != null) {
-            onFilledAction.run();
+        }
+    }
+
+    @Override
+    public void awaitCapacity() {
+        if (!throttled) {
+            return;
+        }
+        capacityLock.lock();
+        try {
+            if (!throttled) {
+                return;
+            }
+            final long start = System.currentTimeMillis();
+            waits++;
+            try {
+                while (throttled) {
+                    if (bytes.get() <= lowWatermark) {
+                        throttled = false;
+                        capacityCondition.signalAll();
+                        break;
+                    }
+                    if (onFilledAction != null) {
+                        onFilledAction.run();
+                    }
+                    final long waited = System.currentTimeMillis() - start;
+                    if (timeout >= 0 && waited >= timeout) {
+                        rejections++;
+                        throw new BufferFullException("buffer is full: " + bytes.get() + " bytes, waited " + waited + " ms");
+                    }
+                    capacityCondition.await(timeout < 0 ? MAX_WAIT : Math.min(MAX_WAIT, timeout - waited), TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } finally {
+                waitTime += System.currentTimeMillis() - start;
+            }
+        } finally {
+            capacityLock.unlock();
+        }
+    }
+
+    @Override
+    public BackpressureStatistics getBackpressureStatistics() {
+        capacityLock.lock();
+        try {
+            return new BackpressureStatistics(waits, waitTime, rejections, bytes.get(), highWatermark, lowWatermark);
+        } finally {
+            capacityLock.unlock();
         }
     }
 
     @Override
     public Element<V> get(int id) {
-        return map.get(id);
+        final Generations<V> generations = this.generations;
+        final Element<V> element = generations.active.map.get(id);
+        if (element != null || generations.frozen == null) {
+            return element;
+        }
+        return generations.frozen.map.get(id);
     }
 
     @Override
     public int size() {
-        return map.size();
+        return size.get();
+    }
+
+    @Override
+    public long bytes() {
+        return bytes.get();
     }
 
     @Override
@@ -69,11 +208,14 @@ public class BufferImpl<V extends TableType> implements Buffer<V> {
         return new BaseStoppableStream<Element<V>>() {
             @Override
             public void forEach(Consumer<Element<V>> consumer) {
-                for (Element<V> element : sortedList()) {
+                final Generations<V> generations = BufferImpl.this.generations;
+                final Iterator<Element<V>> iterator = generations.frozen == null ? generations.active.map.values().iterator()
+                        : new MergeIterator<>(generations.frozen.map.values().iterator(), generations.active.map.values().iterator());
+                while (iterator.hasNext()) {
                     if (stopChecker.get()) {
                         return;
                     }
-                    consumer.accept(element);
+                    consumer.accept(iterator.next());
                 }
                 onStreamEnd.forEach(Runnable::run);
             }
@@ -82,42 +224,117 @@ public class BufferImpl<V extends TableType> implements Buffer<V> {
 
     @Override
     public void flush() {
-        final List<Element<V>> list = flushableList();
-        if (flushConsumer != null) {
-            flushConsumer.accept(list);
-        }
-        int mapSize = map.size();
-        if (mapSize > maxSize) {
-            for (Iterator<Map.Entry<Integer, Element<V>>> iterator = map.entrySet().iterator(); iterator.hasNext(); ) {
-                final Map.Entry<Integer, Element<V>> entry = iterator.next();
-                if (entry.getValue().isFlushed()) {
-                    iterator.remove();
-                    mapSize--;
-                    if (mapSize <= maxSize) {
-                        break;
-                    }
+        synchronized (flushLock) {
+            final Generation<V> frozen;
+            generationLock.writeLock().lock();
+            try {
+                frozen = generations.active;
+                generations = new Generations<>(new Generation<>(), frozen);
+            } finally {
+                generationLock.writeLock().unlock();
+            }
+            final List<Element<V>> list = new ArrayList<>(frozen.map.values());
+            try {
+                if (flushConsumer != null) {
+                    flushConsumer.accept(list);
                 }
+            } catch (RuntimeException e) {
+                restore(frozen);
+                throw e;
             }
+            list.forEach(element -> element.setFlushed(true));
+            generations = new Generations<>(generations.active, null);
+            size.addAndGet(-frozen.size.get());
+            addBytes(frozen, -frozen.bytes.get());
         }
-        list.forEach(element -> {
-            if (State.DELETED.equals(element.getState())) {
-                map.remove(element.getValue().getId());
-            } else {
-                element.setFlushed(true);
+    }
+
+    /**
+     * Возвращает несброшенное поколение в активное, не затирая изменения, сделанные во время сброса.
+     * Элементы, которые потребитель успел записать и пометил сброшенными, не возвращаются
+     */
+    private void restore(Generation<V> frozen) {
+        generationLock.writeLock().lock();
+        try {
+            final Generation<V> active = generations.active;
+            for (Element<V> element : frozen.map.values()) {
+                final int id = element.getValue().getId();
+                final Element<V> current = active.map.get(id);
+                if (element.isFlushed()) {
+                    size.decrementAndGet();
+                    bytes.addAndGet(-weigher.applyAsLong(element.getValue()));
+                } else if (current == null) {
+                    active.map.put(id, element);
+                    active.size.incrementAndGet();
+                    active.bytes.addAndGet(weigher.applyAsLong(element.getValue()));
+                } else {
+                    if (State.ADDED == element.getState() && State.DELETED != current.getState()) {
+                        active.map.put(id, new Element<>(current.getValue(), State.ADDED));
+                    }
+                    size.decrementAndGet();
+                    bytes.addAndGet(-weigher.applyAsLong(element.getValue()));
+                }
             }
-        });
+            generations = new Generations<>(active, null);
+        } finally {
+            generationLock.writeLock().unlock();
+        }
     }
 
-    private List<Element<V>> sortedList() {
-        return list(entry -> true);
+    private static class Generation<V> {
+        private final ConcurrentNavigableMap<Integer, Element<V>> map = new ConcurrentSkipListMap<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
     }
 
-    private List<Element<V>> flushableList() {
-        return list(entry -> !entry.getValue().isFlushed());
+    private static class Generations<V> {
+        private final Generation<V> active;
+        private final Generation<V> frozen;
+
+        private Generations(Generation<V> active, Generation<V> frozen) {
+            this.active = active;
+            this.frozen = frozen;
+        }
     }
 
-    private List<Element<V>> list(Predicate<? super Map.Entry<Integer, Element<V>>> predicate) {
-        return map.entrySet().stream().filter(predicate).sorted(Comparator.comparing(Map.Entry::getKey))
-                .map(Map.Entry::getValue).collect(Collectors.toList());
+    /**
+     * Слияние двух упорядоченных по id поколений, при совпадении id берется элемент активного поколения
+     */
+    private static class MergeIterator<V extends TableType> implements Iterator<Element<V>> {
+        private final Iterator<Element<V>> frozen;
+        private final Iterator<Element<V>> active;
+        private Element<V> nextFrozen;
+        private Element<V> nextActive;
+
+        private MergeIterator(Iterator<Element<V>> frozen, Iterator<Element<V>> active) {
+            this.frozen = frozen;
+            this.active = active;
+            this.nextFrozen = frozen.hasNext() ? frozen.next() : null;
+            this.nextActive = active.hasNext() ? active.next() : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextFrozen != null || nextActive != null;
+        }
+
+        @Override
+        public Element<V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Element<V> result;
+            if (nextActive == null || (nextFrozen != null && nextFrozen.getValue().getId() < nextActive.getValue().getId())) {
+                result = nextFrozen;
+                nextFrozen = frozen.hasNext() ? frozen.next() : null;
+            } else {
+                if (nextFrozen != null && nextFrozen.getValue().getId() == nextActive.getValue().getId()) {
+                    nextFrozen = frozen.hasNext() ? frozen.next() : null;
+                }
+                result = nextActive;
+                nextActive = active.hasNext() ? active.next() : null;
+            }
+            return result;
+        }
     }
 }
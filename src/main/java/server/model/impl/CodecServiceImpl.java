@@ -0,0 +1,177 @@
+package server.model.impl;
+
+import org.apache.commons.io.IOUtils;
+import server.model.*;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Кодеки сжатия таблицы по видам данных. Сжатые данные начинаются с заголовка [MAGIC][id кодека],
+ * поэтому кодек можно менять на лету: старые данные читаются кодеком из заголовка.
+ * Данные без заголовка, записанные gzip, читаются как раньше
+ */
+public class CodecServiceImpl extends BaseDestroyable implements CodecService {
+    private static final String FILE_NAME = "codecs";
+    private static final byte MAGIC = (byte) 0xC5;
+    private static final DataCompressor[] DECODERS = {new NoneDataCompressorImpl(), new LzDataCompressorImpl(),
+            new DeflaterDataCompressorImpl(), new DataCompressorImpl()};
+
+    private final Map<DataKind, String> codecs = new ConcurrentHashMap<>();
+    private final Map<DataKind, DataCompressor> encoders = new ConcurrentHashMap<>();
+    private final Map<DataKind, DataCompressor> compressors = new EnumMap<>(DataKind.class);
+    private final Map<DataKind, ObjectConverter> objectConverters = new EnumMap<>(DataKind.class);
+    private final String fileName;
+    private volatile boolean changed;
+
+    public CodecServiceImpl(String filePath, boolean init, ObjectConverter objectConverter, DestroyService destroyService, String rowsCodec, String indexesCodec, String metadataCodec) {
+        super(filePath, init, objectConverter, destroyService, Utils.getFullPath(filePath, FILE_NAME));
+        this.fileName = Utils.getFullPath(filePath, FILE_NAME) + FILE_NAME;
+        final Map<String, String> saved = new File(fileName).exists() ? objectConverter.fromFile(HashMap.class, fileName) : new HashMap<>();
+        put(DataKind.Rows, saved.getOrDefault(DataKind.Rows.name(), rowsCodec));
+        put(DataKind.Indexes, saved.getOrDefault(DataKind.Indexes.name(), indexesCodec));
+        put(DataKind.Metadata, saved.getOrDefault(DataKind.Metadata.name(), metadataCodec));
+        for (DataKind dataKind : DataKind.values()) {
+            final DataCompressor dataCompressor = new CodecDataCompressor(dataKind);
+            compressors.put(dataKind, dataCompressor);
+            objectConverters.put(dataKind, new ObjectConverterImpl(dataCompressor));
+        }
+    }
+
+    /**
+     * @param codec none, lz, gzip, deflate или deflate:уровень
+     */
+    public static DataCompressor parse(String codec) {
+        final String[] parts = codec.trim().toLowerCase().split(":");
+        switch (parts[0]) {
+            case "none":
+                return new NoneDataCompressorImpl();
+            case "lz":
+                return new LzDataCompressorImpl();
+            case "gzip":
+                return new DataCompressorImpl();
+            case "deflate":
+                return parts.length > 1 ? new DeflaterDataCompressorImpl(Integer.parseInt(parts[1])) : new DeflaterDataCompressorImpl();
+            default:
+                throw new IllegalArgumentException("unknown codec " + codec);
+        }
+    }
+
+    private static DataCompressor getDecoder(byte id) {
+        if (id < 0 || id >= DECODERS.length) {
+            throw new IllegalArgumentException("unknown codec id " + id);
+        }
+        return DECODERS[id];
+    }
+
+    private void put(DataKind dataKind, String codec) {
+        encoders.put(dataKind, parse(codec));
+        codecs.put(dataKind, codec);
+    }
+
+    @Override
+    public DataCompressor getCompressor(DataKind dataKind) {
+        return compressors.get(dataKind);
+    }
+
+    @Override
+    public ObjectConverter getObjectConverter(DataKind dataKind) {
+        return objectConverters.get(dataKind);
+    }
+
+    @Override
+    public void setCodec(DataKind dataKind, String codec) {
+        put(dataKind, codec);
+        changed = true;
+    }
+
+    @Override
+    public String getCodec(DataKind dataKind) {
+        return codecs.get(dataKind);
+    }
+
+    @Override
+    public void destroy() {
+        if (changed) {
+            changed = false;
+            final HashMap<String, String> map = new HashMap<>();
+            codecs.forEach((dataKind, codec) -> map.put(dataKind.name(), codec));
+            objectConverter.toFile(map, fileName);
+        }
+    }
+
+    private class CodecDataCompressor implements DataCompressor {
+        private final DataKind dataKind;
+
+        private CodecDataCompressor(DataKind dataKind) {
+            this.dataKind = dataKind;
+        }
+
+        @Override
+        public byte getId() {
+            return encoders.get(dataKind).getId();
+        }
+
+        @Override
+        public byte[] compress(byte[] input) {
+            final DataCompressor encoder = encoders.get(dataKind);
+            final byte[] compressed = encoder.compress(input);
+            final byte[] output = new byte[compressed.length + 2];
+            output[0] = MAGIC;
+            output[1] = encoder.getId();
+            System.arraycopy(compressed, 0, output, 2, compressed.length);
+            return output;
+        }
+
+        @Override
+        public byte[] decompress(byte[] input) {
+            if (isGzip(input)) {
+                return DECODERS[DataCompressorImpl.ID].decompress(input);
+            }
+            if (input.length < 2 || input[0] != MAGIC) {
+                throw new IllegalArgumentException("unknown compressed data format");
+            }
+            return getDecoder(input[1]).decompress(Arrays.copyOfRange(input, 2, input.length));
+        }
+
+        @Override
+        public OutputStream compress(OutputStream outputStream) {
+            final DataCompressor encoder = encoders.get(dataKind);
+            try {
+                outputStream.write(MAGIC);
+                outputStream.write(encoder.getId());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return encoder.compress(outputStream);
+        }
+
+        @Override
+        public InputStream decompress(InputStream inputStream) {
+            try {
+                final InputStream input = inputStream.markSupported() ? inputStream : new BufferedInputStream(inputStream);
+                input.mark(2);
+                final byte[] header = new byte[2];
+                final int read = IOUtils.read(input, header);
+                if (read == 2 && isGzip(header)) {
+                    input.reset();
+                    return DECODERS[DataCompressorImpl.ID].decompress(input);
+                }
+                if (read != 2 || header[0] != MAGIC) {
+                    throw new IllegalArgumentException("unknown compressed data format");
+                }
+                return getDecoder(header[1]).decompress(input);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private boolean isGzip(byte[] bytes) {
+            return bytes.length > 1 && bytes[0] == (byte) 0x1f && bytes[1] == (byte) 0x8b;
+        }
+    }
+}
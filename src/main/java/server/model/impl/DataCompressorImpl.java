@@ -14,6 +14,12 @@ import java.util.zip.GZIPOutputStream;
 
 public class DataCompressorImpl implements DataCompressor {
     private static final Logger log = LoggerFactory.getLogger(DataCompressorImpl.class);
+    public static final byte ID = 3;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
 
     @Override
     public byte[] compress(byte[] input) {
@@ -0,0 +1,75 @@
+package server.model.impl;
+
+import server.model.BaseDataCompressor;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate с настраиваемым уровнем сжатия, без заголовков gzip. Уровень при чтении не нужен
+ */
+public class DeflaterDataCompressorImpl extends BaseDataCompressor {
+    public static final byte ID = 2;
+
+    private final int level;
+
+    public DeflaterDataCompressorImpl() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public DeflaterDataCompressorImpl(int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("wrong deflater level " + level);
+        }
+        this.level = level;
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] input) {
+        final Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2 + 16);
+            final byte[] header = new byte[Integer.BYTES];
+            writeLength(header, input.length);
+            output.write(header, 0, header.length);
+            final byte[] buffer = new byte[Math.max(64, Math.min(input.length, 64 * 1024))];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] input) {
+        final byte[] output = new byte[readLength(input)];
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input, Integer.BYTES, input.length - Integer.BYTES);
+            int length = 0;
+            while (length < output.length) {
+                final int inflated = inflater.inflate(output, length, output.length - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalArgumentException("unexpected end of deflated data");
+                }
+                length += inflated;
+            }
+            return output;
+        } catch (DataFormatException e) {
+            throw new RuntimeException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -1,29 +1,81 @@
 package server.model.impl;
 
-import server.model.AsyncDestroyable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import server.model.BaseFilePathHolder;
 import server.model.DestroyService;
 import server.model.Destroyable;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Планировщик сброса. Компоненты одной таблицы (с общим filePath) сбрасываются последовательно одной задачей,
+ * разные таблицы - параллельно в пуле. Компонент сбрасывается, когда прошел интервал его таблицы
+ * или его разбудили через wakeUp, поэтому медленная таблица не задерживает остальные.
+ * Если сумма несброшенных байт всех компонентов превысила maxDirtyBytes, таблицы с наибольшим объемом сбрасываются раньше срока
+ */
+public class DestroyServiceImpl implements DestroyService {
+    private static final Logger log = LoggerFactory.getLogger(DestroyServiceImpl.class);
+    private static final long TICK = 100;
+    private static final int DEFAULT_THREADS = 4;
+
+    private static final long STOP_TIMEOUT = 10_000;
 
-public class DestroyServiceImpl extends AsyncDestroyable implements DestroyService {
     private final long sleepTime;
-    private final List<Destroyable> destroyableList = new ArrayList<>();
+    private final Map<String, Long> sleepTimes;
+    private final long maxDirtyBytes;
+    private final Thread scheduler;
+    private final Map<Object, Group> groups = new ConcurrentHashMap<>();
+    private final ExecutorService executorService;
+    private final Object signal = new Object();
+    private boolean signaled;
+    private volatile boolean awaken;
+    private volatile boolean stopped;
 
     public DestroyServiceImpl(long sleepTime) {
+        this(sleepTime, DEFAULT_THREADS, Collections.emptyMap());
+    }
+
+    /**
+     * @param threads    число потоков, сбрасывающих таблицы параллельно
+     * @param sleepTimes интервалы сброса по именам таблиц, для остальных используется sleepTime
+     */
+    public DestroyServiceImpl(long sleepTime, int threads, Map<String, Long> sleepTimes) {
+        this(sleepTime, threads, sleepTimes, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxDirtyBytes объем несброшенных изменений всех таблиц, после которого сброс начинается раньше срока
+     */
+    public DestroyServiceImpl(long sleepTime, int threads, Map<String, Long> sleepTimes, long maxDirtyBytes) {
         this.sleepTime = sleepTime;
-        startDestroy(sleepTime);
+        this.sleepTimes = sleepTimes;
+        this.maxDirtyBytes = maxDirtyBytes;
+        this.executorService = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "destroy-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler = new Thread(this::schedule, "destroy-scheduler");
+        scheduler.setDaemon(true);
+        scheduler.start();
     }
 
     @Override
-    public synchronized void register(Destroyable destroyable) {
-        destroyableList.add(destroyable);
+    public void register(Destroyable destroyable) {
+        final Object key = key(destroyable);
+        groups.computeIfAbsent(key, k -> new Group(sleepTime(k))).tasks.add(new Task(destroyable));
     }
 
     @Override
-    public synchronized void unregister(Destroyable destroyable) {
-        destroyableList.remove(destroyable);
+    public void unregister(Destroyable destroyable) {
+        groups.computeIfPresent(key(destroyable), (key, group) -> {
+            group.tasks.removeIf(task -> task.destroyable == destroyable);
+            return group.tasks.isEmpty() ? null : group;
+        });
     }
 
     @Override
@@ -32,7 +84,196 @@ public class DestroyServiceImpl extends AsyncDestroyable implements DestroyServi
     }
 
     @Override
-    public synchronized void destroy() {
-        destroyableList.forEach(Destroyable::destroy);
+    public void wakeUp() {
+        awaken = true;
+        signal();
+    }
+
+    @Override
+    public void wakeUp(Destroyable destroyable) {
+        final Group group = groups.get(key(destroyable));
+        if (group == null) {
+            return;
+        }
+        for (Task task : group.tasks) {
+            if (task.destroyable == destroyable) {
+                task.requested = true;
+            }
+        }
+        signal();
+    }
+
+    /**
+     * Останавливает планировщик и пул, дожидается начатых сбросов и синхронно сбрасывает все компоненты.
+     * Вызывается при остановке приложения
+     */
+    @Override
+    public void destroy() {
+        stopped = true;
+        scheduler.interrupt();
+        executorService.shutdown();
+        try {
+            scheduler.join(STOP_TIMEOUT);
+            if (!executorService.awaitTermination(STOP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                log.warn("destroy workers are still running");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        groups.values().forEach(group -> group.run(true));
+    }
+
+    private void signal() {
+        synchronized (signal) {
+            signaled = true;
+            signal.notifyAll();
+        }
+    }
+
+    private void schedule() {
+        while (!stopped) {
+            synchronized (signal) {
+                if (!signaled) {
+                    try {
+                        signal.wait(TICK);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                signaled = false;
+            }
+            final boolean all = awaken;
+            awaken = false;
+            requestDirty();
+            final long now = System.currentTimeMillis();
+            for (Group group : groups.values()) {
+                if (all) {
+                    group.tasks.forEach(task -> task.requested = true);
+                }
+                if (group.isDue(now) && group.scheduled.compareAndSet(false, true)) {
+                    try {
+                        executorService.execute(() -> {
+                            try {
+                                group.run(false);
+                            } finally {
+                                group.scheduled.set(false);
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        group.scheduled.set(false);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Будит таблицы по убыванию несброшенного объема, пока остаток не опустится до maxDirtyBytes.
+     * Таблицы, которые уже сбрасываются, не учитываются
+     */
+    private void requestDirty() {
+        if (maxDirtyBytes == Long.MAX_VALUE) {
+            return;
+        }
+        final Map<Group, Long> dirtyBytes = new HashMap<>();
+        long total = 0;
+        for (Group group : groups.values()) {
+            if (group.scheduled.get()) {
+                continue;
+            }
+            final long bytes = group.getDirtyBytes();
+            if (bytes > 0) {
+                dirtyBytes.put(group, bytes);
+                total += bytes;
+            }
+        }
+        if (total <= maxDirtyBytes) {
+            return;
+        }
+        final List<Map.Entry<Group, Long>> entries = new ArrayList<>(dirtyBytes.entrySet());
+        entries.sort(Map.Entry.<Group, Long>comparingByValue().reversed());
+        for (Map.Entry<Group, Long> entry : entries) {
+            if (total <= maxDirtyBytes) {
+                break;
+            }
+            entry.getKey().tasks.forEach(task -> {
+                if (task.destroyable.getDirtyBytes() > 0) {
+                    task.requested = true;
+                }
+            });
+            total -= entry.getValue();
+        }
+    }
+
+    private Object key(Destroyable destroyable) {
+        return destroyable instanceof BaseFilePathHolder ? ((BaseFilePathHolder) destroyable).getFilePath() : destroyable;
+    }
+
+    private long sleepTime(Object key) {
+        if (key instanceof String) {
+            final Long tableSleepTime = sleepTimes.get(new File((String) key).getName());
+            if (tableSleepTime != null) {
+                return tableSleepTime;
+            }
+        }
+        return sleepTime;
+    }
+
+    private static class Group {
+        private final long sleepTime;
+        private final List<Task> tasks = new CopyOnWriteArrayList<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Group(long sleepTime) {
+            this.sleepTime = sleepTime;
+        }
+
+        private long getDirtyBytes() {
+            long bytes = 0;
+            for (Task task : tasks) {
+                bytes += task.destroyable.getDirtyBytes();
+            }
+            return bytes;
+        }
+
+        private boolean isDue(long now) {
+            for (Task task : tasks) {
+                if (task.isDue(now, sleepTime)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private synchronized void run(boolean force) {
+            for (Task task : tasks) {
+                final long now = System.currentTimeMillis();
+                if (!force && !task.isDue(now, sleepTime)) {
+                    continue;
+                }
+                task.requested = false;
+                task.lastRun = now;
+                try {
+                    task.destroyable.destroy();
+                } catch (RuntimeException e) {
+                    log.error("destroy error", e);
+                }
+            }
+        }
+    }
+
+    private static class Task {
+        private final Destroyable destroyable;
+        private volatile long lastRun = System.currentTimeMillis();
+        private volatile boolean requested;
+
+        private Task(Destroyable destroyable) {
+            this.destroyable = destroyable;
+        }
+
+        private boolean isDue(long now, long sleepTime) {
+            return requested || now - lastRun >= sleepTime;
+        }
     }
 }
@@ -0,0 +1,158 @@
+package server.model.impl;
+
+import server.model.pojo.Pair;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Сортировка пар (ключ, значение) по ключу. В памяти держится не больше maxSize пар, при переполнении они сортируются
+ * и сбрасываются в отдельный файл. Итератор сливает отсортированные файлы и остаток в памяти через очередь с приоритетом
+ */
+public class ExternalSorter<U extends Comparable<U>, V> {
+    private static final int RESET_SIZE = 1000;
+    private final String fileName;
+    private final int maxSize;
+    private final List<Pair<U, V>> pairs = new ArrayList<>();
+    private final List<String> files = new ArrayList<>();
+    private final List<ObjectInputStream> inputStreams = new ArrayList<>();
+
+    /**
+     * @param fileName префикс файлов сброса
+     * @param maxSize  число пар в памяти
+     */
+    public ExternalSorter(String fileName, int maxSize) {
+        this.fileName = fileName;
+        this.maxSize = maxSize;
+    }
+
+    public void add(U key, V value) {
+        pairs.add(new Pair<>(key, value));
+        if (pairs.size() >= maxSize) {
+            spill();
+        }
+    }
+
+    private void spill() {
+        pairs.sort(Comparator.comparing(Pair::getFirst));
+        final String file = fileName + "." + files.size();
+        try (ObjectOutputStream outputStream = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            outputStream.writeInt(pairs.size());
+            for (int i = 0; i < pairs.size(); i++) {
+                if (i % RESET_SIZE == 0) {
+                    outputStream.reset();
+                }
+                outputStream.writeObject(pairs.get(i).getFirst());
+                outputStream.writeObject(pairs.get(i).getSecond());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        files.add(file);
+        pairs.clear();
+    }
+
+    /**
+     * Пары по возрастанию ключа, пары с равными ключами идут подряд
+     */
+    public Iterator<Pair<U, V>> iterator() {
+        pairs.sort(Comparator.comparing(Pair::getFirst));
+        if (files.isEmpty()) {
+            return pairs.iterator();
+        }
+        final PriorityQueue<Run> queue = new PriorityQueue<>(Comparator.comparing(run -> run.pair.getFirst()));
+        final Run memoryRun = new Run(pairs.iterator());
+        if (memoryRun.next()) {
+            queue.add(memoryRun);
+        }
+        for (String file : files) {
+            final Run run = new Run(new FileIterator(file));
+            if (run.next()) {
+                queue.add(run);
+            }
+        }
+        return new Iterator<Pair<U, V>>() {
+            @Override
+            public boolean hasNext() {
+                return !queue.isEmpty();
+            }
+
+            @Override
+            public Pair<U, V> next() {
+                final Run run = queue.poll();
+                if (run == null) {
+                    throw new NoSuchElementException();
+                }
+                final Pair<U, V> pair = run.pair;
+                if (run.next()) {
+                    queue.add(run);
+                }
+                return pair;
+            }
+        };
+    }
+
+    /**
+     * Закрывает и удаляет файлы сброса
+     */
+    public void clear() {
+        for (ObjectInputStream inputStream : inputStreams) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        inputStreams.clear();
+        files.forEach(file -> new File(file).delete());
+        files.clear();
+        pairs.clear();
+    }
+
+    private class Run {
+        private final Iterator<Pair<U, V>> iterator;
+        private Pair<U, V> pair;
+
+        private Run(Iterator<Pair<U, V>> iterator) {
+            this.iterator = iterator;
+        }
+
+        private boolean next() {
+            pair = iterator.hasNext() ? iterator.next() : null;
+            return pair != null;
+        }
+    }
+
+    private class FileIterator implements Iterator<Pair<U, V>> {
+        private final ObjectInputStream inputStream;
+        private int remaining;
+
+        private FileIterator(String file) {
+            try {
+                inputStream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+                inputStreams.add(inputStream);
+                remaining = inputStream.readInt();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public Pair<U, V> next() {
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            remaining--;
+            try {
+                return new Pair<>((U) inputStream.readObject(), (V) inputStream.readObject());
+            } catch (IOException | ClassNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -78,7 +78,7 @@ public class FieldMap<U extends Comparable<U>, V> extends BaseFieldKeeper<U, V>
 
 
     private MapVariables<U, V> getVariables() {
-        return (MapVariables<U, V>) variables;
+        return (MapVariables<U, V>) variables();
     }
 
     private static class MapVariables<U, V> extends Variables<U, V> {
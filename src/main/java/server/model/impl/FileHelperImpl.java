@@ -1,8 +1,10 @@
 package server.model.impl;
 
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import server.model.ChainedLock;
+import server.model.DataCompressor;
 import server.model.FileHelper;
 import server.model.StoppableBatchStream;
 import server.model.Utils;
@@ -12,13 +14,67 @@ import server.model.lock.ReadWriteLock;
 import server.model.pojo.RowAddress;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
+/**
+ * Файлы строк могут храниться блоками: заголовок MAGIC, затем блоки [размер данных][размер сжатых данных][сжатые данные].
+ * Позиции строк в RowAddress - позиции в несжатых данных. Файлы без заголовка читаются и дописываются как раньше
+ */
 public class FileHelperImpl implements FileHelper {
     private static final Logger log = LoggerFactory.getLogger(FileHelperImpl.class);
+    private static final int DEFAULT_MAX_CHANNELS = 256;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_BLOCK_SIZE = 32 * 1024;
+    private static final byte[] MAGIC = {'R', 'B', 'F', 1};
+    private static final int BLOCK_HEADER_SIZE = Integer.BYTES * 2;
+    private static final BlockIndex RAW = new BlockIndex();
     private final ReadWriteLock<String> readWriteLock = LockService.getFileReadWriteLock();
+    private final Map<String, FileChannel> channels;
+    private final Map<String, BlockIndex> blockIndexes = new HashMap<>();
+    private final Map<BlockKey, byte[]> blocks;
+    private final DataCompressor dataCompressor;
+    private final int blockSize;
+
+    public FileHelperImpl() {
+        this(DEFAULT_MAX_CHANNELS);
+    }
+
+    public FileHelperImpl(int maxChannels) {
+        this(maxChannels, new DataCompressorImpl(), 0, 0);
+    }
+
+    /**
+     * @param blockSize размер несжатого блока для новых файлов, 0 - писать файлы без сжатия
+     */
+    public FileHelperImpl(int maxChannels, DataCompressor dataCompressor, int blockSize, int maxCachedBlocks) {
+        this.dataCompressor = dataCompressor;
+        this.blockSize = blockSize;
+        this.channels = new LinkedHashMap<String, FileChannel>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FileChannel> eldest) {
+                if (size() > maxChannels) {
+                    closeChannel(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.blocks = new LinkedHashMap<BlockKey, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BlockKey, byte[]> eldest) {
+                return size() > maxCachedBlocks;
+            }
+        };
+    }
 
     @Override
     public void write(String fileName, byte[] bytes, boolean append) {
@@ -31,21 +87,267 @@ public class FileHelperImpl implements FileHelper {
         });
     }
 
+    /**
+     * Дописывает байты в формате файла: к файлу блоков новыми блоками, к старому файлу как есть.
+     * Закэшированный индекс блоков дополняется записанными блоками, а не строится заново
+     */
+    @Override
+    public long append(String fileName, byte[] bytes) {
+        return LockService.doInLock(readWriteLock.writeLock(), fileName, () -> {
+            final File file = new File(fileName);
+            final boolean empty = file.length() == 0;
+            final BlockIndex blockIndex = empty ? null : getBlockIndex(fileName);
+            final boolean raw = empty ? blockSize <= 0 : blockIndex == RAW;
+            final long position = raw ? file.length() : empty ? 0 : blockIndex.logicalLength;
+            final BlockIndex target = raw ? null : empty ? new BlockIndex() : blockIndex;
+            try (OutputStream output = raw ? new FileOutputStream(file, true) :
+                    new BlockOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), COPY_BUFFER_SIZE), empty, target, file.length())) {
+                output.write(bytes);
+            } catch (IOException e) {
+                synchronized (blockIndexes) {
+                    blockIndexes.remove(fileName);
+                }
+                throw new RuntimeException(e);
+            }
+            if (empty) {
+                synchronized (blockIndexes) {
+                    if (raw) {
+                        blockIndexes.remove(fileName);
+                    } else {
+                        blockIndexes.put(fileName, target);
+                    }
+                }
+            }
+            return position;
+        });
+    }
+
     @Override
     public byte[] read(RowAddress rowAddress) {
         return LockService.doInLock(readWriteLock.readLock(), rowAddress.getFilePath(), () -> {
-            if (!new File(rowAddress.getFilePath()).exists()) {
+            final BlockIndex blockIndex = getBlockIndex(rowAddress.getFilePath());
+            if (blockIndex == null) {
                 return null;
             }
-            try (InputStream inputStream = new BufferedInputStream(new FileInputStream(rowAddress.getFilePath()))) {
-                skip(inputStream, rowAddress.getPosition());
-                final byte[] bytes = new byte[rowAddress.getSize()];
-                inputStream.read(bytes);
+            final byte[] bytes = new byte[rowAddress.getSize()];
+            if (blockIndex == RAW) {
+                if (!read(rowAddress.getFilePath(), ByteBuffer.wrap(bytes), rowAddress.getPosition())) {
+                    return null;
+                }
                 return bytes;
+            }
+            int offset = 0;
+            int blockNumber = blockIndex.find(rowAddress.getPosition());
+            while (offset < bytes.length) {
+                if (blockNumber < 0 || blockNumber >= blockIndex.size) {
+                    throw new RuntimeException("unexpected end of file " + rowAddress.getFilePath() + ", expected " + (bytes.length - offset) + " more bytes");
+                }
+                final byte[] block = getBlock(rowAddress.getFilePath(), blockIndex, blockNumber);
+                final int from = (int) (rowAddress.getPosition() + offset - blockIndex.logicalOffsets[blockNumber]);
+                final int length = Math.min(bytes.length - offset, block.length - from);
+                System.arraycopy(block, from, bytes, offset, length);
+                offset += length;
+                blockNumber++;
+            }
+            return bytes;
+        });
+    }
+
+    /**
+     * Размер несжатых данных файла
+     */
+    @Override
+    public long length(String fileName) {
+        return LockService.doInLock(readWriteLock.readLock(), fileName, () -> {
+            final BlockIndex blockIndex = getBlockIndex(fileName);
+            if (blockIndex == null) {
+                return 0L;
+            }
+            return blockIndex == RAW ? new File(fileName).length() : blockIndex.logicalLength;
+        });
+    }
+
+    /**
+     * Индекс блоков файла, строится по заголовкам блоков
+     *
+     * @return null, если файла не существует, RAW - для файла без блоков
+     */
+    private BlockIndex getBlockIndex(String fileName) {
+        synchronized (blockIndexes) {
+            final BlockIndex blockIndex = blockIndexes.get(fileName);
+            if (blockIndex != null) {
+                return blockIndex;
+            }
+        }
+        final FileChannel channel = getChannel(fileName);
+        if (channel == null) {
+            return null;
+        }
+        final BlockIndex blockIndex;
+        try {
+            final long fileSize = channel.size();
+            final ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            if (fileSize < MAGIC.length || !read(fileName, magic, 0) || !Arrays.equals(MAGIC, magic.array())) {
+                blockIndex = RAW;
+            } else {
+                blockIndex = new BlockIndex();
+                final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+                long physicalOffset = MAGIC.length;
+                while (physicalOffset < fileSize) {
+                    header.clear();
+                    if (!read(fileName, header, physicalOffset)) {
+                        return null;
+                    }
+                    header.flip();
+                    final int logicalSize = header.getInt();
+                    final int compressedSize = header.getInt();
+                    blockIndex.add(physicalOffset, logicalSize, compressedSize);
+                    physicalOffset += BLOCK_HEADER_SIZE + compressedSize;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        synchronized (blockIndexes) {
+            blockIndexes.put(fileName, blockIndex);
+        }
+        return blockIndex;
+    }
+
+    private byte[] getBlock(String fileName, BlockIndex blockIndex, int blockNumber) {
+        final BlockKey key = new BlockKey(fileName, blockIndex.physicalOffsets[blockNumber]);
+        synchronized (blocks) {
+            final byte[] block = blocks.get(key);
+            if (block != null) {
+                return block;
+            }
+        }
+        final ByteBuffer compressed = ByteBuffer.allocate(blockIndex.compressedSizes[blockNumber]);
+        if (!read(fileName, compressed, blockIndex.physicalOffsets[blockNumber] + BLOCK_HEADER_SIZE)) {
+            throw new RuntimeException("file " + fileName + " not found");
+        }
+        final byte[] block = decompress(compressed.array(), blockIndex.logicalSizes[blockNumber]);
+        synchronized (blocks) {
+            blocks.put(key, block);
+        }
+        return block;
+    }
+
+    private byte[] decompress(byte[] compressed, int logicalSize) {
+        final byte[] block = dataCompressor.decompress(compressed);
+        if (block.length != logicalSize) {
+            throw new RuntimeException("wrong block size " + block.length + ", expected " + logicalSize);
+        }
+        return block;
+    }
+
+    /**
+     * Позиционное чтение через закэшированный канал, без открытия файла и skip
+     *
+     * @return false, если файла не существует
+     */
+    private boolean read(String fileName, ByteBuffer buffer, long position) {
+        while (true) {
+            final FileChannel channel = getChannel(fileName);
+            if (channel == null) {
+                return false;
+            }
+            try {
+                while (buffer.hasRemaining()) {
+                    final int actual = channel.read(buffer, position + buffer.position());
+                    if (actual < 0) {
+                        throw new RuntimeException("unexpected end of file " + fileName + ", expected " + buffer.remaining() + " more bytes");
+                    }
+                }
+                return true;
+            } catch (ClosedByInterruptException e) {
+                throw new RuntimeException(e);
+            } catch (ClosedChannelException e) {
+                // канал был вытеснен из кэша другим потоком, открываем заново
+                buffer.clear();
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-        });
+        }
+    }
+
+    private FileChannel getChannel(String fileName) {
+        synchronized (channels) {
+            final FileChannel channel = channels.get(fileName);
+            if (channel != null && channel.isOpen()) {
+                return channel;
+            }
+            final File file = new File(fileName);
+            if (!file.exists()) {
+                return null;
+            }
+            try {
+                final FileChannel created = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                channels.put(fileName, created);
+                return created;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Override
+    public void release(String path) {
+        synchronized (channels) {
+            for (Iterator<Map.Entry<String, FileChannel>> iterator = channels.entrySet().iterator(); iterator.hasNext(); ) {
+                final Map.Entry<String, FileChannel> entry = iterator.next();
+                if (isUnder(entry.getKey(), path)) {
+                    closeChannel(entry.getValue());
+                    iterator.remove();
+                }
+            }
+        }
+        synchronized (blockIndexes) {
+            blockIndexes.keySet().removeIf(key -> isUnder(key, path));
+        }
+        synchronized (blocks) {
+            blocks.keySet().removeIf(key -> isUnder(key.fileName, path));
+        }
+    }
+
+    /**
+     * Файл совпадает с path или лежит в директории path, "table1" не захватывает файлы "table10"
+     */
+    private static boolean isUnder(String fileName, String path) {
+        if (!fileName.startsWith(path)) {
+            return false;
+        }
+        if (fileName.length() == path.length() || path.isEmpty() || isSeparator(path.charAt(path.length() - 1))) {
+            return true;
+        }
+        return isSeparator(fileName.charAt(path.length()));
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '/' || c == File.separatorChar;
+    }
+
+    private void evict(String fileName) {
+        synchronized (channels) {
+            final FileChannel channel = channels.remove(fileName);
+            if (channel != null) {
+                closeChannel(channel);
+            }
+        }
+        synchronized (blockIndexes) {
+            blockIndexes.remove(fileName);
+        }
+        synchronized (blocks) {
+            blocks.keySet().removeIf(key -> key.fileName.equals(fileName));
+        }
+    }
+
+    private void closeChannel(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error("error while closing channel", e);
+        }
     }
 
     @Override
@@ -57,18 +359,20 @@ public class FileHelperImpl implements FileHelper {
             return;
         }
         try {
-            long skipped = inputStream.skip(size);
-            if (skipped < size) {
-                for (int i = 0; i < size - skipped; i++) {
-                    if (inputStream.available() <= 0) {
-                        break;
+            long remaining = size;
+            byte[] buffer = null;
+            while (remaining > 0) {
+                long skipped = inputStream.skip(remaining);
+                if (skipped <= 0) {
+                    if (buffer == null) {
+                        buffer = new byte[(int) Math.min(remaining, COPY_BUFFER_SIZE)];
                     }
-                    if (inputStream.available() >= size - skipped - i) {
-                        inputStream.skip(size - skipped - i);
+                    skipped = inputStream.read(buffer, 0, (int) Math.min(remaining, buffer.length));
+                    if (skipped < 0) {
                         break;
                     }
-                    inputStream.read();
                 }
+                remaining -= skipped;
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -82,8 +386,15 @@ public class FileHelperImpl implements FileHelper {
                 return null;
             }
             try {
-                return new BufferedInputStream(new FileInputStream(value));
-            } catch (FileNotFoundException e) {
+                final InputStream inputStream = new BufferedInputStream(new FileInputStream(value), COPY_BUFFER_SIZE);
+                inputStream.mark(MAGIC.length);
+                final byte[] magic = new byte[MAGIC.length];
+                if (IOUtils.read(inputStream, magic) == MAGIC.length && Arrays.equals(MAGIC, magic)) {
+                    return new BlockInputStream(inputStream);
+                }
+                inputStream.reset();
+                return inputStream;
+            } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         });
@@ -93,7 +404,8 @@ public class FileHelperImpl implements FileHelper {
     public ChainStream<OutputStream> getChainOutputStream() {
         return new ChainLockStream<>(readWriteLock.writeLock(), value -> {
             try {
-                return new BufferedOutputStream(new FileOutputStream(value), 10000);
+                final OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(value), blockSize > 0 ? COPY_BUFFER_SIZE : 10000);
+                return blockSize > 0 ? new BlockOutputStream(outputStream, true) : outputStream;
             } catch (FileNotFoundException e) {
                 throw new RuntimeException(e);
             }
@@ -109,10 +421,11 @@ public class FileHelperImpl implements FileHelper {
              ChainStream<OutputStream> chainOutputStream = getChainOutputStream()) {
             log.info("processing saved rows");
             final AtomicLong counter = new AtomicLong();
+            final byte[] buffer = new byte[COPY_BUFFER_SIZE];
             final Runnable saveTempFileRunnable = () -> {
                 if (!chainInputStream.isClosed()) {
                     try {
-                        writeToEnd(chainInputStream, chainOutputStream);
+                        writeToEnd(chainInputStream, chainOutputStream, buffer);
                         chainInputStream.close();
                         chainOutputStream.close();
                         saveTempFile(tempFileName[0], inputFileName[0]);
@@ -134,19 +447,13 @@ public class FileHelperImpl implements FileHelper {
                     });
                     boolean found = false;
                     if (chainInputStream.getStream() != null) {
-                        while (true) {
-                            if (inputLastPosition[0] == rowAddress.getPosition()) {
-                                consumer.accept(new CollectBean(rowAddress, chainInputStream.getStream(), chainOutputStream.getStream()));
-                                inputLastPosition[0] = rowAddress.getPosition() + rowAddress.getSize();
-                                found = true;
-                                break;
-                            }
-                            final int bit = chainInputStream.getStream().read();
-                            if (bit == -1) {
-                                break;
-                            }
-                            chainOutputStream.getStream().write(bit);
-                            inputLastPosition[0]++;
+                        final long length = rowAddress.getPosition() - inputLastPosition[0];
+                        final long copied = length > 0 ? IOUtils.copyLarge(chainInputStream.getStream(), chainOutputStream.getStream(), 0, length, buffer) : 0;
+                        inputLastPosition[0] += copied;
+                        if (inputLastPosition[0] == rowAddress.getPosition()) {
+                            consumer.accept(new CollectBean(rowAddress, chainInputStream.getStream(), chainOutputStream.getStream()));
+                            inputLastPosition[0] = rowAddress.getPosition() + rowAddress.getSize();
+                            found = true;
                         }
                     }
                     if (!found) {
@@ -166,17 +473,59 @@ public class FileHelperImpl implements FileHelper {
         }
     }
 
-    private void writeToEnd(ChainStream<InputStream> chainInputStream, ChainStream<OutputStream> chainOutputStream) throws IOException {
+    /**
+     * Переписывает файл, оставляя только строки из потока в порядке потока.
+     * Файл подменяется в конце батча, пока вызывающий держит блокировку строк
+     */
+    @Override
+    public void compact(String fileName, StoppableBatchStream<RowAddress> stream, BiConsumer<RowAddress, Long> positionConsumer) {
+        final String tempFileName = getTempFile(fileName);
+        final long[] position = {0};
+        try (ChainStream<OutputStream> chainOutputStream = getChainOutputStream()) {
+            chainOutputStream.init(tempFileName);
+            final Runnable saveTempFileRunnable = () -> {
+                if (!chainOutputStream.isClosed()) {
+                    try {
+                        chainOutputStream.close();
+                        saveTempFile(tempFileName, fileName);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            stream.addOnBatchEnd(saveTempFileRunnable);
+            stream.forEach(rowAddress -> {
+                if (!fileName.equals(rowAddress.getFilePath())) {
+                    throw new IllegalArgumentException("rowAddress " + rowAddress.getId() + " does not belong to file " + fileName);
+                }
+                final byte[] bytes = read(rowAddress);
+                if (bytes == null) {
+                    return;
+                }
+                try {
+                    chainOutputStream.getStream().write(bytes);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                positionConsumer.accept(rowAddress, position[0]);
+                position[0] += bytes.length;
+            });
+            saveTempFileRunnable.run();
+        } catch (IOException e) {
+            delete(new File(tempFileName));
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeToEnd(ChainStream<InputStream> chainInputStream, ChainStream<OutputStream> chainOutputStream, byte[] buffer) throws IOException {
         if (chainInputStream.getStream() != null) {
-            int bit;
-            while ((bit = chainInputStream.getStream().read()) != -1) {
-                chainOutputStream.getStream().write(bit);
-            }
+            IOUtils.copyLarge(chainInputStream.getStream(), chainOutputStream.getStream(), buffer);
         }
     }
 
     private void saveTempFile(String tempFileName, String inputFileName) {
         LockService.doInLock(readWriteLock.writeLock(), inputFileName, () -> {
+            evict(inputFileName);
             if (!replace(new File(tempFileName), new File(inputFileName))) {
                 throw new RuntimeException("can't replace files");
             }
@@ -228,6 +577,201 @@ public class FileHelperImpl implements FileHelper {
         return fileName + ".tmp";
     }
 
+    private static class BlockIndex {
+        private long[] logicalOffsets = new long[16];
+        private long[] physicalOffsets = new long[16];
+        private int[] logicalSizes = new int[16];
+        private int[] compressedSizes = new int[16];
+        private int size;
+        private long logicalLength;
+
+        private void add(long physicalOffset, int logicalSize, int compressedSize) {
+            if (size == logicalOffsets.length) {
+                logicalOffsets = Arrays.copyOf(logicalOffsets, size * 2);
+                physicalOffsets = Arrays.copyOf(physicalOffsets, size * 2);
+                logicalSizes = Arrays.copyOf(logicalSizes, size * 2);
+                compressedSizes = Arrays.copyOf(compressedSizes, size * 2);
+            }
+            logicalOffsets[size] = logicalLength;
+            physicalOffsets[size] = physicalOffset;
+            logicalSizes[size] = logicalSize;
+            compressedSizes[size] = compressedSize;
+            logicalLength += logicalSize;
+            size++;
+        }
+
+        /**
+         * @return номер блока, содержащего позицию, или -1
+         */
+        private int find(long position) {
+            final int index = Arrays.binarySearch(logicalOffsets, 0, size, position);
+            return index >= 0 ? index : -index - 2;
+        }
+    }
+
+    private static class BlockKey {
+        private final String fileName;
+        private final long physicalOffset;
+
+        private BlockKey(String fileName, long physicalOffset) {
+            this.fileName = fileName;
+            this.physicalOffset = physicalOffset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            final BlockKey blockKey = (BlockKey) o;
+            return physicalOffset == blockKey.physicalOffset && fileName.equals(blockKey.fileName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fileName, physicalOffset);
+        }
+    }
+
+    private class BlockOutputStream extends OutputStream {
+        private final DataOutputStream outputStream;
+        private final byte[] block;
+        private final BlockIndex blockIndex;
+        private boolean writeMagic;
+        private long physicalOffset;
+        private int size;
+
+        private BlockOutputStream(OutputStream outputStream, boolean writeMagic) {
+            this(outputStream, writeMagic, null, 0);
+        }
+
+        /**
+         * @param blockIndex индекс, в который добавляются записанные блоки, null - не вести индекс
+         * @param physicalOffset позиция в файле, с которой пишется поток
+         */
+        private BlockOutputStream(OutputStream outputStream, boolean writeMagic, BlockIndex blockIndex, long physicalOffset) {
+            this.outputStream = new DataOutputStream(outputStream);
+            this.block = new byte[blockSize > 0 ? blockSize : DEFAULT_BLOCK_SIZE];
+            this.writeMagic = writeMagic;
+            this.blockIndex = blockIndex;
+            this.physicalOffset = physicalOffset;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            block[size++] = (byte) b;
+            if (size == block.length) {
+                writeBlock();
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                final int count = Math.min(length, block.length - size);
+                System.arraycopy(bytes, offset, block, size, count);
+                size += count;
+                offset += count;
+                length -= count;
+                if (size == block.length) {
+                    writeBlock();
+                }
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (size == 0) {
+                return;
+            }
+            if (writeMagic) {
+                outputStream.write(MAGIC);
+                writeMagic = false;
+                physicalOffset += MAGIC.length;
+            }
+            final byte[] compressed = dataCompressor.compress(Arrays.copyOf(block, size));
+            outputStream.writeInt(size);
+            outputStream.writeInt(compressed.length);
+            outputStream.write(compressed);
+            if (blockIndex != null) {
+                blockIndex.add(physicalOffset, size, compressed.length);
+            }
+            physicalOffset += BLOCK_HEADER_SIZE + compressed.length;
+            size = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writeBlock();
+            outputStream.close();
+        }
+    }
+
+    private class BlockInputStream extends InputStream {
+        private final DataInputStream inputStream;
+        private byte[] block = new byte[0];
+        private int position;
+
+        private BlockInputStream(InputStream inputStream) {
+            this.inputStream = new DataInputStream(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return block[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            final int count = Math.min(length, block.length - position);
+            System.arraycopy(block, position, bytes, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long length) throws IOException {
+            if (length <= 0 || !fill()) {
+                return 0;
+            }
+            final int count = (int) Math.min(length, block.length - position);
+            position += count;
+            return count;
+        }
+
+        private boolean fill() throws IOException {
+            while (position >= block.length) {
+                final int logicalSize;
+                try {
+                    logicalSize = inputStream.readInt();
+                } catch (EOFException e) {
+                    return false;
+                }
+                final byte[] compressed = new byte[inputStream.readInt()];
+                inputStream.readFully(compressed);
+                block = decompress(compressed, logicalSize);
+                position = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
+        }
+    }
+
     private static class ChainLockStream<T extends Closeable> extends ChainedLock<String> implements ChainStream<T> {
         private final Function<String, T> streamFunction;
         private T currentStream;
@@ -13,9 +13,12 @@ import java.util.stream.Collectors;
 public class IndexServiceImpl extends BaseDestroyable implements IndexService {
     private static final String DIRECTORY = "index";
     private static final SearchResult EMPTY = new SearchResult(false, Collections.emptySet());
+    private static final int SORT_SIZE = 1_000_000;
     private final Map<String, FieldKeeper> fieldKeepers;
     private final String path;
     private final ConditionService conditionService;
+    private final ModelService modelService;
+    private final PageCache pageCache;
     private final List<Consumer<Set<String>>> newIndexesSubscribers = new CopyOnWriteArrayList<>();
     private volatile boolean changed;
 
@@ -29,13 +32,20 @@ public class IndexServiceImpl extends BaseDestroyable implements IndexService {
         super(null, false, null, null);
         this.fieldKeepers = fieldKeepers;
         this.conditionService = conditionService;
+        this.modelService = null;
+        this.pageCache = null;
         this.path = null;
     }
 
-    public IndexServiceImpl(String filePath, boolean init, ObjectConverter objectConverter, DestroyService destroyService, ModelService modelService, ConditionService conditionService) {
+    /**
+     * @param pageCache общий для всех таблиц кэш страниц индексных файлов
+     */
+    public IndexServiceImpl(String filePath, boolean init, ObjectConverter objectConverter, DestroyService destroyService, ModelService modelService, ConditionService conditionService, PageCache pageCache) {
         super(filePath, init, objectConverter, destroyService, Utils.getFullPath(filePath, DIRECTORY));
         this.path = Utils.getFullPath(filePath, DIRECTORY);
         this.conditionService = conditionService;
+        this.modelService = modelService;
+        this.pageCache = pageCache;
         this.fieldKeepers = new ConcurrentHashMap<>();
         if (new File(getFullPath()).exists()) {
             final Set<String> fields = objectConverter.fromFile(HashSet.class, getFullPath());
@@ -166,8 +176,78 @@ public class IndexServiceImpl extends BaseDestroyable implements IndexService {
         newIndexesSubscribers.add(fieldsConsumer);
     }
 
+    @Override
+    public IndexBuilder builder(Set<String> fields) {
+        return new SortIndexBuilder(fields);
+    }
+
+    /**
+     * Индексы, сохраненные до появления страничных файлов, продолжают читаться как BPlusTree
+     */
     private <U extends Comparable<U>, V> FieldKeeper<U, V> createFieldKeeper(String fieldName) {
-        return new BPlusTree<>(fieldName, path, objectConverter, conditionService, 2000, 1_000_000);
+        final String fileName = path + "." + fieldName;
+        if (new File(fileName).exists() && !PagedFile.isPagedFile(fileName)) {
+            return new BPlusTree<>(fieldName, path, objectConverter, conditionService, 2000, 1_000_000, getType(fieldName));
+        }
+        return new LinkedBPlusTree<>(fieldName, path, objectConverter, conditionService, 2000, 1_000_000, getType(fieldName), pageCache);
+    }
+
+    private Class<?> getType(String fieldName) {
+        return modelService.getFields().stream().filter(fieldInfo -> fieldName.equals(fieldInfo.getName()))
+                .map(ModelService.FieldInfo::getType).findFirst().orElse(null);
+    }
+
+    /**
+     * Пары (ключ, id) каждого индекса сортируются внешней сортировкой и загружаются в индекс одним проходом,
+     * null ключи вставляются сразу. Если проход по строкам не дошел до загрузки, индекс удаляется,
+     * чтобы не отвечать на запросы по неполным данным
+     */
+    private class SortIndexBuilder implements IndexBuilder {
+        private final Map<String, ExternalSorter> sorters = new HashMap<>();
+        private final Map<String, Consumer<Iterator>> loaders = new HashMap<>();
+
+        private SortIndexBuilder(Set<String> fields) {
+            fields.forEach(field -> {
+                sorters.put(field, new ExternalSorter<>((path == null ? "" : path) + "." + field + ".sort", SORT_SIZE));
+                loaders.put(field, fieldKeepers.get(field).bulkInsert());
+            });
+        }
+
+        @Override
+        public void add(Row row) {
+            sorters.forEach((field, sorter) -> {
+                final Comparable value = row.getFields().get(field);
+                if (value == null) {
+                    fieldKeepers.get(field).insert(null, row.getId());
+                } else {
+                    sorter.add(value, row.getId());
+                }
+            });
+        }
+
+        @Override
+        public void build() {
+            // загрузчик вызывается один раз, но убирается только после загрузки, чтобы при ошибке clear удалил недостроенный индекс
+            sorters.forEach((field, sorter) -> {
+                loaders.replace(field, ignored -> {
+                }).accept(sorter.iterator());
+                loaders.remove(field);
+            });
+        }
+
+        @Override
+        public void clear() {
+            loaders.forEach((field, loader) -> {
+                loader.accept(Collections.emptyIterator());
+                final FieldKeeper fieldKeeper = fieldKeepers.remove(field);
+                if (fieldKeeper != null) {
+                    fieldKeeper.clear();
+                    changed = true;
+                }
+            });
+            loaders.clear();
+            sorters.values().forEach(ExternalSorter::clear);
+        }
     }
 
     @Override
@@ -0,0 +1,891 @@
+package server.model.impl;
+
+import server.model.BaseFieldKeeper;
+import server.model.ConditionService;
+import server.model.ObjectConverter;
+import server.model.PageCache;
+import server.model.Utils;
+import server.model.lock.LockService;
+import server.model.pojo.*;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * B+ дерево, в котором значения лежат только в листьях, а листья связаны ссылками на следующий лист.
+ * Внутренние узлы хранят только ключи-разделители: в потомке i + 1 лежат ключи не меньше разделителя i.
+ * Поиск по диапазону - спуск к нижней границе и последовательный проход по листьям до верхней.
+ * Все узлы лежат в одном страничном файле и ссылаются друг на друга id записей, на диск пишутся только измененные узлы,
+ * destroy сохраняет их вместе с корнем одним sync файла. Узел - одна запись, при treeFactor 2000 это цепочка из десятков
+ * страниц, и измененный лист переписывается целиком. Страница меньше узла, чтобы мелкие узлы не занимали лишнего места.
+ * Операции берут блокировку дерева на чтение и защелки узлов по пути спуска: защелка родителя отпускается после захвата потомка,
+ * соседние узлы захватываются слева направо. Вставка и удаление сначала меняют только лист, не изменяя структуру дерева,
+ * и только при заполненном (опустевшем) листе повторяют спуск с защелками на запись и разделением (слиянием) узлов.
+ * Блокировку дерева на запись берут только destroy и clear
+ */
+public class LinkedBPlusTree<U extends Comparable<U>, V> extends BaseFieldKeeper<U, V> {
+    private static final Range EMPTY = new Range(null, false, null, false, true);
+    private static final Range FULL = new Range(null, false, null, false, false);
+    private static final int PAGE_SIZE = 8192;
+    private static final double BULK_FILL_FACTOR = 0.9;
+    public final int treeFactor;
+    protected final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    private final ReadWriteLock rootLatch = new ReentrantReadWriteLock();
+    private final Map<Long, Node<U, V>> nodes = new ConcurrentHashMap<>();
+    private final Set<Long> dirtyNodes = ConcurrentHashMap.newKeySet();
+    private final int maxNodePairsSize;
+    private final Class<?> keyType;
+    private final PageCache pageCache;
+    private volatile PagedFile pagedFile;
+    private volatile Set<Pair<U, V>> missedDeletes;
+
+    /**
+     * @param maxNodePairsSize примерное число ключей в прочитанных узлах, после которого они выгружаются из памяти
+     * @param keyType          тип поля, для Integer, Long и Double ключи узлов хранятся в примитивных массивах
+     * @param pageCache        общий кэш страниц индексных файлов
+     */
+    public LinkedBPlusTree(String fieldName, String path, ObjectConverter objectConverter, ConditionService conditionService, int treeFactor, int maxNodePairsSize, Class<?> keyType, PageCache pageCache) {
+        super(fieldName, path, objectConverter, conditionService);
+        this.treeFactor = treeFactor;
+        this.maxNodePairsSize = maxNodePairsSize;
+        this.keyType = keyType;
+        this.pageCache = pageCache;
+    }
+
+    @Override
+    protected Variables<U, V> readVariables() {
+        pagedFile = new PagedFile(getFileName(), PAGE_SIZE, pageCache);
+        if (pagedFile.getRoot() == PagedFile.NONE) {
+            return null;
+        }
+        return objectConverter.fromBytes(Variables.class, pagedFile.read(pagedFile.getRoot()));
+    }
+
+    @Override
+    protected void writeVariables(Variables<U, V> variables) {
+        pagedFile.setRoot(pagedFile.write(pagedFile.getRoot(), objectConverter.toBytes(variables)));
+    }
+
+    @Override
+    protected Variables<U, V> createVariables() {
+        final Leaf<U, V> leaf = createNode(new Leaf<>(NodePairs.create(keyType), PagedFile.NONE));
+        unlatch(leaf, true);
+        changed = true;
+        return new LinkedTreeVariables<>(leaf.page);
+    }
+
+    @Override
+    public void insertNotNull(U key, V value) {
+        LockService.doInReadWriteLock(readWriteLock.readLock(), () -> {
+            final Set<Pair<U, V>> missedDeletes = this.missedDeletes;
+            if (missedDeletes != null) {
+                missedDeletes.remove(new Pair<>(key, value));
+            }
+            final Leaf<U, V> leaf = findLeaf(key, true);
+            try {
+                if (size(leaf) < 2 * treeFactor - 1 || leaf.pairs.search(key) >= 0) {
+                    insert(leaf, key, value);
+                    return;
+                }
+            } finally {
+                unlatch(leaf, true);
+            }
+            insertWithSplits(key, value);
+        });
+    }
+
+    /**
+     * Спуск с защелками на запись, заполненные узлы на пути делятся заранее, поэтому родитель отпускается сразу после потомка
+     */
+    private void insertWithSplits(U key, V value) {
+        final LinkedTreeVariables<U, V> variables = getVariables();
+        Node<U, V> node;
+        rootLatch.writeLock().lock();
+        try {
+            node = readNode(variables.root);
+            latch(node, true);
+            if (size(node) == 2 * treeFactor - 1) {
+                final InternalNode<U, V> root = createNode(new InternalNode<>(keyType));
+                root.children.add(node.page);
+                unlatch(split(root, 0, node), true);
+                unlatch(node, true);
+                variables.root = root.page;
+                changed = true;
+                node = root;
+            }
+        } finally {
+            rootLatch.writeLock().unlock();
+        }
+        while (!isLeaf(node)) {
+            final InternalNode<U, V> internalNode = (InternalNode<U, V>) node;
+            final int index = getChildIndex(internalNode, key);
+            Node<U, V> child = readChild(internalNode, index);
+            latch(child, true);
+            if (size(child) == 2 * treeFactor - 1) {
+                final Node<U, V> right = split(internalNode, index, child);
+                if (key.compareTo(internalNode.keys.key(index)) >= 0) {
+                    unlatch(child, true);
+                    child = right;
+                } else {
+                    unlatch(right, true);
+                }
+            }
+            unlatch(internalNode, true);
+            node = child;
+        }
+        try {
+            insert((Leaf<U, V>) node, key, value);
+        } finally {
+            unlatch(node, true);
+        }
+    }
+
+    private void insert(Leaf<U, V> leaf, U key, V value) {
+        final int index = leaf.pairs.search(key);
+        if (index >= 0) {
+            if (!leaf.pairs.get(index).getSecond().add(value)) {
+                return;
+            }
+        } else {
+            leaf.pairs.add(-index - 1, new Pair<>(key, new HashSet<>(Collections.singleton(value))));
+        }
+        dirtyNodes.add(leaf.page);
+    }
+
+    /**
+     * Делит заполненного потомка index пополам, разделитель поднимается в node.
+     * node и child должны быть захвачены на запись
+     *
+     * @return новый правый узел, захваченный на запись
+     */
+    private Node<U, V> split(InternalNode<U, V> node, int index, Node<U, V> child) {
+        final U separator;
+        final Node<U, V> right;
+        if (isLeaf(child)) {
+            final Leaf<U, V> leftLeaf = (Leaf<U, V>) child;
+            final Leaf<U, V> rightLeaf = createNode(new Leaf<>(NodePairs.create(keyType), leftLeaf.next));
+            moveTail(leftLeaf.pairs, rightLeaf.pairs, treeFactor - 1);
+            leftLeaf.next = rightLeaf.page;
+            separator = rightLeaf.pairs.key(0);
+            right = rightLeaf;
+        } else {
+            final InternalNode<U, V> left = (InternalNode<U, V>) child;
+            final InternalNode<U, V> rightInternal = createNode(new InternalNode<>(keyType));
+            moveTail(left.keys, rightInternal.keys, treeFactor);
+            moveTail(left.children, rightInternal.children, treeFactor);
+            separator = left.keys.remove(treeFactor - 1).getFirst();
+            right = rightInternal;
+        }
+        node.keys.add(index, new Pair<>(separator, null));
+        node.children.add(index + 1, right.page);
+        markDirty(node, child);
+        return right;
+    }
+
+    private static <T> void moveTail(List<T> listFrom, List<T> listTo, int indexFrom) {
+        final List<T> tail = listFrom.subList(indexFrom, listFrom.size());
+        listTo.addAll(tail);
+        tail.clear();
+    }
+
+    @Override
+    public DeleteResult deleteNotNull(U key, V value) {
+        return LockService.doInReadWriteLock(readWriteLock.readLock(), () -> {
+            final Leaf<U, V> leaf = findLeaf(key, true);
+            try {
+                final int index = leaf.pairs.search(key);
+                if (index < 0 || !leaf.pairs.get(index).getSecond().remove(value)) {
+                    final Set<Pair<U, V>> missedDeletes = this.missedDeletes;
+                    if (missedDeletes != null) {
+                        missedDeletes.add(new Pair<>(key, value));
+                        return NOT_FULLY;
+                    }
+                    return NOT;
+                }
+                dirtyNodes.add(leaf.page);
+                if (!leaf.pairs.get(index).getSecond().isEmpty()) {
+                    return NOT_FULLY;
+                }
+                if (size(leaf) >= treeFactor || leaf.page == getVariables().root) {
+                    leaf.pairs.remove(index);
+                    return FULLY;
+                }
+            } finally {
+                unlatch(leaf, true);
+            }
+            delete(key);
+            return FULLY;
+        });
+    }
+
+    /**
+     * Удаляет ключ с пустым множеством значений из листа. При спуске каждый потомок дополняется до treeFactor ключей,
+     * поэтому после удаления ни один узел не становится меньше treeFactor - 1.
+     * Пока ключ был без значений, в него могли снова вставить значение, тогда ключ остается
+     */
+    private void delete(U key) {
+        final LinkedTreeVariables<U, V> variables = getVariables();
+        rootLatch.writeLock().lock();
+        boolean rootLatched = true;
+        Node<U, V> node = readNode(variables.root);
+        latch(node, true);
+        try {
+            while (!isLeaf(node)) {
+                final InternalNode<U, V> internalNode = (InternalNode<U, V>) node;
+                final int index = getChildIndex(internalNode, key);
+                Node<U, V> child = readChild(internalNode, index);
+                latch(child, true);
+                if (size(child) == treeFactor - 1) {
+                    unlatch(child, true);
+                    child = fill(internalNode, index);
+                    if (internalNode.page == variables.root && internalNode.keys.isEmpty()) {
+                        variables.root = child.page;
+                        changed = true;
+                        freeNode(internalNode);
+                    }
+                }
+                unlatch(internalNode, true);
+                node = child;
+                if (rootLatched) {
+                    rootLatch.writeLock().unlock();
+                    rootLatched = false;
+                }
+            }
+            final Leaf<U, V> leaf = (Leaf<U, V>) node;
+            final int index = leaf.pairs.search(key);
+            if (index >= 0 && leaf.pairs.get(index).getSecond().isEmpty()) {
+                leaf.pairs.remove(index);
+                dirtyNodes.add(leaf.page);
+            }
+        } finally {
+            unlatch(node, true);
+            if (rootLatched) {
+                rootLatch.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Захватывает на запись потомка index и его соседей слева направо и, если потомок все еще минимального размера,
+     * дополняет его за счет соседа
+     *
+     * @return захваченный на запись узел, в котором теперь лежат ключи потомка
+     */
+    private Node<U, V> fill(InternalNode<U, V> node, int index) {
+        final int from = Math.max(0, index - 1);
+        final int to = Math.min(node.children.size() - 1, index + 1);
+        final List<Node<U, V>> latched = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            final Node<U, V> child = readChild(node, i);
+            latch(child, true);
+            latched.add(child);
+        }
+        final Node<U, V> result = size(readChild(node, index)) == treeFactor - 1 ? fillLatched(node, index) : readChild(node, index);
+        latched.stream().filter(child -> child != result).forEach(child -> unlatch(child, true));
+        return result;
+    }
+
+    private Node<U, V> fillLatched(InternalNode<U, V> node, int index) {
+        final Node<U, V> child = readChild(node, index);
+        if (index > 0 && size(readChild(node, index - 1)) >= treeFactor) {
+            borrowLeft(node, index);
+            return child;
+        }
+        if (index < node.children.size() - 1 && size(readChild(node, index + 1)) >= treeFactor) {
+            borrowRight(node, index);
+            return child;
+        }
+        if (index > 0) {
+            merge(node, index - 1);
+            return readChild(node, index - 1);
+        }
+        merge(node, index);
+        return child;
+    }
+
+    private void borrowLeft(InternalNode<U, V> node, int index) {
+        final Node<U, V> donor = readChild(node, index - 1);
+        final Node<U, V> child = readChild(node, index);
+        if (isLeaf(child)) {
+            final Leaf<U, V> donorLeaf = (Leaf<U, V>) donor;
+            final Pair<U, Set<V>> pair = donorLeaf.pairs.remove(donorLeaf.pairs.size() - 1);
+            ((Leaf<U, V>) child).pairs.add(0, pair);
+            node.keys.set(index - 1, new Pair<>(pair.getFirst(), null));
+        } else {
+            final InternalNode<U, V> donorInternal = (InternalNode<U, V>) donor;
+            final InternalNode<U, V> childInternal = (InternalNode<U, V>) child;
+            childInternal.keys.add(0, node.keys.get(index - 1));
+            childInternal.children.add(0, donorInternal.children.remove(donorInternal.children.size() - 1));
+            node.keys.set(index - 1, donorInternal.keys.remove(donorInternal.keys.size() - 1));
+        }
+        markDirty(node, donor, child);
+    }
+
+    private void borrowRight(InternalNode<U, V> node, int index) {
+        final Node<U, V> child = readChild(node, index);
+        final Node<U, V> donor = readChild(node, index + 1);
+        if (isLeaf(child)) {
+            final Leaf<U, V> donorLeaf = (Leaf<U, V>) donor;
+            ((Leaf<U, V>) child).pairs.add(donorLeaf.pairs.remove(0));
+            node.keys.set(index, new Pair<>(donorLeaf.pairs.key(0), null));
+        } else {
+            final InternalNode<U, V> donorInternal = (InternalNode<U, V>) donor;
+            final InternalNode<U, V> childInternal = (InternalNode<U, V>) child;
+            childInternal.keys.add(node.keys.get(index));
+            childInternal.children.add(donorInternal.children.remove(0));
+            node.keys.set(index, donorInternal.keys.remove(0));
+        }
+        markDirty(node, donor, child);
+    }
+
+    /**
+     * Переносит потомка index + 1 в потомка index вместе с разделителем между ними, страницы правого узла освобождаются
+     */
+    private void merge(InternalNode<U, V> node, int index) {
+        final Node<U, V> left = readChild(node, index);
+        final Node<U, V> right = readChild(node, index + 1);
+        if (isLeaf(left)) {
+            final Leaf<U, V> leftLeaf = (Leaf<U, V>) left;
+            final Leaf<U, V> rightLeaf = (Leaf<U, V>) right;
+            leftLeaf.pairs.addAll(rightLeaf.pairs);
+            leftLeaf.next = rightLeaf.next;
+        } else {
+            final InternalNode<U, V> leftInternal = (InternalNode<U, V>) left;
+            final InternalNode<U, V> rightInternal = (InternalNode<U, V>) right;
+            leftInternal.keys.add(node.keys.get(index));
+            leftInternal.keys.addAll(rightInternal.keys);
+            leftInternal.children.addAll(rightInternal.children);
+        }
+        node.keys.remove(index);
+        node.children.remove(index + 1);
+        markDirty(node, left);
+        freeNode(right);
+    }
+
+    /**
+     * Дерево строится снизу вверх в свободных страницах файла без защелок: листья заполняются до BULK_FILL_FACTOR
+     * подряд идущими ключами, затем по первым ключам и страницам узлов уровня строится следующий уровень, пока не останется корень.
+     * Пока дерево строится, индекс принимает изменения как обычно, а ненайденные при удалении пары запоминаются
+     * и считаются удаленными, чтобы transform вставил новый ключ
+     */
+    @Override
+    public Consumer<Iterator<Pair<U, V>>> bulkInsert() {
+        getVariables();
+        missedDeletes = ConcurrentHashMap.newKeySet();
+        return sortedPairs -> {
+            try {
+                final List<Pair<U, Long>> leaves = writeLeaves(sortedPairs);
+                if (leaves.isEmpty()) {
+                    return;
+                }
+                List<Pair<U, Long>> level = leaves;
+                while (level.size() > 1) {
+                    level = writeLevel(level);
+                }
+                replace(level.get(0).getSecond(), leaves.get(0).getSecond());
+            } finally {
+                missedDeletes = null;
+            }
+        };
+    }
+
+    /**
+     * Лист пишется в файл, когда начат следующий. Последний лист меньше минимального сливается с предыдущим
+     * или забирает у него половину ключей
+     *
+     * @return первый ключ и страница каждого листа
+     */
+    private List<Pair<U, Long>> writeLeaves(Iterator<Pair<U, V>> sortedPairs) {
+        final int size = bulkSize();
+        final List<Pair<U, Long>> leaves = new ArrayList<>();
+        Leaf<U, V> previous = null;
+        Leaf<U, V> leaf = null;
+        while (sortedPairs.hasNext()) {
+            final Pair<U, V> pair = sortedPairs.next();
+            if (leaf != null) {
+                final int last = leaf.pairs.size() - 1;
+                if (leaf.pairs.key(last).compareTo(pair.getFirst()) == 0) {
+                    leaf.pairs.get(last).getSecond().add(pair.getSecond());
+                    continue;
+                }
+            }
+            if (leaf == null || leaf.pairs.size() == size) {
+                final Leaf<U, V> next = new Leaf<>(NodePairs.create(keyType), PagedFile.NONE);
+                next.page = pagedFile.allocate();
+                if (leaf != null) {
+                    leaf.next = next.page;
+                    if (previous != null) {
+                        writeNode(previous);
+                    }
+                    previous = leaf;
+                }
+                leaf = next;
+                leaves.add(new Pair<>(pair.getFirst(), leaf.page));
+            }
+            leaf.pairs.add(new Pair<>(pair.getFirst(), new HashSet<>(Collections.singleton(pair.getSecond()))));
+        }
+        if (previous != null && leaf.pairs.size() < treeFactor - 1) {
+            if (previous.pairs.size() + leaf.pairs.size() <= 2 * treeFactor - 1) {
+                previous.pairs.addAll(leaf.pairs);
+                previous.next = PagedFile.NONE;
+                pagedFile.free(leaf.page);
+                leaves.remove(leaves.size() - 1);
+                leaf = null;
+            } else {
+                final List<Pair<U, Set<V>>> tail = new ArrayList<>();
+                moveTail(previous.pairs, tail, (previous.pairs.size() + leaf.pairs.size()) / 2);
+                leaf.pairs.addAll(0, tail);
+                leaves.set(leaves.size() - 1, new Pair<>(leaf.pairs.key(0), leaf.page));
+            }
+        }
+        if (previous != null) {
+            writeNode(previous);
+        }
+        if (leaf != null) {
+            writeNode(leaf);
+        }
+        return leaves;
+    }
+
+    /**
+     * Делит узлы уровня поровну между узлами следующего уровня, в каждом от treeFactor до 2 * treeFactor потомков
+     */
+    private List<Pair<U, Long>> writeLevel(List<Pair<U, Long>> level) {
+        final int size = level.size();
+        final int count = size <= 2 * treeFactor ? 1 : Math.min(Math.max((int) Math.round((double) size / (bulkSize() + 1)),
+                (size + 2 * treeFactor - 1) / (2 * treeFactor)), size / treeFactor);
+        final List<Pair<U, Long>> result = new ArrayList<>();
+        int from = 0;
+        for (int i = 0; i < count; i++) {
+            final int to = from + size / count + (i < size % count ? 1 : 0);
+            final InternalNode<U, V> node = new InternalNode<>(keyType);
+            for (int j = from; j < to; j++) {
+                if (j > from) {
+                    node.keys.add(new Pair<>(level.get(j).getFirst(), null));
+                }
+                node.children.add(level.get(j).getSecond());
+            }
+            node.page = pagedFile.allocate();
+            writeNode(node);
+            result.add(new Pair<>(level.get(from).getFirst(), node.page));
+            from = to;
+        }
+        return result;
+    }
+
+    /**
+     * Число ключей в узле при заполнении BULK_FILL_FACTOR
+     */
+    private int bulkSize() {
+        return Math.max(treeFactor - 1, Math.min(2 * treeFactor - 1, (int) Math.round((2 * treeFactor - 1) * BULK_FILL_FACTOR)));
+    }
+
+    private void writeNode(Node<U, V> node) {
+        pagedFile.write(node.page, objectConverter.toBytes(node));
+    }
+
+    /**
+     * Подменяет текущее дерево построенным: запомненные удаления применяются к построенному дереву,
+     * ключи текущего дерева, вставленные во время построения, переносятся обычной вставкой, его страницы освобождаются
+     */
+    private void replace(long root, long firstLeaf) {
+        LockService.doInReadWriteLock(readWriteLock.writeLock(), () -> {
+            final LinkedTreeVariables<U, V> variables = getVariables();
+            final List<Pair<U, Set<V>>> pairs = new ArrayList<>();
+            freeTree(readNode(variables.root), pairs);
+            variables.root = root;
+            variables.firstLeaf = firstLeaf;
+            changed = true;
+            final Set<Pair<U, V>> missedDeletes = this.missedDeletes;
+            this.missedDeletes = null;
+            missedDeletes.forEach(pair -> deleteNotNull(pair.getFirst(), pair.getSecond()));
+            pairs.forEach(pair -> pair.getSecond().forEach(value -> insertNotNull(pair.getFirst(), value)));
+        });
+    }
+
+    private void freeTree(Node<U, V> node, List<Pair<U, Set<V>>> pairs) {
+        if (isLeaf(node)) {
+            pairs.addAll(((Leaf<U, V>) node).pairs);
+        } else {
+            for (Long child : ((InternalNode<U, V>) node).children) {
+                freeTree(readNode(child), pairs);
+            }
+        }
+        freeNode(node);
+    }
+
+    private void markDirty(Node<U, V>... changed) {
+        for (Node<U, V> node : changed) {
+            dirtyNodes.add(node.page);
+        }
+    }
+
+    /**
+     * Новый узел сразу захвачен на запись, чтобы до отпускания его не прочитали по ссылке из соседнего листа
+     */
+    private <T extends Node<U, V>> T createNode(T node) {
+        node.page = pagedFile.allocate();
+        node.latch = new ReentrantReadWriteLock();
+        latch(node, true);
+        nodes.put(node.page, node);
+        dirtyNodes.add(node.page);
+        return node;
+    }
+
+    private void freeNode(Node<U, V> node) {
+        nodes.remove(node.page);
+        dirtyNodes.remove(node.page);
+        pagedFile.free(node.page);
+    }
+
+    @Override
+    public void conditionSearchNotNull(FieldCondition condition, Set<V> set, int size) {
+        LockService.doInReadWriteLock(readWriteLock.readLock(), () -> {
+            final Range range = range(condition);
+            if (range.empty) {
+                return;
+            }
+            final boolean exact = condition instanceof SimpleCondition && range != FULL;
+            final Cursor cursor = new Cursor();
+            try {
+                cursor.seek((U) range.lower, range.lowerInclusive);
+                while (cursor.hasNext((U) range.upper, range.upperInclusive)) {
+                    final Pair<U, Set<V>> pair = cursor.next();
+                    if ((exact || conditionService.check(pair.getFirst(), condition)) && Utils.fillToFull(set, size, pair.getSecond())) {
+                        return;
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        });
+    }
+
+    /**
+     * Диапазон ключей, вне которого условие не выполняется. Для AND диапазоны пересекаются, для OR объединяются,
+     * NOT и LIKE дают полный проход по листьям
+     */
+    private Range range(ICondition condition) {
+        if (condition instanceof ComplexCondition) {
+            final ComplexCondition<ICondition> complexCondition = (ComplexCondition<ICondition>) condition;
+            Range range = null;
+            for (ICondition innerCondition : complexCondition.getConditions()) {
+                final Range innerRange = range(innerCondition);
+                if (range == null) {
+                    range = innerRange;
+                } else if (ICondition.ComplexType.AND == complexCondition.getType()) {
+                    range = range.intersect(innerRange);
+                } else {
+                    range = range.union(innerRange);
+                }
+            }
+            return range == null ? FULL : range;
+        }
+        final SimpleCondition simpleCondition = (SimpleCondition) condition;
+        final Comparable value = simpleCondition.getValue();
+        if (value == null) {
+            return ICondition.SimpleType.EQ == simpleCondition.getType() ? EMPTY : FULL;
+        }
+        switch (simpleCondition.getType()) {
+            case EQ:
+                return new Range(value, true, value, true, false);
+            case GT:
+                return new Range(value, false, null, false, false);
+            case GTE:
+                return new Range(value, true, null, false, false);
+            case LT:
+                return new Range(null, false, value, false, false);
+            case LTE:
+                return new Range(null, false, value, true, false);
+            case NOT:
+            case LIKE:
+                return FULL;
+            default:
+                throw new IllegalArgumentException("Unknown simple type : " + simpleCondition.getType());
+        }
+    }
+
+    @Override
+    public Set<V> searchNotNull(U key) {
+        return LockService.doInReadWriteLock(readWriteLock.readLock(), () -> {
+            final Leaf<U, V> leaf = findLeaf(key, false);
+            try {
+                final int index = leaf.pairs.search(key);
+                return index >= 0 ? new HashSet<>(leaf.pairs.get(index).getSecond()) : Collections.emptySet();
+            } finally {
+                unlatch(leaf, false);
+            }
+        });
+    }
+
+    /**
+     * Спуск с защелками на чтение, защелка родителя отпускается после захвата потомка
+     *
+     * @param write захватить лист на запись
+     * @return захваченный лист, отпускает вызывающий
+     */
+    private Leaf<U, V> findLeaf(U key, boolean write) {
+        Node<U, V> node;
+        rootLatch.readLock().lock();
+        try {
+            node = readNode(getVariables().root);
+            latch(node, write && isLeaf(node));
+        } finally {
+            rootLatch.readLock().unlock();
+        }
+        while (!isLeaf(node)) {
+            final InternalNode<U, V> internalNode = (InternalNode<U, V>) node;
+            final Node<U, V> child = readChild(internalNode, getChildIndex(internalNode, key));
+            latch(child, write && isLeaf(child));
+            unlatch(internalNode, false);
+            node = child;
+        }
+        return (Leaf<U, V>) node;
+    }
+
+    private static void latch(Node<?, ?> node, boolean write) {
+        (write ? node.latch.writeLock() : node.latch.readLock()).lock();
+    }
+
+    private static void unlatch(Node<?, ?> node, boolean write) {
+        (write ? node.latch.writeLock() : node.latch.readLock()).unlock();
+    }
+
+    /**
+     * Индекс первого разделителя больше key, он же индекс потомка, в котором может лежать key
+     */
+    private int getChildIndex(InternalNode<U, V> node, U key) {
+        final int index = node.keys.search(key);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    @Override
+    public void clear() {
+        LockService.doInReadWriteLock(readWriteLock.writeLock(), () -> {
+            if (pagedFile != null) {
+                pagedFile.close();
+                pagedFile = null;
+                nodes.clear();
+                dirtyNodes.clear();
+            }
+            super.clear();
+        });
+    }
+
+    @Override
+    public void destroy() {
+        LockService.doInReadWriteLock(readWriteLock.writeLock(), () -> {
+            if (pagedFile == null) {
+                return;
+            }
+            saveNodes();
+            super.destroy();
+            pagedFile.sync();
+        });
+    }
+
+    /**
+     * Пишет только измененные узлы, при превышении maxNodePairsSize прочитанные узлы выгружаются из памяти
+     */
+    private void saveNodes() {
+        for (Iterator<Long> iterator = dirtyNodes.iterator(); iterator.hasNext(); ) {
+            final Long page = iterator.next();
+            pagedFile.write(page, objectConverter.toBytes(nodes.get(page)));
+            iterator.remove();
+        }
+        if (maxNodePairsSize < nodes.size() * treeFactor) {
+            nodes.clear();
+        }
+    }
+
+    protected Node<U, V> readNode(long page) {
+        return nodes.computeIfAbsent(page, key -> {
+            final Node<U, V> node = objectConverter.fromBytes(Node.class, pagedFile.read(key));
+            node.page = key;
+            node.latch = new ReentrantReadWriteLock();
+            return node;
+        });
+    }
+
+    protected Node<U, V> readChild(InternalNode<U, V> node, int index) {
+        return readNode(node.children.get(index));
+    }
+
+    protected int size(Node<U, V> node) {
+        if (isLeaf(node)) {
+            return ((Leaf<U, V>) node).pairs.size();
+        }
+        return ((InternalNode<U, V>) node).keys.size();
+    }
+
+    protected boolean isLeaf(Node<U, V> node) {
+        return node instanceof Leaf;
+    }
+
+    protected LinkedTreeVariables<U, V> getVariables() {
+        return (LinkedTreeVariables<U, V>) variables();
+    }
+
+    /**
+     * Корневая запись страничного файла: страница корня и страница самого левого листа
+     */
+    public static class LinkedTreeVariables<U, V> extends Variables<U, V> {
+        private static final long serialVersionUID = 2786005947398146361L;
+        public volatile long firstLeaf;
+        public volatile long root;
+
+        private LinkedTreeVariables(long root) {
+            this.root = root;
+            this.firstLeaf = root;
+        }
+    }
+
+    public static abstract class Node<U, V> implements Serializable {
+        private static final long serialVersionUID = -1826482937064817263L;
+        public transient long page;
+        transient ReentrantReadWriteLock latch;
+    }
+
+    public static class InternalNode<U, V> extends Node<U, V> {
+        private static final long serialVersionUID = 5190847263540917390L;
+        public final NodePairs<U, V> keys;
+        public final List<Long> children = new ArrayList<>();
+
+        private InternalNode(Class<?> keyType) {
+            keys = NodePairs.create(keyType);
+        }
+    }
+
+    public static class Leaf<U, V> extends Node<U, V> {
+        private static final long serialVersionUID = 8273649501827364512L;
+        public final NodePairs<U, V> pairs;
+        public long next;
+
+        private Leaf(NodePairs<U, V> pairs, long next) {
+            this.pairs = pairs;
+            this.next = next;
+        }
+    }
+
+    private static class Range {
+        private final Comparable lower;
+        private final boolean lowerInclusive;
+        private final Comparable upper;
+        private final boolean upperInclusive;
+        private final boolean empty;
+
+        private Range(Comparable lower, boolean lowerInclusive, Comparable upper, boolean upperInclusive, boolean empty) {
+            this.lower = lower;
+            this.lowerInclusive = lowerInclusive;
+            this.upper = upper;
+            this.upperInclusive = upperInclusive;
+            this.empty = empty;
+        }
+
+        private Range intersect(Range range) {
+            if (empty || range.empty) {
+                return EMPTY;
+            }
+            final Range lowerRange = bound(lower, range.lower, true) ? this : range;
+            final Range upperRange = bound(upper, range.upper, false) ? this : range;
+            final Comparable lower = lowerRange.lower;
+            final boolean lowerInclusive = lowerRange.lowerInclusive && (this.lower == null || range.lower == null
+                    || this.lower.compareTo(range.lower) != 0 || this.lowerInclusive && range.lowerInclusive);
+            final Comparable upper = upperRange.upper;
+            final boolean upperInclusive = upperRange.upperInclusive && (this.upper == null || range.upper == null
+                    || this.upper.compareTo(range.upper) != 0 || this.upperInclusive && range.upperInclusive);
+            if (lower != null && upper != null) {
+                final int compareResult = lower.compareTo(upper);
+                if (compareResult > 0 || compareResult == 0 && !(lowerInclusive && upperInclusive)) {
+                    return EMPTY;
+                }
+            }
+            return new Range(lower, lowerInclusive, upper, upperInclusive, false);
+        }
+
+        private Range union(Range range) {
+            if (empty) {
+                return range;
+            }
+            if (range.empty) {
+                return this;
+            }
+            final Comparable lower = this.lower == null || range.lower == null ? null : bound(this.lower, range.lower, false) ? this.lower : range.lower;
+            final Comparable upper = this.upper == null || range.upper == null ? null : bound(this.upper, range.upper, true) ? this.upper : range.upper;
+            return new Range(lower, inclusive(this.lower, this.lowerInclusive, lower) || inclusive(range.lower, range.lowerInclusive, lower),
+                    upper, inclusive(this.upper, this.upperInclusive, upper) || inclusive(range.upper, range.upperInclusive, upper), false);
+        }
+
+        private static boolean inclusive(Comparable bound, boolean inclusive, Comparable value) {
+            return inclusive && bound != null && value != null && bound.compareTo(value) == 0;
+        }
+
+        /**
+         * true, если first не меньше (max) или не больше (!max) second, null - отсутствие границы
+         */
+        private static boolean bound(Comparable first, Comparable second, boolean max) {
+            if (first == null) {
+                return false;
+            }
+            if (second == null) {
+                return true;
+            }
+            final int compareResult = first.compareTo(second);
+            return max ? compareResult >= 0 : compareResult <= 0;
+        }
+    }
+
+    /**
+     * Курсор по связанным листьям: seek встает на первый ключ не меньше (больше) нижней границы,
+     * hasNext проверяет верхнюю границу и переходит на следующий лист. Текущий лист захвачен на чтение до перехода на следующий
+     */
+    private class Cursor {
+        private Leaf<U, V> leaf;
+        private int index;
+
+        private void seek(U key, boolean inclusive) {
+            if (key == null) {
+                leaf = (Leaf<U, V>) readNode(getVariables().firstLeaf);
+                latch(leaf, false);
+                index = 0;
+                return;
+            }
+            leaf = findLeaf(key, false);
+            final int index = leaf.pairs.search(key);
+            this.index = index >= 0 ? (inclusive ? index : index + 1) : -index - 1;
+        }
+
+        private boolean hasNext(U upper, boolean inclusive) {
+            while (index >= leaf.pairs.size()) {
+                if (leaf.next == PagedFile.NONE) {
+                    return false;
+                }
+                final Leaf<U, V> next = (Leaf<U, V>) readNode(leaf.next);
+                latch(next, false);
+                unlatch(leaf, false);
+                leaf = next;
+                index = 0;
+            }
+            if (upper == null) {
+                return true;
+            }
+            final int compareResult = leaf.pairs.key(index).compareTo(upper);
+            return compareResult < 0 || inclusive && compareResult == 0;
+        }
+
+        private Pair<U, Set<V>> next() {
+            return leaf.pairs.get(index++);
+        }
+
+        private void close() {
+            if (leaf != null) {
+                unlatch(leaf, false);
+                leaf = null;
+            }
+        }
+    }
+}
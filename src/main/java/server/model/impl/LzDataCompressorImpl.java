@@ -0,0 +1,135 @@
+package server.model.impl;
+
+import server.model.BaseDataCompressor;
+
+import java.util.Arrays;
+
+/**
+ * Быстрое LZ77-сжатие в формате, близком к блокам LZ4: последовательности
+ * [токен: длина литералов | длина совпадения][литералы][смещение, 2 байта][доп. длина совпадения].
+ * Последняя последовательность содержит только литералы
+ */
+public class LzDataCompressorImpl extends BaseDataCompressor {
+    public static final byte ID = 1;
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_LOG = 14;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] input) {
+        final int length = input.length;
+        final byte[] output = new byte[Integer.BYTES + length + length / 255 + 16];
+        writeLength(output, length);
+        int outputPosition = Integer.BYTES;
+        final int[] hashTable = new int[1 << HASH_LOG];
+        Arrays.fill(hashTable, -1);
+        int anchor = 0;
+        int position = 0;
+        while (position + MIN_MATCH <= length) {
+            final int sequence = readInt(input, position);
+            final int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+            final int reference = hashTable[hash];
+            hashTable[hash] = position;
+            if (reference < 0 || position - reference > MAX_OFFSET || readInt(input, reference) != sequence) {
+                position++;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (position + matchLength < length && input[reference + matchLength] == input[position + matchLength]) {
+                matchLength++;
+            }
+            final int tokenPosition = outputPosition;
+            outputPosition = writeSequence(input, anchor, position - anchor, output, outputPosition);
+            output[outputPosition++] = (byte) (position - reference);
+            output[outputPosition++] = (byte) ((position - reference) >>> 8);
+            final int extraMatchLength = matchLength - MIN_MATCH;
+            output[tokenPosition] |= (byte) Math.min(extraMatchLength, 15);
+            outputPosition = writeLength(output, outputPosition, extraMatchLength);
+            position += matchLength;
+            anchor = position;
+        }
+        outputPosition = writeSequence(input, anchor, length - anchor, output, outputPosition);
+        return Arrays.copyOf(output, outputPosition);
+    }
+
+    /**
+     * Пишет токен с длиной литералов и сами литералы, длина совпадения дописывается в токен позже
+     */
+    private int writeSequence(byte[] input, int from, int literalLength, byte[] output, int outputPosition) {
+        output[outputPosition++] = (byte) (Math.min(literalLength, 15) << 4);
+        outputPosition = writeLength(output, outputPosition, literalLength);
+        System.arraycopy(input, from, output, outputPosition, literalLength);
+        return outputPosition + literalLength;
+    }
+
+    private int writeLength(byte[] output, int outputPosition, int length) {
+        if (length < 15) {
+            return outputPosition;
+        }
+        length -= 15;
+        while (length >= 255) {
+            output[outputPosition++] = (byte) 255;
+            length -= 255;
+        }
+        output[outputPosition++] = (byte) length;
+        return outputPosition;
+    }
+
+    private int readInt(byte[] bytes, int position) {
+        return (bytes[position] & 0xFF) | ((bytes[position + 1] & 0xFF) << 8) | ((bytes[position + 2] & 0xFF) << 16) | ((bytes[position + 3] & 0xFF) << 24);
+    }
+
+    @Override
+    public byte[] decompress(byte[] input) {
+        final byte[] output = new byte[readLength(input)];
+        int inputPosition = Integer.BYTES;
+        int outputPosition = 0;
+        try {
+            while (inputPosition < input.length) {
+                final int token = input[inputPosition++] & 0xFF;
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = input[inputPosition++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(input, inputPosition, output, outputPosition, literalLength);
+                inputPosition += literalLength;
+                outputPosition += literalLength;
+                if (inputPosition >= input.length) {
+                    break;
+                }
+                final int offset = (input[inputPosition++] & 0xFF) | ((input[inputPosition++] & 0xFF) << 8);
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = input[inputPosition++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                if (offset == 0 || offset > outputPosition) {
+                    throw new IllegalArgumentException("wrong lz offset " + offset);
+                }
+                for (int i = 0; i < matchLength; i++) {
+                    output[outputPosition] = output[outputPosition - offset];
+                    outputPosition++;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("malformed lz data", e);
+        }
+        if (outputPosition != output.length) {
+            throw new IllegalArgumentException("wrong lz data length " + outputPosition + ", expected " + output.length);
+        }
+        return output;
+    }
+}
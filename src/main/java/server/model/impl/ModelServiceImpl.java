@@ -1,35 +1,61 @@
 package server.model.impl;
 
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import server.model.*;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class ModelServiceImpl extends BaseDestroyable implements ModelService {
+    private static final Logger log = LoggerFactory.getLogger(ModelServiceImpl.class);
     private static final String FILE_NAME = "model";
 
     private final List<Consumer<Set<String>>> fieldsChangesSubscribers = new CopyOnWriteArrayList<>();
     private final List<Consumer<Set<String>>> indexesChangesSubscribers = new CopyOnWriteArrayList<>();
     private final Map<String, FieldInfo> fields;
+    private final AtomicInteger lastOrdinal = new AtomicInteger();
     private final String fileName;
     private volatile boolean changed;
 
+    /**
+     * Файл модели, сохраненный до появления счетчика порядковых номеров, - таблица полей, счетчик тогда начинается
+     * с наибольшего номера
+     */
     public ModelServiceImpl(String filePath, boolean init, ObjectConverter objectConverter, DestroyService destroyService) {
         super(filePath, init, objectConverter, destroyService, Utils.getFullPath(filePath, FILE_NAME));
         this.fileName = Utils.getFullPath(filePath, FILE_NAME) + FILE_NAME;
         if (new File(this.fileName).exists()) {
-            this.fields = objectConverter.fromFile(ConcurrentHashMap.class, this.fileName);
+            final Serializable saved = Utils.logTime(log, "model " + this.fileName, () -> objectConverter.fromFile(Serializable.class, this.fileName));
+            if (saved instanceof Model) {
+                this.fields = ((Model) saved).fields;
+                this.lastOrdinal.set(((Model) saved).lastOrdinal);
+            } else {
+                this.fields = (ConcurrentHashMap<String, FieldInfo>) saved;
+                this.lastOrdinal.set(fields.values().stream().mapToInt(FieldInfo::getOrdinal).max().orElse(0));
+                changed = true;
+            }
             checkFields(this.fields);
+            initOrdinals();
+            if (changed) {
+                save();
+            }
             return;
         }
         this.fields = new ConcurrentHashMap<>();
@@ -43,6 +69,27 @@ public class ModelServiceImpl extends BaseDestroyable implements ModelService {
         });
     }
 
+    /**
+     * Для файлов модели, сохраненных до появления порядковых номеров полей
+     */
+    private void initOrdinals() {
+        fields.values().stream().filter(info -> info.getOrdinal() == 0)
+                .sorted(Comparator.comparing(FieldInfo::getName))
+                .forEach(info -> {
+                    info.setOrdinal(nextOrdinal());
+                    changed = true;
+                });
+    }
+
+    /**
+     * Номера только растут, поэтому номер удаленного поля не достается новому и его значения в старых строках
+     * не читаются как значения другого поля
+     */
+    private int nextOrdinal() {
+        changed = true;
+        return lastOrdinal.incrementAndGet();
+    }
+
     @Override
     public boolean contains(String field) {
         return fields.keySet().stream().anyMatch(key -> key.equalsIgnoreCase(field));
@@ -80,12 +127,20 @@ public class ModelServiceImpl extends BaseDestroyable implements ModelService {
         if (!types.contains(type)) {
             throw new IllegalArgumentException("unknown type " + type);
         }
-        final int size = fields.size();
-        fields.putIfAbsent(field, new FieldInfo(field, type, false));
-        fieldsChangesSubscribers.forEach(consumer -> consumer.accept(getFields().stream().map(FieldInfo::getName).collect(Collectors.toSet())));
-        if (size != fields.size()) {
-            changed = true;
+        synchronized (fields) {
+            if (!fields.containsKey(field)) {
+                final FieldInfo info = new FieldInfo(field, type, false);
+                info.setOrdinal(nextOrdinal());
+                fields.put(field, info);
+                save();
+            }
         }
+        fieldsChangesSubscribers.forEach(consumer -> consumer.accept(getFields().stream().map(FieldInfo::getName).collect(Collectors.toSet())));
+    }
+
+    @Override
+    public int getLastOrdinal() {
+        return lastOrdinal.get();
     }
 
     @Override
@@ -112,20 +167,28 @@ public class ModelServiceImpl extends BaseDestroyable implements ModelService {
         }
     }
 
+    /**
+     * Если индекс не удалось построить, добавленные индексы снимаются и ошибка пробрасывается
+     */
     @Override
     public void addIndex(String... fields) {
-        final AtomicBoolean added = new AtomicBoolean(false);
+        final List<String> added = new ArrayList<>();
         for (String field : fields) {
             this.fields.computeIfPresent(field, (key, info) -> {
                 if (!info.isIndex()) {
-                    added.set(true);
+                    added.add(field);
                 }
                 info.setIndex(true);
                 return info;
             });
         }
-        if (added.get()) {
-            indexesChangesSubscribers.forEach(consumer -> consumer.accept(getIndexedFields()));
+        if (!added.isEmpty()) {
+            try {
+                indexesChangesSubscribers.forEach(consumer -> consumer.accept(getIndexedFields()));
+            } catch (RuntimeException e) {
+                deleteIndex(added.toArray(new String[0]));
+                throw e;
+            }
             changed = true;
         }
     }
@@ -171,8 +234,40 @@ public class ModelServiceImpl extends BaseDestroyable implements ModelService {
     @Override
     public void destroy() {
         if (changed) {
-            objectConverter.toFile((Serializable) fields, fileName);
-            changed = false;
+            synchronized (fields) {
+                save();
+            }
+        }
+    }
+
+    /**
+     * Новое поле сохраняется сразу: его номер попадает в журнал и файлы строк раньше следующего destroy,
+     * и после падения без сохраненной модели значения читались бы как значения другого поля.
+     * Файл пишется во временный и переименовывается, чтобы падение во время записи не испортило модель
+     */
+    private void save() {
+        changed = false;
+        final String tempFileName = fileName + ".tmp";
+        objectConverter.toFile(new Model((ConcurrentHashMap<String, FieldInfo>) fields, lastOrdinal.get()), tempFileName);
+        try {
+            Files.move(Paths.get(tempFileName), Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            changed = true;
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Содержимое файла модели: поля и последний выданный порядковый номер
+     */
+    private static class Model implements Serializable {
+        private static final long serialVersionUID = -4410926183311270152L;
+        private final ConcurrentHashMap<String, FieldInfo> fields;
+        private final int lastOrdinal;
+
+        private Model(ConcurrentHashMap<String, FieldInfo> fields, int lastOrdinal) {
+            this.fields = fields;
+            this.lastOrdinal = lastOrdinal;
         }
     }
 }
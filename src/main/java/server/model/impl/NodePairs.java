@@ -0,0 +1,251 @@
+package server.model.impl;
+
+import server.model.pojo.Pair;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Пары узла B+ дерева: ключи лежат в отдельном отсортированном массиве, для числовых полей примитивном,
+ * поэтому поиск в узле идет бинарным поиском без распаковки и вызовов compareTo. Пары создаются только при чтении
+ */
+public abstract class NodePairs<U, V> extends AbstractList<Pair<U, Set<V>>> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = -2304968216538370719L;
+    private static final int INITIAL_CAPACITY = 4;
+
+    private Set<V>[] values = newValues(INITIAL_CAPACITY);
+    protected int size;
+
+    public static <U, V> NodePairs<U, V> create(Class<?> keyType) {
+        if (Integer.class.equals(keyType)) {
+            return (NodePairs<U, V>) new IntPairs<V>();
+        }
+        if (Long.class.equals(keyType)) {
+            return (NodePairs<U, V>) new LongPairs<V>();
+        }
+        if (Double.class.equals(keyType)) {
+            return (NodePairs<U, V>) new DoublePairs<V>();
+        }
+        return new ObjectPairs<>();
+    }
+
+    /**
+     * Как Arrays.binarySearch: индекс ключа или -(точка вставки) - 1
+     */
+    public abstract int search(U key);
+
+    public U key(int index) {
+        checkIndex(index, size);
+        return getKey(index);
+    }
+
+    protected abstract U getKey(int index);
+
+    protected abstract void setKey(int index, U key);
+
+    protected abstract void copyKeys(int from, int to, int length);
+
+    protected abstract void resizeKeys(int capacity);
+
+    protected void clearKey(int index) {
+    }
+
+    @Override
+    public Pair<U, Set<V>> get(int index) {
+        checkIndex(index, size);
+        return new Pair<>(getKey(index), values[index]);
+    }
+
+    @Override
+    public Pair<U, Set<V>> set(int index, Pair<U, Set<V>> pair) {
+        final Pair<U, Set<V>> previous = get(index);
+        setKey(index, pair.getFirst());
+        values[index] = pair.getSecond();
+        return previous;
+    }
+
+    @Override
+    public void add(int index, Pair<U, Set<V>> pair) {
+        checkIndex(index, size + 1);
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+            resizeKeys(size * 2);
+        }
+        copyKeys(index, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        setKey(index, pair.getFirst());
+        values[index] = pair.getSecond();
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public Pair<U, Set<V>> remove(int index) {
+        final Pair<U, Set<V>> previous = get(index);
+        copyKeys(index + 1, index, size - index - 1);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        clearKey(size);
+        values[size] = null;
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        copyKeys(toIndex, fromIndex, size - toIndex);
+        System.arraycopy(values, toIndex, values, fromIndex, size - toIndex);
+        for (int i = size - (toIndex - fromIndex); i < size; i++) {
+            clearKey(i);
+            values[i] = null;
+        }
+        size -= toIndex - fromIndex;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index : " + index + ", size : " + size);
+        }
+    }
+
+    private static <V> Set<V>[] newValues(int capacity) {
+        return (Set<V>[]) new Set[capacity];
+    }
+
+    private static class IntPairs<V> extends NodePairs<Integer, V> {
+        private static final long serialVersionUID = 6318846123570186207L;
+        private int[] keys = new int[INITIAL_CAPACITY];
+
+        @Override
+        public int search(Integer key) {
+            return Arrays.binarySearch(keys, 0, size, key);
+        }
+
+        @Override
+        protected Integer getKey(int index) {
+            return keys[index];
+        }
+
+        @Override
+        protected void setKey(int index, Integer key) {
+            keys[index] = key;
+        }
+
+        @Override
+        protected void copyKeys(int from, int to, int length) {
+            System.arraycopy(keys, from, keys, to, length);
+        }
+
+        @Override
+        protected void resizeKeys(int capacity) {
+            keys = Arrays.copyOf(keys, capacity);
+        }
+    }
+
+    private static class LongPairs<V> extends NodePairs<Long, V> {
+        private static final long serialVersionUID = -5725390417702186540L;
+        private long[] keys = new long[INITIAL_CAPACITY];
+
+        @Override
+        public int search(Long key) {
+            return Arrays.binarySearch(keys, 0, size, key);
+        }
+
+        @Override
+        protected Long getKey(int index) {
+            return keys[index];
+        }
+
+        @Override
+        protected void setKey(int index, Long key) {
+            keys[index] = key;
+        }
+
+        @Override
+        protected void copyKeys(int from, int to, int length) {
+            System.arraycopy(keys, from, keys, to, length);
+        }
+
+        @Override
+        protected void resizeKeys(int capacity) {
+            keys = Arrays.copyOf(keys, capacity);
+        }
+    }
+
+    /**
+     * Arrays.binarySearch для double сравнивает так же, как Double.compareTo, включая -0.0 и NaN
+     */
+    private static class DoublePairs<V> extends NodePairs<Double, V> {
+        private static final long serialVersionUID = 2893372516286307183L;
+        private double[] keys = new double[INITIAL_CAPACITY];
+
+        @Override
+        public int search(Double key) {
+            return Arrays.binarySearch(keys, 0, size, key);
+        }
+
+        @Override
+        protected Double getKey(int index) {
+            return keys[index];
+        }
+
+        @Override
+        protected void setKey(int index, Double key) {
+            keys[index] = key;
+        }
+
+        @Override
+        protected void copyKeys(int from, int to, int length) {
+            System.arraycopy(keys, from, keys, to, length);
+        }
+
+        @Override
+        protected void resizeKeys(int capacity) {
+            keys = Arrays.copyOf(keys, capacity);
+        }
+    }
+
+    private static class ObjectPairs<U, V> extends NodePairs<U, V> {
+        private static final long serialVersionUID = -8476313529128452361L;
+        private Object[] keys = new Object[INITIAL_CAPACITY];
+
+        @Override
+        public int search(U key) {
+            return Arrays.binarySearch(keys, 0, size, key);
+        }
+
+        @Override
+        protected U getKey(int index) {
+            return (U) keys[index];
+        }
+
+        @Override
+        protected void setKey(int index, U key) {
+            keys[index] = key;
+        }
+
+        @Override
+        protected void copyKeys(int from, int to, int length) {
+            System.arraycopy(keys, from, keys, to, length);
+        }
+
+        @Override
+        protected void resizeKeys(int capacity) {
+            keys = Arrays.copyOf(keys, capacity);
+        }
+
+        @Override
+        protected void clearKey(int index) {
+            keys[index] = null;
+        }
+    }
+}
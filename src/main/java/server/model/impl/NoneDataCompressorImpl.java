@@ -0,0 +1,35 @@
+package server.model.impl;
+
+import server.model.BaseDataCompressor;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class NoneDataCompressorImpl extends BaseDataCompressor {
+    public static final byte ID = 0;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] input) {
+        return input;
+    }
+
+    @Override
+    public byte[] decompress(byte[] input) {
+        return input;
+    }
+
+    @Override
+    public InputStream decompress(InputStream inputStream) {
+        return inputStream;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream outputStream) {
+        return outputStream;
+    }
+}
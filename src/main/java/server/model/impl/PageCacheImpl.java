@@ -0,0 +1,74 @@
+package server.model.impl;
+
+import server.model.PageCache;
+import server.model.pojo.CacheStatistics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * LRU кэш страниц. Ключ страницы - номер файла в старших 24 битах и номер страницы в младших 40
+ */
+public class PageCacheImpl implements PageCache {
+    private static final int PAGE_BITS = 40;
+    private final LinkedHashMap<Long, byte[]> pages = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicInteger files = new AtomicInteger();
+    private final long maxBytes;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public PageCacheImpl(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    private static long key(int file, long page) {
+        return ((long) file << PAGE_BITS) | page;
+    }
+
+    @Override
+    public int register() {
+        return files.incrementAndGet();
+    }
+
+    @Override
+    public synchronized byte[] get(int file, long page) {
+        final byte[] data = pages.get(key(file, page));
+        if (data == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return data;
+    }
+
+    @Override
+    public synchronized void put(int file, long page, byte[] data) {
+        final byte[] previous = pages.put(key(file, page), data);
+        bytes += data.length - (previous == null ? 0 : previous.length);
+        for (Iterator<byte[]> iterator = pages.values().iterator(); bytes > maxBytes && iterator.hasNext(); ) {
+            bytes -= iterator.next().length;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    @Override
+    public synchronized void invalidate(int file) {
+        for (Iterator<Map.Entry<Long, byte[]>> iterator = pages.entrySet().iterator(); iterator.hasNext(); ) {
+            final Map.Entry<Long, byte[]> entry = iterator.next();
+            if (entry.getKey() >>> PAGE_BITS == file) {
+                bytes -= entry.getValue().length;
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(hits, misses, evictions, pages.size(), -1, bytes, maxBytes);
+    }
+}
@@ -0,0 +1,414 @@
+package server.model.impl;
+
+import server.model.PageCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Файл из страниц фиксированного размера. Заголовок страницы: [crc32 остатка страницы][длина данных][следующая страница],
+ * запись длиннее страницы занимает цепочку страниц. Записи адресуются id, таблица id -> первая страница цепочки
+ * хранится отдельной записью.
+ * <p>
+ * Файл меняется копированием при записи: страницы, достижимые из последнего сохраненного состояния, не переписываются.
+ * Первая запись id после sync уходит в новые страницы, старая цепочка и освобожденные страницы копятся в списке
+ * ожидающих и становятся свободными только после следующего sync. Страницы 0 и 1 - два слота заголовка
+ * (MAGIC, размер страницы, номер sync, число страниц, следующий id, корневая запись, первая страница таблицы),
+ * sync пишет таблицу, сбрасывает файл на диск и только потом пишет слот с большим номером. При открытии берется
+ * целый слот с наибольшим номером, поэтому падение между sync возвращает файл к последнему sync.
+ * <p>
+ * Чтения идут через общий PageCache. Запись целиком переписывает цепочку, поэтому измененный большой узел стоит
+ * всех своих страниц, а sync - размера таблицы
+ */
+public class PagedFile {
+    public static final long NONE = -1;
+    private static final byte[] MAGIC = {'B', 'P', 'F', 1};
+    private static final int HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES;
+    private static final int HEADER_PAGES = 2;
+    private final String fileName;
+    private final FileChannel channel;
+    private final PageCache pageCache;
+    private final int file;
+    private final int pageSize;
+    private final Map<Long, Long> records = new ConcurrentHashMap<>();
+    private final NavigableSet<Long> freePages = new TreeSet<>();
+    private final Set<Long> pendingPages = new HashSet<>();
+    private final Set<Long> freshPages = new HashSet<>();
+    private long sequence;
+    private long pageCount;
+    private long nextId;
+    private long root;
+    private long tablePage;
+    private boolean changed;
+
+    /**
+     * @param pageSize размер страницы нового файла, у существующего файла размер берется из заголовка
+     */
+    public PagedFile(String fileName, int pageSize, PageCache pageCache) {
+        this.fileName = fileName;
+        this.pageCache = pageCache;
+        this.file = pageCache.register();
+        try {
+            this.channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (channel.size() == 0) {
+                this.pageSize = pageSize;
+                this.pageCount = HEADER_PAGES;
+                this.nextId = 1;
+                this.root = NONE;
+                this.tablePage = NONE;
+                for (int slot = 0; slot < HEADER_PAGES; slot++) {
+                    writeHeader(slot);
+                }
+            } else {
+                final ByteBuffer start = read(0, HEADER_SIZE + MAGIC.length + Integer.BYTES);
+                start.position(HEADER_SIZE + MAGIC.length);
+                this.pageSize = start.getInt();
+                ByteBuffer header = null;
+                for (int slot = 0; slot < HEADER_PAGES; slot++) {
+                    final ByteBuffer slotHeader = readHeader(slot);
+                    if (slotHeader != null && (header == null || slotHeader.getLong(MAGIC.length + Integer.BYTES) > header.getLong(MAGIC.length + Integer.BYTES))) {
+                        header = slotHeader;
+                    }
+                }
+                if (header == null) {
+                    throw new RuntimeException("file " + fileName + " is not a paged file");
+                }
+                header.position(MAGIC.length + Integer.BYTES);
+                this.sequence = header.getLong();
+                this.pageCount = header.getLong();
+                this.nextId = header.getLong();
+                this.root = header.getLong();
+                this.tablePage = header.getLong();
+                if (tablePage != NONE) {
+                    readTable(ByteBuffer.wrap(readChain(tablePage)));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Проверяет MAGIC в начале данных нулевой страницы
+     */
+    public static boolean isPagedFile(String fileName) {
+        final File file = new File(fileName);
+        if (!file.exists()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            while (magic.hasRemaining()) {
+                if (channel.read(magic, HEADER_SIZE + magic.position()) < 0) {
+                    return false;
+                }
+            }
+            return Arrays.equals(MAGIC, magic.array());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public synchronized long getPageCount() {
+        return pageCount;
+    }
+
+    public synchronized long getRoot() {
+        return root;
+    }
+
+    public synchronized void setRoot(long root) {
+        this.root = root;
+        changed = true;
+    }
+
+    /**
+     * Новый id пустой записи, id не переиспользуются
+     */
+    public synchronized long allocate() {
+        final long id = nextId++;
+        records.put(id, NONE);
+        changed = true;
+        return id;
+    }
+
+    /**
+     * Переписывает запись id. Цепочка, записанная после последнего sync, переиспользуется на месте, лишние ее страницы
+     * сразу свободны. Цепочка из сохраненного состояния не трогается: запись идет в новые страницы, старые ждут sync
+     *
+     * @param id id записи или NONE для новой записи
+     * @return id записи
+     */
+    public synchronized long write(long id, byte[] record) {
+        if (id == NONE) {
+            id = allocate();
+        }
+        final Long first = records.get(id);
+        if (first == null) {
+            throw new IllegalArgumentException("record " + id + " not found in file " + fileName);
+        }
+        boolean reuse = first != NONE && freshPages.contains(first);
+        if (first != NONE && !reuse) {
+            release(first);
+        }
+        final long page = reuse ? first : allocatePage();
+        final int capacity = pageSize - HEADER_SIZE;
+        long current = page;
+        int offset = 0;
+        while (true) {
+            final int length = Math.min(capacity, record.length - offset);
+            final long oldNext = reuse ? getNext(current) : NONE;
+            if (offset + length == record.length) {
+                writePage(current, record, offset, length, NONE);
+                release(oldNext);
+                break;
+            }
+            reuse = oldNext != NONE;
+            final long next = reuse ? oldNext : allocatePage();
+            writePage(current, record, offset, length, next);
+            offset += length;
+            current = next;
+        }
+        records.put(id, page);
+        changed = true;
+        return id;
+    }
+
+    public byte[] read(long id) {
+        final Long page = records.get(id);
+        if (page == null) {
+            throw new IllegalArgumentException("record " + id + " not found in file " + fileName);
+        }
+        return readChain(page);
+    }
+
+    /**
+     * Удаляет запись, ее страницы освобождаются так же, как при перезаписи
+     */
+    public synchronized void free(long id) {
+        final Long page = records.remove(id);
+        if (page != null) {
+            release(page);
+            changed = true;
+        }
+    }
+
+    /**
+     * Пишет таблицу записей со списком свободных страниц в свободные страницы, сбрасывает файл на диск и пишет
+     * следующий слот заголовка. После этого ожидающие страницы и страницы старой таблицы становятся свободными
+     */
+    public synchronized void sync() {
+        try {
+            if (changed) {
+                if (tablePage != NONE) {
+                    release(tablePage);
+                }
+                final NavigableSet<Long> candidates = new TreeSet<>(freePages);
+                final NavigableSet<Long> nextFreePages = new TreeSet<>(freePages);
+                nextFreePages.addAll(pendingPages);
+                final List<Long> pages = new ArrayList<>();
+                while (pages.size() < pagesFor(tableSize(nextFreePages.size()))) {
+                    final Long page = candidates.pollFirst();
+                    if (page == null) {
+                        pages.add(pageCount++);
+                    } else {
+                        nextFreePages.remove(page);
+                        pages.add(page);
+                    }
+                }
+                writeChain(pages, tableToBytes(nextFreePages));
+                channel.force(false);
+                sequence++;
+                tablePage = pages.get(0);
+                writeHeader((int) (sequence % HEADER_PAGES));
+                freePages.clear();
+                freePages.addAll(nextFreePages);
+                pendingPages.clear();
+                freshPages.clear();
+                changed = false;
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public synchronized void close() {
+        pageCache.invalidate(file);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private long allocatePage() {
+        final Long free = freePages.pollFirst();
+        final long page = free != null ? free : pageCount++;
+        freshPages.add(page);
+        return page;
+    }
+
+    /**
+     * Страницы, записанные после последнего sync, свободны сразу, остальные ждут следующего sync
+     */
+    private void release(long page) {
+        while (page != NONE) {
+            final long next = getNext(page);
+            if (freshPages.remove(page)) {
+                freePages.add(page);
+            } else {
+                pendingPages.add(page);
+            }
+            page = next;
+        }
+    }
+
+    private long getNext(long page) {
+        return ByteBuffer.wrap(readPage(page)).getLong(Integer.BYTES * 2);
+    }
+
+    private byte[] readChain(long page) {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        while (page != NONE) {
+            final ByteBuffer buffer = ByteBuffer.wrap(readPage(page));
+            buffer.getInt();
+            final int length = buffer.getInt();
+            page = buffer.getLong();
+            outputStream.write(buffer.array(), HEADER_SIZE, length);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Пишет запись ровно в страницы pages, хвостовые страницы могут остаться пустыми
+     */
+    private void writeChain(List<Long> pages, byte[] record) {
+        final int capacity = pageSize - HEADER_SIZE;
+        for (int i = 0; i < pages.size(); i++) {
+            final int offset = Math.min(record.length, i * capacity);
+            final int length = Math.min(capacity, record.length - offset);
+            writePage(pages.get(i), record, offset, length, i + 1 < pages.size() ? pages.get(i + 1) : NONE);
+        }
+    }
+
+    private int tableSize(int freePageCount) {
+        return Integer.BYTES * 2 + records.size() * Long.BYTES * 2 + freePageCount * Long.BYTES;
+    }
+
+    private int pagesFor(int size) {
+        final int capacity = pageSize - HEADER_SIZE;
+        return Math.max(1, (size + capacity - 1) / capacity);
+    }
+
+    /**
+     * Таблица: [число записей]([id][первая страница])*[число свободных страниц]([страница])*
+     */
+    private byte[] tableToBytes(Set<Long> freePages) {
+        final ByteBuffer buffer = ByteBuffer.allocate(tableSize(freePages.size()));
+        buffer.putInt(records.size());
+        records.forEach((id, page) -> buffer.putLong(id).putLong(page));
+        buffer.putInt(freePages.size());
+        freePages.forEach(buffer::putLong);
+        return buffer.array();
+    }
+
+    private void readTable(ByteBuffer buffer) {
+        final int size = buffer.getInt();
+        for (int i = 0; i < size; i++) {
+            records.put(buffer.getLong(), buffer.getLong());
+        }
+        final int freePageCount = buffer.getInt();
+        for (int i = 0; i < freePageCount; i++) {
+            freePages.add(buffer.getLong());
+        }
+    }
+
+    /**
+     * Данные слота заголовка или null, если слот не записан до конца
+     */
+    private ByteBuffer readHeader(int slot) throws IOException {
+        if (channel.size() < (long) (slot + 1) * pageSize) {
+            return null;
+        }
+        final byte[] data = read((long) slot * pageSize, pageSize).array();
+        final CRC32 crc32 = new CRC32();
+        crc32.update(data, Integer.BYTES, pageSize - Integer.BYTES);
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        if ((int) crc32.getValue() != buffer.getInt()) {
+            return null;
+        }
+        final int length = buffer.getInt();
+        final ByteBuffer header = ByteBuffer.wrap(data, HEADER_SIZE, length).slice();
+        final byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        header.rewind();
+        return Arrays.equals(MAGIC, magic) ? header : null;
+    }
+
+    private void writeHeader(int slot) {
+        final ByteBuffer header = ByteBuffer.allocate(MAGIC.length + Integer.BYTES + Long.BYTES * 6);
+        header.put(MAGIC).putInt(pageSize).putLong(sequence).putLong(pageCount).putLong(nextId).putLong(root).putLong(tablePage);
+        writePage(slot, header.array(), 0, header.capacity(), NONE);
+    }
+
+    private byte[] readPage(long page) {
+        byte[] data = pageCache.get(file, page);
+        if (data != null) {
+            return data;
+        }
+        data = read(page * pageSize, pageSize).array();
+        final CRC32 crc32 = new CRC32();
+        crc32.update(data, Integer.BYTES, pageSize - Integer.BYTES);
+        if ((int) crc32.getValue() != ByteBuffer.wrap(data).getInt()) {
+            throw new RuntimeException("wrong checksum of page " + page + " in file " + fileName);
+        }
+        pageCache.put(file, page, data);
+        return data;
+    }
+
+    private void writePage(long page, byte[] record, int offset, int length, long next) {
+        final byte[] data = new byte[pageSize];
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.position(Integer.BYTES);
+        buffer.putInt(length).putLong(next).put(record, offset, length);
+        final CRC32 crc32 = new CRC32();
+        crc32.update(data, Integer.BYTES, pageSize - Integer.BYTES);
+        buffer.putInt(0, (int) crc32.getValue());
+        buffer.clear();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, page * pageSize + buffer.position());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        pageCache.put(file, page, data);
+    }
+
+    private ByteBuffer read(long position, int size) {
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new RuntimeException("unexpected end of file " + fileName + ", expected " + buffer.remaining() + " more bytes");
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
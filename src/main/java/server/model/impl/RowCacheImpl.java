@@ -0,0 +1,319 @@
+package server.model.impl;
+
+import server.model.RowCache;
+import server.model.pojo.CacheStatistics;
+import server.model.pojo.Row;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Кэш прочитанных строк с бюджетом в байтах и политикой W-TinyLFU: новые строки попадают в маленькое LRU-окно,
+ * вытесненные из окна допускаются в основную SLRU-область, только если по частотному скетчу
+ * к ним обращались чаще, чем к вытесняемой строке. Поэтому полный обход таблицы не вымывает горячие строки.
+ * Ключ строки - номер таблицы в старших 32 битах и id строки в младших
+ */
+public class RowCacheImpl implements RowCache {
+    private static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+    private final Map<Long, Node> nodes = new ConcurrentHashMap<>();
+    private final LinkedHashMap<Long, Node> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Long, Node> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Long, Node> protectedQueue = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicInteger tables = new AtomicInteger();
+    private final Map<Integer, AtomicLong> stamps = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final FrequencySketch sketch = new FrequencySketch();
+    private final long maxBytes;
+    private final long windowMaxBytes;
+    private final long mainMaxBytes;
+    private final long protectedMaxBytes;
+    private long windowBytes;
+    private long probationBytes;
+    private long protectedBytes;
+    private long evictions;
+
+    public RowCacheImpl(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.windowMaxBytes = Math.max(1, maxBytes / 100);
+        this.mainMaxBytes = maxBytes - windowMaxBytes;
+        this.protectedMaxBytes = mainMaxBytes * 4 / 5;
+    }
+
+    private static long key(int table, int id) {
+        return ((long) table << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public int register() {
+        return tables.incrementAndGet();
+    }
+
+    @Override
+    public long stamp(int table) {
+        return tableStamp(table).get();
+    }
+
+    private AtomicLong tableStamp(int table) {
+        return stamps.computeIfAbsent(table, t -> new AtomicLong());
+    }
+
+    @Override
+    public Row get(int table, int id) {
+        final long key = key(table, id);
+        final Node node = nodes.get(key);
+        if (lock.tryLock()) {
+            try {
+                sketch.increment(key);
+                if (node != null && nodes.get(key) == node) {
+                    onAccess(node);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (node == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return node.row;
+    }
+
+    @Override
+    public void put(int table, Row row, long weight, long stamp) {
+        if (weight > maxBytes) {
+            return;
+        }
+        final long key = key(table, row.getId());
+        lock.lock();
+        try {
+            if (stamp != stamp(table)) {
+                return;
+            }
+            final Node previous = nodes.remove(key);
+            if (previous != null) {
+                unlink(previous);
+            }
+            final Node node = new Node(key, row, weight);
+            nodes.put(key, node);
+            window.put(key, node);
+            windowBytes += weight;
+            sketch.ensureCapacity(nodes.size());
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidate(int table, int id) {
+        tableStamp(table).incrementAndGet();
+        lock.lock();
+        try {
+            final Node node = nodes.remove(key(table, id));
+            if (node != null) {
+                unlink(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidate(int table) {
+        tableStamp(table).incrementAndGet();
+        lock.lock();
+        try {
+            for (Iterator<Node> iterator = nodes.values().iterator(); iterator.hasNext(); ) {
+                final Node node = iterator.next();
+                if (node.key >>> 32 == table) {
+                    iterator.remove();
+                    unlink(node);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public CacheStatistics getStatistics() {
+        lock.lock();
+        try {
+            return new CacheStatistics(hits.get(), misses.get(), evictions, nodes.size(), -1,
+                    windowBytes + probationBytes + protectedBytes, maxBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onAccess(Node node) {
+        final long key = node.key;
+        switch (node.queue) {
+            case WINDOW:
+                window.get(key);
+                break;
+            case PROBATION:
+                probation.remove(key);
+                probationBytes -= node.size;
+                node.queue = PROTECTED;
+                protectedQueue.put(key, node);
+                protectedBytes += node.size;
+                while (protectedBytes > protectedMaxBytes) {
+                    final Node demoted = first(protectedQueue);
+                    protectedQueue.remove(demoted.key);
+                    protectedBytes -= demoted.size;
+                    demoted.queue = PROBATION;
+                    probation.put(demoted.key, demoted);
+                    probationBytes += demoted.size;
+                }
+                break;
+            case PROTECTED:
+                protectedQueue.get(key);
+                break;
+        }
+    }
+
+    /**
+     * Переполнившее окно строки становятся кандидатами в основную область и соревнуются с ее LRU-жертвой
+     */
+    private void evict() {
+        while (windowBytes > windowMaxBytes) {
+            Node candidate = first(window);
+            window.remove(candidate.key);
+            windowBytes -= candidate.size;
+            candidate.queue = PROBATION;
+            probation.put(candidate.key, candidate);
+            probationBytes += candidate.size;
+            while (probationBytes + protectedBytes > mainMaxBytes) {
+                final Node victim = probation.isEmpty() ? first(protectedQueue) : first(probation);
+                if (candidate != null && victim != candidate && sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                    remove(candidate);
+                    candidate = null;
+                } else {
+                    if (victim == candidate) {
+                        candidate = null;
+                    }
+                    remove(victim);
+                }
+            }
+        }
+    }
+
+    private void remove(Node node) {
+        nodes.remove(node.key, node);
+        unlink(node);
+        evictions++;
+    }
+
+    private void unlink(Node node) {
+        final long key = node.key;
+        switch (node.queue) {
+            case WINDOW:
+                window.remove(key);
+                windowBytes -= node.size;
+                break;
+            case PROBATION:
+                probation.remove(key);
+                probationBytes -= node.size;
+                break;
+            case PROTECTED:
+                protectedQueue.remove(key);
+                protectedBytes -= node.size;
+                break;
+        }
+    }
+
+    private static Node first(LinkedHashMap<Long, Node> queue) {
+        return queue.values().iterator().next();
+    }
+
+    private static class Node {
+        private final long key;
+        private final Row row;
+        private final long size;
+        private int queue = WINDOW;
+
+        private Node(long key, Row row, long size) {
+            this.key = key;
+            this.row = row;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Count-min скетч с 4-битными счетчиками, по 16 в одном long. Счетчики периодически делятся пополам,
+     * чтобы старая популярность забывалась. Таблица растет вместе с числом строк в кэше, при росте счетчики обнуляются
+     */
+    private static class FrequencySketch {
+        private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+        private static final int MIN_SIZE = 64;
+        private static final int MAX_SIZE = 1 << 22;
+        private long[] table = new long[MIN_SIZE];
+        private int sampleSize = MIN_SIZE * 10;
+        private int additions;
+
+        private void ensureCapacity(int entries) {
+            if (entries <= table.length || table.length >= MAX_SIZE) {
+                return;
+            }
+            final int size = Math.min(MAX_SIZE, Integer.highestOneBit(entries - 1) << 1);
+            table = new long[size];
+            sampleSize = size * 10;
+            additions = 0;
+        }
+
+        private int frequency(long key) {
+            int frequency = 15;
+            for (long seed : SEEDS) {
+                final long hash = hash(key, seed);
+                frequency = Math.min(frequency, (int) ((table[index(hash)] >>> offset(hash)) & 0xF));
+            }
+            return frequency;
+        }
+
+        private void increment(long key) {
+            boolean added = false;
+            for (long seed : SEEDS) {
+                final long hash = hash(key, seed);
+                final int index = index(hash);
+                final int offset = offset(hash);
+                if (((table[index] >>> offset) & 0xF) < 15) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            }
+            additions /= 2;
+        }
+
+        private long hash(long key, long seed) {
+            final long hash = (key ^ seed) * seed;
+            return hash ^ (hash >>> 29);
+        }
+
+        private int index(long hash) {
+            return (int) (hash >>> 32) & (table.length - 1);
+        }
+
+        private int offset(long hash) {
+            return ((int) hash & 15) << 2;
+        }
+    }
+}
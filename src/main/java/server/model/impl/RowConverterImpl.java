@@ -0,0 +1,280 @@
+package server.model.impl;
+
+import server.model.ModelService;
+import server.model.ObjectConverter;
+import server.model.RowConverter;
+import server.model.pojo.Row;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Двоичный формат строки: версия, id, количество полей и для каждого поля порядковый номер из модели
+ * (0 - дальше идет имя поля), тип значения и само значение. Целые числа пишутся как varint.
+ * Строки, сохраненные через ObjectConverter (gzip), читаются как раньше. Порядковые номера не переиспользуются,
+ * поэтому номер, которого нет в модели, принадлежит удаленному полю. Номер больше последнего выданного означает
+ * потерянную модель, такая строка не читается
+ */
+public class RowConverterImpl implements RowConverter {
+    private static final byte VERSION = 1;
+    private static final int NULL_TYPE = 0;
+
+    private final ModelService modelService;
+    private final ObjectConverter objectConverter;
+    private volatile Fields fields;
+
+    public RowConverterImpl(ModelService modelService, ObjectConverter objectConverter) {
+        this.modelService = modelService;
+        this.objectConverter = objectConverter;
+        this.fields = new Fields(modelService);
+        modelService.subscribeOnFieldsChanges(fields -> RowConverterImpl.this.fields = new Fields(modelService));
+    }
+
+    @Override
+    public byte[] toBytes(Row row) {
+        for (Comparable value : row.getFields().values()) {
+            if (value != null && !ModelService.types.contains(value.getClass())) {
+                return objectConverter.toBytes(row);
+            }
+        }
+        final Fields fields = this.fields;
+        final Output output = new Output();
+        output.write(VERSION);
+        output.writeVarInt(row.getId());
+        output.writeVarInt(row.getFields().size());
+        for (Map.Entry<String, Comparable> entry : row.getFields().entrySet()) {
+            final Integer ordinal = fields.ordinals.get(entry.getKey());
+            if (ordinal == null) {
+                output.writeVarInt(0);
+                output.writeString(entry.getKey());
+            } else {
+                output.writeVarInt(ordinal);
+            }
+            writeValue(output, entry.getValue());
+        }
+        return output.toByteArray();
+    }
+
+    private void writeValue(Output output, Comparable value) {
+        if (value == null) {
+            output.write(NULL_TYPE);
+            return;
+        }
+        final Class<?> type = value.getClass();
+        output.write(ModelService.types.indexOf(type) + 1);
+        if (Byte.class.equals(type)) {
+            output.write((Byte) value);
+        } else if (Character.class.equals(type)) {
+            output.writeVarInt((Character) value);
+        } else if (Short.class.equals(type)) {
+            output.writeVarLong(zigZag((Short) value));
+        } else if (Integer.class.equals(type)) {
+            output.writeVarLong(zigZag((Integer) value));
+        } else if (Long.class.equals(type)) {
+            output.writeVarLong(zigZag((Long) value));
+        } else if (Float.class.equals(type)) {
+            output.writeFixed(Float.floatToIntBits((Float) value), Integer.BYTES);
+        } else if (Double.class.equals(type)) {
+            output.writeFixed(Double.doubleToLongBits((Double) value), Long.BYTES);
+        } else {
+            output.writeString((String) value);
+        }
+    }
+
+    @Override
+    public Row fromBytes(byte[] bytes) {
+        if (bytes.length > 1 && bytes[0] == (byte) 0x1f && bytes[1] == (byte) 0x8b) {
+            return objectConverter.fromBytes(Row.class, bytes);
+        }
+        if (bytes.length == 0 || bytes[0] != VERSION) {
+            throw new IllegalArgumentException("unknown row format version " + (bytes.length == 0 ? "empty" : bytes[0]));
+        }
+        Fields fields = this.fields;
+        final Input input = new Input(bytes, 1);
+        final int id = input.readVarInt();
+        final int size = input.readVarInt();
+        final Map<String, Comparable> map = new HashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            final int ordinal = input.readVarInt();
+            if (ordinal > fields.lastOrdinal) {
+                fields = refresh(ordinal);
+            }
+            final String name = ordinal == 0 ? input.readString() : fields.names.get(ordinal);
+            final Comparable value = readValue(input);
+            if (name != null) {
+                map.put(name, value);
+            }
+        }
+        return Row.frozen(id, map);
+    }
+
+    @Override
+    public boolean hasDeletedFields(byte[] bytes) {
+        if (bytes.length > 1 && bytes[0] == (byte) 0x1f && bytes[1] == (byte) 0x8b) {
+            return false;
+        }
+        Fields fields = this.fields;
+        final Input input = new Input(bytes, 1);
+        input.readVarInt();
+        final int size = input.readVarInt();
+        for (int i = 0; i < size; i++) {
+            final int ordinal = input.readVarInt();
+            if (ordinal > fields.lastOrdinal) {
+                fields = refresh(ordinal);
+            }
+            if (ordinal == 0) {
+                input.readString();
+            } else if (!fields.names.containsKey(ordinal)) {
+                return true;
+            }
+            readValue(input);
+        }
+        return false;
+    }
+
+    /**
+     * Строку мог записать писатель, который уже видит новое поле, поэтому сначала перечитываются поля модели
+     */
+    private Fields refresh(int ordinal) {
+        final Fields fields = new Fields(modelService);
+        if (ordinal > fields.lastOrdinal) {
+            throw new IllegalStateException("unknown field ordinal " + ordinal + ", last ordinal " + fields.lastOrdinal);
+        }
+        this.fields = fields;
+        return fields;
+    }
+
+    private Comparable readValue(Input input) {
+        final int typeIndex = input.read();
+        if (typeIndex == NULL_TYPE) {
+            return null;
+        }
+        final Class<?> type = ModelService.types.get(typeIndex - 1);
+        if (Byte.class.equals(type)) {
+            return (byte) input.read();
+        } else if (Character.class.equals(type)) {
+            return (char) input.readVarInt();
+        } else if (Short.class.equals(type)) {
+            return (short) unZigZag(input.readVarLong());
+        } else if (Integer.class.equals(type)) {
+            return (int) unZigZag(input.readVarLong());
+        } else if (Long.class.equals(type)) {
+            return unZigZag(input.readVarLong());
+        } else if (Float.class.equals(type)) {
+            return Float.intBitsToFloat((int) input.readFixed(Integer.BYTES));
+        } else if (Double.class.equals(type)) {
+            return Double.longBitsToDouble(input.readFixed(Long.BYTES));
+        }
+        return input.readString();
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static class Fields {
+        private final Map<String, Integer> ordinals = new HashMap<>();
+        private final Map<Integer, String> names = new HashMap<>();
+        private final int lastOrdinal;
+
+        private Fields(ModelService modelService) {
+            int lastOrdinal = modelService.getLastOrdinal();
+            for (ModelService.FieldInfo info : modelService.getFields()) {
+                if (info.getOrdinal() > 0) {
+                    ordinals.put(info.getName(), info.getOrdinal());
+                    names.put(info.getOrdinal(), info.getName());
+                    lastOrdinal = Math.max(lastOrdinal, info.getOrdinal());
+                }
+            }
+            this.lastOrdinal = lastOrdinal;
+        }
+    }
+
+    private static class Output extends ByteArrayOutputStream {
+
+        private Output() {
+            super(64);
+        }
+
+        private void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        private void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        private void writeFixed(long value, int bytes) {
+            for (int i = bytes - 1; i >= 0; i--) {
+                write((int) (value >>> (i * 8)));
+            }
+        }
+
+        private void writeString(String value) {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    private static class Input {
+        private final byte[] bytes;
+        private int position;
+
+        private Input(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        private int read() {
+            if (position >= bytes.length) {
+                throw new IllegalArgumentException("unexpected end of row bytes");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        private int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        private long readVarLong() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = read();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("malformed varint in row bytes");
+        }
+
+        private long readFixed(int size) {
+            long result = 0;
+            for (int i = 0; i < size; i++) {
+                result = (result << 8) | read();
+            }
+            return result;
+        }
+
+        private String readString() {
+            final int length = readVarInt();
+            if (length < 0 || position + length > bytes.length) {
+                throw new IllegalArgumentException("unexpected end of row bytes");
+            }
+            final String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
@@ -6,25 +6,31 @@ import server.model.*;
 import server.model.lock.Lock;
 import server.model.lock.LockService;
 import server.model.lock.ReadWriteLock;
+import server.model.pojo.CacheStatistics;
 import server.model.pojo.RowAddress;
 
-import java.io.File;
-import java.io.Serializable;
+import java.io.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 public class RowIdRepositoryImpl extends BaseDestroyable implements RowIdRepository {
     private static final Logger log = LoggerFactory.getLogger(RowIdRepositoryImpl.class);
     private static final String ROW_NAME = "row";
     private static final String ROW_ID_NAME = "rowId";
     private static final String VARIABLES_NAME = "rowIdVariables";
+    private static final int DEFAULT_MAX_CACHED_TABLES = 64;
+    private static final int CHUNK_SIZE = 100;
 
     private final ReadWriteLock<Integer> rowIdReadWriteLock = LockService.createReadWriteLock(Integer.class);
     private final ReadWriteLock<Integer> rowReadWriteLock = LockService.createReadWriteLock(Integer.class);
@@ -35,9 +41,25 @@ public class RowIdRepositoryImpl extends BaseDestroyable implements RowIdReposit
     private final String filesRowPath;
     private final int maxIdSize;
     private final int compressSize;
+    private final TableCache cachedTables;
+    private final ForkJoinPool forkJoinPool;
+    private final Map<Integer, String> rowFileNames = new ConcurrentHashMap<>();
     private volatile boolean changed;
 
     public RowIdRepositoryImpl(String filePath, boolean init, ObjectConverter objectConverter, DestroyService destroyService, int maxIdSize, int compressSize) {
+        this(filePath, init, objectConverter, destroyService, maxIdSize, compressSize, DEFAULT_MAX_CACHED_TABLES);
+    }
+
+    public RowIdRepositoryImpl(String filePath, boolean init, ObjectConverter objectConverter, DestroyService destroyService, int maxIdSize, int compressSize, int maxCachedTables) {
+        this(filePath, init, objectConverter, destroyService, maxIdSize, compressSize, maxCachedTables, null);
+    }
+
+    /**
+     * @param maxCachedTables сколько файлов rowId держать в памяти, измененные файлы сверх лимита
+     *                        выгружаются после записи на диск
+     * @param forkJoinPool    пул для параллельного полного обхода, null - обход в вызывающем потоке
+     */
+    public RowIdRepositoryImpl(String filePath, boolean init, ObjectConverter objectConverter, DestroyService destroyService, int maxIdSize, int compressSize, int maxCachedTables, ForkJoinPool forkJoinPool) {
         super(filePath, init, objectConverter, destroyService, Utils.getFullPath(filePath, ROW_ID_NAME), Utils.getFullPath(filePath, ROW_NAME));
         this.filesIdPath = Utils.getFullPath(filePath, ROW_ID_NAME) + ROW_ID_NAME;
         this.filesRowPath = Utils.getFullPath(filePath, ROW_NAME) + ROW_NAME;
@@ -45,11 +67,13 @@ public class RowIdRepositoryImpl extends BaseDestroyable implements RowIdReposit
         this.compressSize = compressSize;
         final File file = new File(this.variablesFileName);
         if (file.exists()) {
-            this.variables = objectConverter.fromFile(Variables.class, this.variablesFileName);
+            this.variables = Utils.logTime(log, "rowId variables " + this.variablesFileName, () -> objectConverter.fromFile(Variables.class, this.variablesFileName));
         } else {
             this.variables = new Variables(new AtomicInteger(0), new CopyOnWriteArraySet<>());
         }
         this.maxIdSize = maxIdSize;
+        this.cachedTables = new TableCache(maxCachedTables);
+        this.forkJoinPool = forkJoinPool;
     }
 
     @Override
@@ -69,8 +93,8 @@ public class RowIdRepositoryImpl extends BaseDestroyable implements RowIdReposit
     }
 
     public void add(int id, boolean save, Consumer<RowAddress> rowAddressConsumer) {
-        processRowAddresses(rowReadWriteLock.writeLock(), id, true, (rowFileNumber, rowAddresses) -> {
-            if (rowAddresses == null) {
+        processRowAddresses(rowReadWriteLock.writeLock(), id, true, (rowFileNumber, table) -> {
+            if (table == null) {
                 final int rowIdFileNumber = getRowIdFileNumber(id);
                 if (variables.idBatches.contains(rowIdFileNumber)) {
                     throw new IllegalStateException("idBatches contains rowIdFileNumber " + rowIdFileNumber);
@@ -78,41 +102,70 @@ public class RowIdRepositoryImpl extends BaseDestroyable implements RowIdReposit
                 variables.idBatches.add(rowIdFileNumber);
                 final RowAddress rowAddress = createRowAddress(id);
                 rowAddressConsumer.accept(rowAddress);
-                rowAddress.setSaved(save);
-                final RowAddresses createdRowAddresses = new RowAddresses();
-                final RowAddressBasket rowAddressBasket = createdRowAddresses.baskets.computeIfAbsent(rowFileNumber, k -> new RowAddressBasket(rowAddress));
-                rowAddressBasket.rowAddressMap.put(id, rowAddress);
-                variables.cachedRowAddressesMap.put(rowIdFileNumber, createdRowAddresses);
+                final RowAddressTable createdTable = new RowAddressTable();
+                getBasket(createdTable, rowFileNumber).put(id, rowAddress.getPosition(), rowAddress.getSize(), save);
+                createdTable.dirty = true;
+                cachedTables.put(rowIdFileNumber, createdTable, false);
+                changed = true;
             } else {
-                final RowAddressBasket rowAddressBasket = rowAddresses.baskets.computeIfAbsent(getRowFileNumber(id), k -> new RowAddressBasket());
-                final RowAddress rowAddressFromMap = rowAddressBasket.rowAddressMap.get(id);
-                final RowAddress rowAddress;
-                if (rowAddressFromMap == null) {
-                    rowAddress = createRowAddress(id);
-                    if (rowAddressBasket.lastRowAddress != null && rowAddressBasket.lastRowAddress.getFilePath().equals(getRowFileName(id))) {
-                        final RowAddress lastRowAddress = rowAddressBasket.lastRowAddress;
-                        lastRowAddress.setNext(rowAddress.getId());
-                        rowAddress.setPosition(lastRowAddress.getPosition() + lastRowAddress.getSize());
-                        rowAddress.setPrevious(lastRowAddress.getId());
+                final PackedBasket basket = getBasket(table, rowFileNumber);
+                if (basket.contains(id)) {
+                    if (!save) {
+                        throw new IllegalArgumentException("cannot add existing rowId " + id);
                     }
+                    final int sizeBefore = basket.getSize(id);
+                    final RowAddress rowAddress = basket.toRowAddress(getRowFileName(id), id);
                     rowAddressConsumer.accept(rowAddress);
-                    rowAddressBasket.lastRowAddress = rowAddress;
+                    basket.put(id, rowAddress.getPosition(), rowAddress.getSize(), true);
+                    basket.shift(id, rowAddress.getSize() - sizeBefore);
                 } else {
-                    if (!save) {
-                        throw new IllegalArgumentException("cannot add existing rowId " + id);
+                    final RowAddress rowAddress = createRowAddress(id);
+                    final int previous = basket.previous(id);
+                    if (previous != -1) {
+                        rowAddress.setPosition(basket.getPosition(previous) + basket.getSize(previous));
+                        rowAddress.setPrevious(previous);
                     }
-                    rowAddress = rowAddressFromMap;
-                    final int sizeBefore = rowAddress.getSize();
                     rowAddressConsumer.accept(rowAddress);
-                    transform(rowAddressBasket, rowAddress, sizeBefore, rowAddress.getSize());
+                    basket.put(id, rowAddress.getPosition(), rowAddress.getSize(), save);
                 }
-                rowAddress.setSaved(save);
-                rowAddressBasket.rowAddressMap.put(rowAddress.getId(), rowAddress);
+                table.dirty = true;
             }
-            changed = true;
         });
     }
 
+    /**
+     * Меняет позицию и размер строки без сдвига следующих за ней строк
+     */
+    @Override
+    public void relocate(int id, long position, int size) {
+        processRowAddresses(rowReadWriteLock.writeLock(), id, false, (rowFileNumber, table) -> {
+            final PackedBasket basket = table.baskets.get(rowFileNumber);
+            if (basket == null || !basket.contains(id)) {
+                throw new IllegalStateException("rowAddress not found, id : " + id);
+            }
+            basket.put(id, position, size, true);
+            table.dirty = true;
+        });
+    }
+
+    /**
+     * Восстанавливает несохраненный id после перезапуска, если его еще нет
+     */
+    @Override
+    public void restore(int id) {
+        variables.lastId.accumulateAndGet(id, Math::max);
+        final AtomicBoolean exists = new AtomicBoolean();
+        processRowAddresses(rowReadWriteLock.readLock(), id, false, (rowFileNumber, table) -> {
+            final PackedBasket basket = table.baskets.get(rowFileNumber);
+            exists.set(basket != null && basket.contains(id));
+        });
+        if (!exists.get()) {
+            add(id, rowAddress -> {
+            });
+        }
+        changed = true;
+    }
+
     @Override
     public StoppableBatchStream<RowAddress> batchStream() {
         return new BatchStream(true);
@@ -123,64 +176,66 @@ public class RowIdRepositoryImpl extends BaseDestroyable implements RowIdReposit
         return new BatchStream(idSet, processType);
     }
 
+    @Override
+    public <T> StoppableStream<T> batchStream(Function<RowAddress, T> mapper) {
+        return new PartitionedStream<>(mapper);
+    }
+
     private RowAddress createRowAddress(int id) {
         return new RowAddress(getRowFileName(id), id, 0, 0);
     }
 
-    private void transform(RowAddressBasket rowAddressBasket, RowAddress rowAddress, int sizeBefore, int sizeAfter) {
-        if (sizeBefore == sizeAfter) {
-            return;
-        }
-        RowAddress rowAddressNext = rowAddress;
-        rowAddressNext.setSize(sizeAfter);
-        while ((rowAddressNext = rowAddressBasket.rowAddressMap.get(rowAddressNext.getNext())) != null) {
-            rowAddressNext.setPosition(rowAddressNext.getPosition() + (sizeAfter - sizeBefore));
-        }
+    private PackedBasket getBasket(RowAddressTable table, int rowFileNumber) {
+        return table.baskets.computeIfAbsent(rowFileNumber, this::createBasket);
+    }
+
+    /**
+     * Корзина покрывает id одного файла строк в пределах одного файла rowId
+     */
+    private PackedBasket createBasket(int rowFileNumber) {
+        final long rowFileFirstId = getRowFileFirstId(rowFileNumber);
+        final long rowFileNextId = getRowFileFirstId(rowFileNumber + 1);
+        final long rowIdFileFirstId = (long) (getRowIdFileNumber((int) rowFileFirstId) - 1) * maxIdSize + 1;
+        final long rowIdFileNextId = rowIdFileFirstId + maxIdSize;
+        final int firstId = (int) rowFileFirstId;
+        return new PackedBasket(firstId, (int) (Math.min(rowFileNextId, rowIdFileNextId) - firstId));
     }
 
     @Override
     public void delete(int id) {
-        processRowAddresses(rowReadWriteLock.writeLock(), id, false, (rowFileNumber, rowAddresses) -> {
-            final RowAddressBasket rowAddressBasket = rowAddresses.baskets.get(rowFileNumber);
-            if (rowAddressBasket == null) {
+        processRowAddresses(rowReadWriteLock.writeLock(), id, false, (rowFileNumber, table) -> {
+            final PackedBasket basket = table.baskets.get(rowFileNumber);
+            if (basket == null) {
                 throw new IllegalStateException("rowAddressBasket not found, id : " + id);
             }
-            final RowAddress rowAddress = rowAddressBasket.rowAddressMap.get(id);
-            if (rowAddress == null) {
+            if (!basket.contains(id)) {
                 throw new IllegalStateException("rowAddress not found, id : " + id);
             }
-            transform(rowAddressBasket, rowAddress, rowAddress.getSize(), 0);
-            if (rowAddressBasket.rowAddressMap.get(rowAddress.getPrevious()) != null) {
-                rowAddressBasket.rowAddressMap.get(rowAddress.getPrevious()).setNext(rowAddress.getNext());
-            }
-            if (rowAddressBasket.rowAddressMap.get(rowAddress.getNext()) != null) {
-                rowAddressBasket.rowAddressMap.get(rowAddress.getNext()).setPrevious(rowAddress.getPrevious());
+            basket.shift(id, -basket.getSize(id));
+            basket.remove(id);
+            if (basket.isEmpty()) {
+                table.baskets.remove(rowFileNumber);
             }
-            rowAddressBasket.rowAddressMap.remove(id);
-            if (rowAddressBasket.rowAddressMap.isEmpty()) {
-                rowAddresses.baskets.remove(rowFileNumber);
-            }
-            changed = true;
+            table.dirty = true;
         });
     }
 
     @Override
     public boolean process(int id, Consumer<RowAddress> consumer) {
         final AtomicBoolean processed = new AtomicBoolean();
-        processRowAddresses(rowReadWriteLock.readLock(), id, false, (rowFileNumber, rowAddresses) -> {
-            final RowAddressBasket rowAddressBasket = rowAddresses.baskets.get(rowFileNumber);
-            if (rowAddressBasket == null) {
+        processRowAddresses(rowReadWriteLock.readLock(), id, false, (rowFileNumber, table) -> {
+            final PackedBasket basket = table.baskets.get(rowFileNumber);
+            if (basket == null) {
                 return;
             }
-            processed.set(process(rowAddressBasket, id, false, consumer));
+            processed.set(process(basket, id, false, consumer));
         });
         return processed.get();
     }
 
-    private boolean process(RowAddressBasket basket, int id, boolean includeAll, Consumer<RowAddress> consumer) {
-        final RowAddress rowAddress = basket.rowAddressMap.get(id);
-        if (rowAddress != null && (rowAddress.isSaved() || includeAll)) {
-            consumer.accept(objectConverter.clone(rowAddress));
+    private boolean process(PackedBasket basket, int id, boolean includeAll, Consumer<RowAddress> consumer) {
+        if (basket.contains(id) && (includeAll || basket.isSaved(id))) {
+            consumer.accept(basket.toRowAddress(getRowFileName(id), id));
             return true;
         }
         return false;
@@ -188,7 +243,24 @@ public class RowIdRepositoryImpl extends BaseDestroyable implements RowIdReposit
 
     @Override
     public String getRowFileName(int rowId) {
-        return filesRowPath + getRowFileNumber(rowId);
+        return rowFileNames.computeIfAbsent(getRowFileNumber(rowId), rowFileNumber -> filesRowPath + rowFileNumber);
+    }
+
+    @Override
+    public Set<Integer> getRowFileIds(String rowFileName) {
+        if (!rowFileName.startsWith(filesRowPath)) {
+            throw new IllegalArgumentException("not a row file : " + rowFileName);
+        }
+        final int rowFileNumber = Integer.parseInt(rowFileName.substring(filesRowPath.length()));
+        final long nextId = Math.min(getRowFileFirstId(rowFileNumber + 1), variables.lastId.get() + 1L);
+        return LongStream.range(getRowFileFirstId(rowFileNumber), nextId).mapToObj(id -> (int) id).collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    /**
+     * Первый id файла строк, обратное к getRowFileNumber
+     */
+    private long getRowFileFirstId(int rowFileNumber) {
+        return 1 + ((long) (rowFileNumber - 1) * maxIdSize + compressSize - 1) / compressSize;
     }
 
     private int getRowIdFileNumber(int id) {
@@ -203,18 +275,22 @@ public class RowIdRepositoryImpl extends BaseDestroyable implements RowIdReposit
         return filesIdPath + getRowIdFileNumber(id);
     }
 
-    private void processRowAddresses(Lock<Integer> lock, int id, boolean acceptNull, BiConsumer<Integer, RowAddresses> consumer) {
+    private void processRowAddresses(Lock<Integer> lock, int id, boolean acceptNull, BiConsumer<Integer, RowAddressTable> consumer) {
         final int rowIdFileNumber = getRowIdFileNumber(id);
         final int rowFileNumber = getRowFileNumber(id);
-        processRowAddresses(rowIdFileNumber, acceptNull, rowAddresses -> LockService.doInLock(lock, rowFileNumber, () -> consumer.accept(rowFileNumber, rowAddresses)));
+        processRowAddresses(rowIdFileNumber, acceptNull, table -> LockService.doInLock(lock, rowFileNumber, () -> consumer.accept(rowFileNumber, table)));
     }
 
-    private void processRowAddresses(int rowIdFileNumber, boolean acceptNull, Consumer<RowAddresses> consumer) {
+    private void processRowAddresses(int rowIdFileNumber, boolean acceptNull, Consumer<RowAddressTable> consumer) {
         try {
             LockService.doInLock(rowIdReadWriteLock.readLock(), rowIdFileNumber, () -> {
-                final RowAddresses rowAddresses = getRowAddresses(rowIdFileNumber);
-                if (acceptNull || rowAddresses != null) {
-                    consumer.accept(rowAddresses);
+                final RowAddressTable table = acquireTable(rowIdFileNumber);
+                try {
+                    if (acceptNull || table != null) {
+                        consumer.accept(table);
+                    }
+                } finally {
+                    cachedTables.release(table);
                 }
             });
         } catch (Exception e) {
@@ -223,57 +299,93 @@ public class RowIdRepositoryImpl extends BaseDestroyable implements RowIdReposit
         }
     }
 
-    private RowAddresses getRowAddresses(int rowIdFileNumber) {
-        RowAddresses rowAddresses = variables.cachedRowAddressesMap.get(rowIdFileNumber);
-        if (rowAddresses == null) {
+    /**
+     * Возвращает закрепленную в кэше таблицу, после работы ее нужно отпустить через release
+     */
+    private RowAddressTable acquireTable(int rowIdFileNumber) {
+        RowAddressTable table = cachedTables.acquire(rowIdFileNumber, true);
+        if (table == null) {
             rowIdLock.lock(rowIdFileNumber);
             try {
-                rowAddresses = variables.cachedRowAddressesMap.get(rowIdFileNumber);
-                if (rowAddresses == null) {
-                    rowAddresses = objectConverter.fromFile(RowAddresses.class, filesIdPath + rowIdFileNumber);
-                    if (rowAddresses != null) {
-                        variables.cachedRowAddressesMap.put(rowIdFileNumber, rowAddresses);
-                    }
+                table = cachedTables.acquire(rowIdFileNumber, false);
+                if (table == null) {
+                    table = readTable(filesIdPath + rowIdFileNumber);
+                    cachedTables.put(rowIdFileNumber, table, true);
                 }
             } finally {
                 rowIdLock.unlock(rowIdFileNumber);
             }
         }
-        return rowAddresses;
+        return table;
     }
 
-    private synchronized void saveAndClearMap() {
-        if (variables.cachedRowAddressesMap.isEmpty()) {
-            return;
+    /**
+     * Читает файл rowId, файлы старого формата с объектами RowAddress переводятся в упакованный вид
+     */
+    private RowAddressTable readTable(String fileName) {
+        final Serializable saved = objectConverter.fromFile(Serializable.class, fileName);
+        if (saved == null || saved instanceof RowAddressTable) {
+            return (RowAddressTable) saved;
         }
-        final Set<Map.Entry<Integer, RowAddresses>> entrySet = variables.cachedRowAddressesMap.entrySet();
-        for (Iterator<Map.Entry<Integer, RowAddresses>> iterator = entrySet.iterator(); iterator.hasNext(); ) {
-            final Map.Entry<Integer, RowAddresses> entry = iterator.next();
+        final RowAddressTable table = new RowAddressTable();
+        ((RowAddresses) saved).baskets.forEach((rowFileNumber, rowAddressBasket) -> {
+            final PackedBasket basket = getBasket(table, rowFileNumber);
+            rowAddressBasket.rowAddressMap.values().forEach(rowAddress ->
+                    basket.put(rowAddress.getId(), rowAddress.getPosition(), rowAddress.getSize(), rowAddress.isSaved()));
+        });
+        return table;
+    }
+
+    private synchronized void saveAndClearMap() {
+        for (Map.Entry<Integer, RowAddressTable> entry : cachedTables.entries()) {
             LockService.doInLock(rowIdReadWriteLock.writeLock(), entry.getKey(), () -> {
-                final RowAddresses rowAddresses = entry.getValue();
+                final RowAddressTable table = entry.getValue();
                 final String rowIdFileName = filesIdPath + entry.getKey();
-                if (rowAddresses.baskets.isEmpty()) {
+                if (table.baskets.isEmpty()) {
                     variables.idBatches.remove(entry.getKey());
-                    variables.cachedRowAddressesMap.remove(entry.getKey());
-                    if (!new File(rowIdFileName).delete()) {
+                    cachedTables.remove(entry.getKey());
+                    changed = true;
+                    final File file = new File(rowIdFileName);
+                    if (file.exists() && !file.delete()) {
                         throw new RuntimeException("cannot delete file " + rowIdFileName);
                     }
-                } else if (changed) {
-                    objectConverter.toFile(entry.getValue(), rowIdFileName);
-                }
-                if (entrySet.size() > 1 || rowAddresses.baskets.isEmpty()) {
-                    iterator.remove();
+                } else if (table.dirty) {
+                    objectConverter.toFile(table, rowIdFileName);
+                    table.dirty = false;
                 }
             });
         }
+        cachedTables.evict();
+    }
+
+    @Override
+    public CacheStatistics getCacheStatistics() {
+        return cachedTables.statistics();
     }
 
     @Override
     public void destroy() {
         saveAndClearMap();
         if (changed) {
-            objectConverter.toFile(variables, variablesFileName);
             changed = false;
+            objectConverter.toFile(variables, variablesFileName);
+        }
+    }
+
+    private void stream(int rowFileNumber, PackedBasket basket, Consumer<RowAddress> rowAddressConsumer, AtomicBoolean stopChecker) {
+        stream(rowFileNumber, basket, basket.firstId, Integer.MAX_VALUE, rowAddressConsumer, stopChecker);
+    }
+
+    private void stream(int rowFileNumber, PackedBasket basket, int fromId, int toId, Consumer<RowAddress> rowAddressConsumer, AtomicBoolean stopChecker) {
+        final String fileName = rowFileNames.computeIfAbsent(rowFileNumber, k -> filesRowPath + k);
+        final int lastId = Math.min(toId, basket.lastId());
+        for (int id = Math.max(fromId, basket.firstId); id <= lastId; id++) {
+            if (stopChecker != null && stopChecker.get()) {
+                return;
+            }
+            if (basket.contains(id) && basket.isSaved(id)) {
+                rowAddressConsumer.accept(basket.toRowAddress(fileName, id));
+            }
         }
     }
 
@@ -286,7 +398,6 @@ public class RowIdRepositoryImpl extends BaseDestroyable implements RowIdReposit
         private static final long serialVersionUID = 1228422981455428546L;
         private final AtomicInteger lastId;
         private final Set<Integer> idBatches;
-        private final Map<Integer, RowAddresses> cachedRowAddressesMap = new ConcurrentHashMap<>();
 
         public Variables(AtomicInteger lastId, Set<Integer> idBatches) {
             this.lastId = lastId;
@@ -294,6 +405,9 @@ public class RowIdRepositoryImpl extends BaseDestroyable implements RowIdReposit
         }
     }
 
+    /**
+     * Старый формат файла rowId, остается для чтения ранее сохраненных файлов
+     */
     public static class RowAddresses implements Serializable {
         private static final long serialVersionUID = 554239746175423526L;
         public final Map<Integer, RowAddressBasket> baskets = new ConcurrentHashMap<>();
@@ -313,6 +427,332 @@ public class RowIdRepositoryImpl extends BaseDestroyable implements RowIdReposit
         }
     }
 
+    /**
+     * Адреса строк одного файла rowId, сгруппированные по файлам строк.
+     * На диск пишутся только файлы, измененные с последнего сохранения
+     */
+    public static class RowAddressTable implements Serializable {
+        private static final long serialVersionUID = 3817265542104187362L;
+        private final Map<Integer, PackedBasket> baskets = new ConcurrentHashMap<>();
+        private transient volatile boolean dirty;
+        private transient int pins;
+    }
+
+    /**
+     * Адреса строк одного файла строк без объектов на строку: на каждый id два long,
+     * позиция и размер с флагами в старших битах. Имя файла вычисляется по id, предыдущая строка ищется только
+     * при добавлении новой строки, обычно это последняя строка корзины.
+     * Сдвиги позиций после изменения размера строки копятся в дереве Фенвика и прибавляются при чтении,
+     * поэтому изменение размера стоит O(log n)
+     */
+    public static class PackedBasket implements Serializable {
+        private static final long serialVersionUID = 2259812733456125390L;
+        private static final long SIZE_MASK = 0xFFFFFFFFL;
+        private static final long EXISTS = 1L << 32;
+        private static final long SAVED = 1L << 33;
+        private static final int MIN_LENGTH = 16;
+        private final int firstId;
+        private final int capacity;
+        private long[] addresses = new long[0];
+        private int count;
+        private transient long[] shifts = new long[1];
+        private transient int last = -1;
+
+        private PackedBasket(int firstId, int capacity) {
+            this.firstId = firstId;
+            this.capacity = capacity;
+        }
+
+        private int slot(int id) {
+            return (id - firstId) << 1;
+        }
+
+        private boolean contains(int id) {
+            final int slot = slot(id);
+            return slot >= 0 && slot < addresses.length && (addresses[slot + 1] & EXISTS) != 0;
+        }
+
+        private boolean isSaved(int id) {
+            return (addresses[slot(id) + 1] & SAVED) != 0;
+        }
+
+        private long getPosition(int id) {
+            return addresses[slot(id)] + offset(id - firstId);
+        }
+
+        private int getSize(int id) {
+            return (int) (addresses[slot(id) + 1] & SIZE_MASK);
+        }
+
+        private boolean isEmpty() {
+            return count == 0;
+        }
+
+        private void put(int id, long position, int size, boolean saved) {
+            final int slot = slot(id);
+            if (slot < 0 || id - firstId >= capacity) {
+                throw new IllegalArgumentException("id " + id + " is out of basket " + firstId);
+            }
+            if (slot >= addresses.length) {
+                normalize();
+                addresses = Arrays.copyOf(addresses, Math.min(Math.max(slot + 2, Math.max(addresses.length * 2, MIN_LENGTH)), capacity << 1));
+                shifts = new long[(addresses.length >> 1) + 1];
+            }
+            if ((addresses[slot + 1] & EXISTS) == 0) {
+                count++;
+            }
+            addresses[slot] = position - offset(id - firstId);
+            addresses[slot + 1] = (size & SIZE_MASK) | EXISTS | (saved ? SAVED : 0);
+            last = Math.max(last, id - firstId);
+        }
+
+        private void remove(int id) {
+            final int slot = slot(id);
+            addresses[slot] = 0;
+            addresses[slot + 1] = 0;
+            count--;
+            if (id - firstId == last) {
+                last = previousIndex(slot);
+            }
+        }
+
+        /**
+         * Номер ближайшей существующей строки до slot, -1 если таких нет
+         */
+        private int previousIndex(int slot) {
+            for (slot -= 2; slot >= 0; slot -= 2) {
+                if ((addresses[slot + 1] & EXISTS) != 0) {
+                    return slot >> 1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Сдвигает позиции всех следующих строк файла
+         */
+        private void shift(int id, long delta) {
+            if (delta == 0) {
+                return;
+            }
+            for (int i = id - firstId + 2; i < shifts.length; i += i & -i) {
+                shifts[i] += delta;
+            }
+        }
+
+        private long offset(int index) {
+            long offset = 0;
+            for (int i = Math.min(index + 1, shifts.length - 1); i > 0; i -= i & -i) {
+                offset += shifts[i];
+            }
+            return offset;
+        }
+
+        /**
+         * Переносит накопленные сдвиги в сами позиции
+         */
+        private void normalize() {
+            for (int slot = addresses.length - 2; slot >= 0; slot -= 2) {
+                if ((addresses[slot + 1] & EXISTS) != 0) {
+                    addresses[slot] += offset(slot >> 1);
+                }
+            }
+            Arrays.fill(shifts, 0);
+        }
+
+        private void writeObject(ObjectOutputStream outputStream) throws IOException {
+            normalize();
+            outputStream.defaultWriteObject();
+        }
+
+        private void readObject(ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
+            inputStream.defaultReadObject();
+            shifts = new long[(addresses.length >> 1) + 1];
+            last = previousIndex(addresses.length);
+        }
+
+        /**
+         * Новые строки обычно добавляются в конец корзины, тогда предыдущая строка - последняя и поиск не нужен
+         */
+        private int previous(int id) {
+            final int index = id - firstId > last ? last : previousIndex(slot(id));
+            return index == -1 ? -1 : firstId + index;
+        }
+
+        private int lastId() {
+            return firstId + last;
+        }
+
+        private RowAddress toRowAddress(String fileName, int id) {
+            final RowAddress rowAddress = new RowAddress(fileName, id, getPosition(id), getSize(id));
+            rowAddress.setSaved(isSaved(id));
+            return rowAddress;
+        }
+    }
+
+    /**
+     * LRU-кэш файлов rowId с лимитом по количеству. Таблицы, которые сейчас используются
+     * или еще не записаны на диск, не вытесняются: измененные записываются в saveAndClearMap и вытесняются после записи
+     */
+    private static class TableCache {
+        private final LinkedHashMap<Integer, RowAddressTable> tables = new LinkedHashMap<>(16, 0.75f, true);
+        private final int maxSize;
+        private long hits;
+        private long misses;
+        private long evictions;
+
+        private TableCache(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        private synchronized RowAddressTable acquire(int rowIdFileNumber, boolean count) {
+            final RowAddressTable table = tables.get(rowIdFileNumber);
+            if (table != null) {
+                table.pins++;
+                if (count) {
+                    hits++;
+                }
+            }
+            return table;
+        }
+
+        private synchronized void put(int rowIdFileNumber, RowAddressTable table, boolean acquire) {
+            if (acquire) {
+                misses++;
+            }
+            if (table == null) {
+                return;
+            }
+            if (acquire) {
+                table.pins++;
+            }
+            tables.put(rowIdFileNumber, table);
+            evict();
+        }
+
+        private synchronized void release(RowAddressTable table) {
+            if (table != null) {
+                table.pins--;
+            }
+        }
+
+        private synchronized void remove(int rowIdFileNumber) {
+            tables.remove(rowIdFileNumber);
+        }
+
+        private synchronized List<Map.Entry<Integer, RowAddressTable>> entries() {
+            return new ArrayList<>(tables.entrySet());
+        }
+
+        private synchronized void evict() {
+            for (Iterator<RowAddressTable> iterator = tables.values().iterator(); iterator.hasNext() && tables.size() > maxSize; ) {
+                final RowAddressTable table = iterator.next();
+                if (table.pins == 0 && !table.dirty) {
+                    iterator.remove();
+                    evictions++;
+                }
+            }
+        }
+
+        private synchronized CacheStatistics statistics() {
+            return new CacheStatistics(hits, misses, evictions, tables.size(), maxSize);
+        }
+    }
+
+    /**
+     * Полный обход, разбитый на куски по CHUNK_SIZE id одного файла строк. Границы кусков известны заранее,
+     * поэтому куски одного файла читаются в пуле параллельно, каждый под своими блокировками. Одновременно
+     * выполняется не больше двух кусков на поток пула. Результаты отдаются в порядке id в вызывающем потоке,
+     * поэтому остановленный после нескольких строк обход не читает файлы целиком
+     */
+    private class PartitionedStream<T> extends BaseStoppableStream<T> {
+        private final Function<RowAddress, T> mapper;
+
+        private PartitionedStream(Function<RowAddress, T> mapper) {
+            this.mapper = mapper;
+        }
+
+        @Override
+        public void forEach(Consumer<T> consumer) {
+            final List<int[]> chunks = chunks();
+            final Deque<ForkJoinTask<List<T>>> tasks = new ArrayDeque<>();
+            final int maxTasks = forkJoinPool == null ? 1 : forkJoinPool.getParallelism() * 2;
+            int next = 0;
+            try {
+                while (!stopChecker.get() && (next < chunks.size() || !tasks.isEmpty())) {
+                    while (next < chunks.size() && tasks.size() < maxTasks) {
+                        if (stopChecker.get()) {
+                            return;
+                        }
+                        final int[] chunk = chunks.get(next++);
+                        final ForkJoinTask<List<T>> task = ForkJoinTask.adapt(() -> read(chunk[0], chunk[1], chunk[2], chunk[3]));
+                        tasks.add(forkJoinPool == null ? task : forkJoinPool.submit(task));
+                    }
+                    final ForkJoinTask<List<T>> task = tasks.poll();
+                    if (forkJoinPool == null) {
+                        task.invoke();
+                    }
+                    for (T value : task.join()) {
+                        if (stopChecker.get()) {
+                            return;
+                        }
+                        consumer.accept(value);
+                    }
+                }
+            } finally {
+                if (!tasks.isEmpty()) {
+                    stopChecker.set(true);
+                    tasks.forEach(task -> task.cancel(false));
+                }
+            }
+            if (!stopChecker.get() && !chunks.isEmpty()) {
+                onStreamEnd.forEach(Runnable::run);
+            }
+        }
+
+        /**
+         * Последний кусок файла открыт справа, чтобы в него попали строки, добавленные после разбиения
+         */
+        private List<int[]> chunks() {
+            final List<int[]> chunks = new ArrayList<>();
+            for (int rowIdFileNumber : sortedSet(variables.idBatches)) {
+                if (stopChecker.get()) {
+                    break;
+                }
+                processRowAddresses(rowIdFileNumber, false, table -> table.baskets.entrySet().stream()
+                        .sorted(Map.Entry.comparingByKey())
+                        .forEach(entry -> {
+                            final int lastId = entry.getValue().lastId();
+                            for (int fromId = entry.getValue().firstId; ; fromId += CHUNK_SIZE) {
+                                final boolean last = lastId - fromId < CHUNK_SIZE;
+                                chunks.add(new int[]{rowIdFileNumber, entry.getKey(), fromId, last ? Integer.MAX_VALUE : fromId + CHUNK_SIZE - 1});
+                                if (last) {
+                                    break;
+                                }
+                            }
+                        }));
+            }
+            return chunks;
+        }
+
+        private List<T> read(int rowIdFileNumber, int rowFileNumber, int fromId, int toId) {
+            final List<T> values = new ArrayList<>();
+            processRowAddresses(rowIdFileNumber, false, table -> LockService.doInLock(rowReadWriteLock.readLock(), rowFileNumber, () -> {
+                final PackedBasket basket = table.baskets.get(rowFileNumber);
+                if (basket == null) {
+                    return;
+                }
+                stream(rowFileNumber, basket, fromId, toId, rowAddress -> {
+                    final T value = mapper.apply(rowAddress);
+                    if (value != null) {
+                        values.add(value);
+                    }
+                }, stopChecker);
+            }));
+            return values;
+        }
+    }
+
     private class BatchStream extends BaseStoppableBatchStream<RowAddress> {
         private final boolean full;
         private final Set<Integer> idSet;
@@ -333,7 +773,7 @@ public class RowIdRepositoryImpl extends BaseDestroyable implements RowIdReposit
         @Override
         public void forEach(Consumer<RowAddress> consumer) {
             if (full) {
-                forEach(variables.idBatches, (rowIdFileNumber, map) -> map, (rowIdFileNumber, rowFileNumber, basket) -> stream(basket, consumer, stopChecker));
+                forEach(variables.idBatches, (rowIdFileNumber, map) -> map, (rowIdFileNumber, rowFileNumber, basket) -> stream(rowFileNumber, basket, consumer, stopChecker));
             } else {
                 if (idSet == null) {
                     return;
@@ -344,9 +784,9 @@ public class RowIdRepositoryImpl extends BaseDestroyable implements RowIdReposit
                     if (basketIdes == null) {
                         return Collections.emptyMap();
                     }
-                    final Map<Integer, RowAddressBasket> result = new HashMap<>();
+                    final Map<Integer, PackedBasket> result = new HashMap<>();
                     basketIdes.keySet().forEach(key -> {
-                        final RowAddressBasket basket = map.get(key);
+                        final PackedBasket basket = map.get(key);
                         if (basket == null) {
                             return;
                         }
@@ -363,7 +803,7 @@ public class RowIdRepositoryImpl extends BaseDestroyable implements RowIdReposit
             return map;
         }
 
-        private void forEach(Set<Integer> batches, BiFunction<Integer, Map<Integer, RowAddressBasket>, Map<Integer, RowAddressBasket>> mapFunction, TripleConsumer<Integer, Integer, RowAddressBasket> consumer) {
+        private void forEach(Set<Integer> batches, BiFunction<Integer, Map<Integer, PackedBasket>, Map<Integer, PackedBasket>> mapFunction, TripleConsumer<Integer, Integer, PackedBasket> consumer) {
             if (batches == null) {
                 return;
             }
@@ -379,25 +819,29 @@ public class RowIdRepositoryImpl extends BaseDestroyable implements RowIdReposit
                         rowIdFileNumber[0] = actual;
                         rowIdChainedLock.init(rowIdFileNumber[0]);
                     });
-                    final RowAddresses rowAddresses = getRowAddresses(rowIdFileNumber[0]);
-                    if (rowAddresses == null) {
+                    final RowAddressTable table = acquireTable(rowIdFileNumber[0]);
+                    if (table == null) {
                         continue;
                     }
-                    for (Map.Entry<Integer, RowAddressBasket> entry : mapFunction.apply(value, rowAddresses.baskets).entrySet().stream().sorted(Comparator.comparing(Map.Entry::getKey)).collect(Collectors.toList())) {
-                        if (stopChecker.get()) {
-                            return;
-                        }
-                        Utils.compareAndRun(entry.getKey(), rowFileNumber[0], actual -> {
-                            if (rowFileNumber[0] != null) {
-                                onBatchEnd.forEach(Runnable::run);
+                    try {
+                        for (Map.Entry<Integer, PackedBasket> entry : mapFunction.apply(value, table.baskets).entrySet().stream().sorted(Comparator.comparing(Map.Entry::getKey)).collect(Collectors.toList())) {
+                            if (stopChecker.get()) {
+                                return;
                             }
-                            rowFileNumber[0] = actual;
-                            rowChainedLock.init(rowFileNumber[0]);
-                        });
-                        consumer.accept(value, entry.getKey(), entry.getValue());
-                    }
-                    if (rowFileNumber[0] != null) {
-                        onBatchEnd.forEach(Runnable::run);
+                            Utils.compareAndRun(entry.getKey(), rowFileNumber[0], actual -> {
+                                if (rowFileNumber[0] != null) {
+                                    onBatchEnd.forEach(Runnable::run);
+                                }
+                                rowFileNumber[0] = actual;
+                                rowChainedLock.init(rowFileNumber[0]);
+                            });
+                            consumer.accept(value, entry.getKey(), entry.getValue());
+                        }
+                        if (rowFileNumber[0] != null) {
+                            onBatchEnd.forEach(Runnable::run);
+                        }
+                    } finally {
+                        cachedTables.release(table);
                     }
                 }
                 if (rowFileNumber[0] != null) {
@@ -405,21 +849,9 @@ public class RowIdRepositoryImpl extends BaseDestroyable implements RowIdReposit
                 }
             }
         }
-
-        private void stream(RowAddressBasket basket, Consumer<RowAddress> rowAddressConsumer, AtomicBoolean stopChecker) {
-            for (Map.Entry<Integer, RowAddress> entry : basket.rowAddressMap.entrySet().stream().sorted(Comparator.comparing(Map.Entry::getKey))
-                    .collect(Collectors.toCollection(LinkedHashSet::new))) {
-                if (stopChecker != null && stopChecker.get()) {
-                    return;
-                }
-                if (entry.getValue().isSaved()) {
-                    rowAddressConsumer.accept(objectConverter.clone(entry.getValue()));
-                }
-            }
-        }
     }
 
     interface TripleConsumer<T, U, V> {
         void accept(T t, U u, V v);
     }
-}
\ No newline at end of file
+}
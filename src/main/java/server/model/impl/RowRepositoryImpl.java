@@ -5,14 +5,19 @@ import org.slf4j.LoggerFactory;
 import server.model.*;
 import server.model.lock.LockService;
 import server.model.lock.ReadWriteLock;
+import server.model.pojo.BackpressureStatistics;
+import server.model.pojo.CacheStatistics;
 import server.model.pojo.ICondition;
 import server.model.pojo.Row;
 import server.model.pojo.RowAddress;
 import server.model.pojo.TableType;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -22,22 +27,66 @@ import java.util.stream.Collectors;
 
 public class RowRepositoryImpl extends BaseDestroyable implements RowRepository {
     private static final Logger log = LoggerFactory.getLogger(RowRepositoryImpl.class);
+    protected static final long DEFAULT_ROW_CACHE_SIZE = 64L * 1024 * 1024;
     protected final RowIdRepository rowIdRepository;
     private final ReadWriteLock<String> rowReadWriteLock = LockService.getFileReadWriteLock();
-    private final FileHelper fileHelper;
+    protected final FileHelper fileHelper;
+    protected final RowConverter rowConverter;
     private final IndexService indexService;
     private final ConditionService conditionService;
     private final ModelService modelService;
     private final Buffer<Row> buffer;
+    private final RowCache rowCache;
+    private final int rowCacheTable;
+    private final WriteAheadLog writeAheadLog;
+    private final ExecutorService flushExecutor;
     private final Set<String> fields = Collections.synchronizedSet(new HashSet<>());
 
     public RowRepositoryImpl(String filePath, boolean init, ObjectConverter objectConverter, DestroyService destroyService, RowIdRepository rowIdRepository, FileHelper fileHelper, IndexService indexService, ConditionService conditionService, ModelService modelService, int bufferSize) {
+        this(filePath, init, objectConverter, destroyService, rowIdRepository, fileHelper, indexService, conditionService, modelService, bufferSize,
+                null, new RowConverterImpl(modelService, objectConverter));
+    }
+
+    public RowRepositoryImpl(String filePath, boolean init, ObjectConverter objectConverter, DestroyService destroyService, RowIdRepository rowIdRepository, FileHelper fileHelper, IndexService indexService, ConditionService conditionService, ModelService modelService, int bufferSize, WriteAheadLog writeAheadLog, RowConverter rowConverter) {
+        this(filePath, init, objectConverter, destroyService, rowIdRepository, fileHelper, indexService, conditionService, modelService, bufferSize,
+                writeAheadLog, rowConverter, new RowCacheImpl(DEFAULT_ROW_CACHE_SIZE));
+    }
+
+    public RowRepositoryImpl(String filePath, boolean init, ObjectConverter objectConverter, DestroyService destroyService, RowIdRepository rowIdRepository, FileHelper fileHelper, IndexService indexService, ConditionService conditionService, ModelService modelService, int bufferSize, WriteAheadLog writeAheadLog, RowConverter rowConverter, RowCache rowCache) {
+        this(filePath, init, objectConverter, destroyService, rowIdRepository, fileHelper, indexService, conditionService, modelService, bufferSize,
+                writeAheadLog, rowConverter, rowCache, Long.MAX_VALUE, Long.MAX_VALUE, -1);
+    }
+
+    /**
+     * @param rowCache            общий для всех таблиц кэш прочитанных строк
+     * @param bufferHighWatermark объем несброшенных строк в байтах, после которого писатели ждут сброса
+     * @param bufferLowWatermark  объем, до которого сброс должен опустить буфер, чтобы писатели продолжили
+     * @param bufferTimeout       время ожидания писателя в миллисекундах, после которого запись отклоняется
+     */
+    public RowRepositoryImpl(String filePath, boolean init, ObjectConverter objectConverter, DestroyService destroyService, RowIdRepository rowIdRepository, FileHelper fileHelper, IndexService indexService, ConditionService conditionService, ModelService modelService, int bufferSize, WriteAheadLog writeAheadLog, RowConverter rowConverter, RowCache rowCache,
+                             long bufferHighWatermark, long bufferLowWatermark, long bufferTimeout) {
+        this(filePath, init, objectConverter, destroyService, rowIdRepository, fileHelper, indexService, conditionService, modelService, bufferSize,
+                writeAheadLog, rowConverter, rowCache, bufferHighWatermark, bufferLowWatermark, bufferTimeout, null);
+    }
+
+    /**
+     * @param flushExecutor общий для всех таблиц пул, которым сброс переписывает файлы строк одновременно,
+     *                      null - файлы переписываются по очереди
+     */
+    public RowRepositoryImpl(String filePath, boolean init, ObjectConverter objectConverter, DestroyService destroyService, RowIdRepository rowIdRepository, FileHelper fileHelper, IndexService indexService, ConditionService conditionService, ModelService modelService, int bufferSize, WriteAheadLog writeAheadLog, RowConverter rowConverter, RowCache rowCache,
+                             long bufferHighWatermark, long bufferLowWatermark, long bufferTimeout, ExecutorService flushExecutor) {
         super(filePath, init, objectConverter, destroyService);
+        this.flushExecutor = flushExecutor;
         this.rowIdRepository = rowIdRepository;
+        this.writeAheadLog = writeAheadLog;
+        this.rowConverter = rowConverter;
         this.fileHelper = fileHelper;
         this.indexService = indexService;
         this.conditionService = conditionService;
-        this.buffer = new BufferImpl<>(bufferSize, destroyService::wakeUp, bufferConsumer());
+        this.rowCache = rowCache;
+        this.rowCacheTable = rowCache.register();
+        this.buffer = new BufferImpl<>(bufferSize, () -> destroyService.wakeUp(this), flushConsumer(), RowRepositoryImpl::weight,
+                bufferHighWatermark, bufferLowWatermark, bufferTimeout);
         this.modelService = modelService;
         this.fields.addAll(modelService.getFields().stream().map(ModelService.FieldInfo::getName).collect(Collectors.toSet()));
         modelService.subscribeOnFieldsChanges(fields -> {
@@ -48,21 +97,89 @@ public class RowRepositoryImpl extends BaseDestroyable implements RowRepository
             }
         });
         indexService.subscribeOnNewIndexes(this::processIndexesChanges);
+        if (writeAheadLog != null) {
+            writeAheadLog.replay(this::replay);
+        }
+    }
+
+    /**
+     * Приблизительный размер строки в памяти
+     */
+    private static long weight(Row row) {
+        long weight = 64;
+        if (row.getFields() == null) {
+            return weight;
+        }
+        for (Map.Entry<String, Comparable> entry : row.getFields().entrySet()) {
+            weight += 80 + 2L * entry.getKey().length();
+            if (entry.getValue() instanceof String) {
+                weight += 2L * ((String) entry.getValue()).length();
+            }
+        }
+        return weight;
     }
 
     @Override
     public void add(Row row) {
-        boolean added = false;
+        buffer.awaitCapacity();
+        write(row);
+    }
+
+    /**
+     * Запись без ожидания места в буфере: внутренние перезаписи идут под блокировками обхода файлов,
+     * а сброс, которого ждал бы писатель, берет блокировку файла на запись
+     */
+    private void write(Row row) {
         if (row.getId() == 0) {
             rowIdRepository.add(rowIdRepository.newId(), rowAddress -> row.setId(rowAddress.getId()));
-            added = true;
+            log(Buffer.State.ADDED, row, () -> insert(row));
+        } else {
+            log(Buffer.State.UPDATED, row, () -> update(row));
         }
-        if (added) {
-            indexService.insert(row);
+    }
+
+    private void insert(Row row) {
+        indexService.insert(row);
+        buffer.add(row.freeze(), Buffer.State.ADDED);
+    }
+
+    private void update(Row row) {
+        process(row.getId(), oldRow -> indexService.transform(oldRow, row));
+        buffer.add(row.freeze(), Buffer.State.UPDATED);
+    }
+
+    private void remove(Row row) {
+        buffer.add(row.freeze(), Buffer.State.DELETED);
+        indexService.delete(row);
+    }
+
+    private void log(Buffer.State state, Row row, Runnable applier) {
+        if (writeAheadLog == null) {
+            applier.run();
         } else {
-            process(row.getId(), oldRow -> indexService.transform(oldRow, row));
+            writeAheadLog.append(state, row, applier);
+        }
+    }
+
+    /**
+     * Повторно применяет запись журнала. Записи, уже попавшие в файлы строк, применяются как обновления
+     */
+    private void replay(Buffer.State state, Row row) {
+        switch (state) {
+            case ADDED:
+                if (!rowIdRepository.process(row.getId(), rowAddress -> {
+                })) {
+                    rowIdRepository.restore(row.getId());
+                    insert(row);
+                    break;
+                }
+            case UPDATED:
+                update(row);
+                break;
+            case DELETED:
+                process(row.getId(), this::remove);
+                break;
         }
-        buffer.add(row, added ? Buffer.State.ADDED : Buffer.State.UPDATED);
     }
 
     @Override
@@ -84,15 +201,15 @@ public class RowRepositoryImpl extends BaseDestroyable implements RowRepository
         final Set<Integer> idSet = searchResult.found ?
                 searchResult.idSet.stream().sorted(Integer::compareTo).collect(Collectors.toCollection(LinkedHashSet::new)) : null;
         return new BaseStoppableStream<Row>() {
-            private StoppableBatchStream<RowAddress> rowAddressStream;
+            private StoppableStream<?> rowAddressStream;
             private StoppableStream<Buffer.Element<Row>> bufferStream;
 
             @Override
             public void forEach(Consumer<Row> consumer) {
                 final Set<Integer> processedIdSet = new HashSet<>();
                 final AtomicInteger skipped = new AtomicInteger();
-                final Consumer<Row> rowConsumer = row -> {
-                    if (!processedIdSet.contains(row.getId()) && conditionService.check(row, iCondition)) {
+                final Consumer<Row> matchedRowConsumer = row -> {
+                    if (!processedIdSet.contains(row.getId())) {
                         if (skipped.get() == from) {
                             consumer.accept(row);
                             processedIdSet.add(row.getId());
@@ -101,6 +218,12 @@ public class RowRepositoryImpl extends BaseDestroyable implements RowRepository
                         }
                     }
                 };
+                final Consumer<Row> rowConsumer = row -> {
+                    if (conditionService.check(row, iCondition)) {
+                        matchedRowConsumer.accept(row);
+                    }
+                };
+                final NavigableMap<Integer, Row> bufferedRows = new TreeMap<>();
                 if (searchResult.found) {
                     for (Iterator<Integer> iterator = idSet.iterator(); iterator.hasNext(); ) {
                         if (stopChecker.get()) {
@@ -110,41 +233,62 @@ public class RowRepositoryImpl extends BaseDestroyable implements RowRepository
                         final Buffer.Element<Row> rowElement = buffer.get(id);
                         if (rowElement != null) {
                             if (!Buffer.State.DELETED.equals(rowElement.getState())) {
-                                rowConsumer.accept(objectConverter.clone(rowElement.getValue()));
+                                bufferedRows.put(id, rowElement.getValue());
                             }
                             iterator.remove();
                         }
                     }
                 }
                 if (searchResult.found && idSet.isEmpty()) {
+                    acceptBuffered(bufferedRows, Integer.MAX_VALUE, rowConsumer);
                     return;
                 }
-                rowAddressStream = searchResult.found ?
-                        rowIdRepository.batchStream(idSet, RowIdRepository.ProcessType.Read) : rowIdRepository.batchStream();
-                try (final FileHelper.ChainStream<InputStream> chainInputStream = fileHelper.getChainInputStream()) {
-                    rowAddressStream.addOnBatchEnd(() -> {
-                        try {
-                            chainInputStream.close();
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
+                final List<Row> addedRows = new ArrayList<>();
+                if (!searchResult.found) {
+                    bufferStream = buffer.stream();
+                    bufferStream.forEach(rowElement -> {
+                        if (Buffer.State.ADDED == rowElement.getState()) {
+                            addedRows.add(rowElement.getValue());
                         }
                     });
-                    rowAddressStream.forEach(processRow(chainInputStream, rowConsumer));
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+                }
+                if (searchResult.found) {
+                    final StoppableBatchStream<RowAddress> stream = rowIdRepository.batchStream(idSet, RowIdRepository.ProcessType.Read);
+                    rowAddressStream = stream;
+                    stream.forEach(processRow(row -> {
+                        acceptBuffered(bufferedRows, row.getId(), rowConsumer);
+                        rowConsumer.accept(row);
+                    }));
+                } else {
+                    final StoppableStream<Row> stream = rowIdRepository.batchStream(rowAddress -> {
+                        final Row row = readRow(rowAddress);
+                        return row != null && conditionService.check(row, iCondition) ? row : null;
+                    });
+                    rowAddressStream = stream;
+                    stream.forEach(matchedRowConsumer);
                 }
                 if (stopChecker.get()) {
                     return;
                 }
                 if (searchResult.found) {
+                    acceptBuffered(bufferedRows, Integer.MAX_VALUE, rowConsumer);
                     return;
                 }
-                bufferStream = buffer.stream();
-                bufferStream.forEach(rowElement -> {
-                    if (Buffer.State.ADDED == rowElement.getState()) {
-                        rowConsumer.accept(rowElement.getValue());
+                for (Row row : addedRows) {
+                    if (stopChecker.get()) {
+                        return;
                     }
-                });
+                    rowConsumer.accept(row);
+                }
+            }
+
+            /**
+             * Строки из буфера отдаются вперемешку со строками из файла, чтобы сохранить порядок по id
+             */
+            private void acceptBuffered(NavigableMap<Integer, Row> bufferedRows, int id, Consumer<Row> rowConsumer) {
+                while (!bufferedRows.isEmpty() && bufferedRows.firstKey() < id && !stopChecker.get()) {
+                    rowConsumer.accept(bufferedRows.pollFirstEntry().getValue());
+                }
             }
 
             @Override
@@ -162,20 +306,27 @@ public class RowRepositoryImpl extends BaseDestroyable implements RowRepository
 
     @Override
     public void delete(int id) {
-        process(id, row -> {
-            buffer.add(row, Buffer.State.DELETED);
-            indexService.delete(row);
-        });
+        buffer.awaitCapacity();
+        final AtomicReference<Row> deleted = new AtomicReference<>();
+        if (process(id, deleted::set)) {
+            log(Buffer.State.DELETED, deleted.get(), () -> remove(deleted.get()));
+        }
     }
 
     @Override
     public boolean process(int id, Consumer<Row> consumer) {
+        final long stamp = rowCache.stamp(rowCacheTable);
         final Buffer.Element<Row> element = buffer.get(id);
         if (element != null) {
             if (Buffer.State.DELETED.equals(element.getState())) {
                 return false;
             }
-            consumer.accept(objectConverter.clone(element.getValue()));
+            consumer.accept(element.getValue());
+            return true;
+        }
+        final Row cached = rowCache.get(rowCacheTable, id);
+        if (cached != null) {
+            consumer.accept(cached);
             return true;
         }
         return processRowAddress(id, rowAddress -> {
@@ -184,12 +335,22 @@ public class RowRepositoryImpl extends BaseDestroyable implements RowRepository
                 buffer.add(new Row(id, null), Buffer.State.DELETED);
                 return;
             }
-            final Row row = objectConverter.fromBytes(Row.class, bytes);
-            buffer.add(row, Buffer.State.READ);
+            final Row row = rowConverter.fromBytes(bytes).freeze();
+            rowCache.put(rowCacheTable, row, weight(row), stamp);
             consumer.accept(row);
         });
     }
 
+    @Override
+    public CacheStatistics getCacheStatistics() {
+        return rowCache.getStatistics();
+    }
+
+    @Override
+    public BackpressureStatistics getBackpressureStatistics() {
+        return buffer.getBackpressureStatistics();
+    }
+
     private boolean processRowAddress(int id, Consumer<RowAddress> consumer) {
         return rowIdRepository.process(id, rowAddress -> LockService.doInLock(rowReadWriteLock.readLock(), rowIdRepository.getRowFileName(id), () -> consumer.accept(rowAddress)));
     }
@@ -218,102 +379,145 @@ public class RowRepositoryImpl extends BaseDestroyable implements RowRepository
         return rows;
     }
 
-    private Consumer<RowAddress> processRow(FileHelper.ChainStream<InputStream> chainInputStream, Consumer<Row> rowConsumer) {
-        final AtomicReference<String> fileName = new AtomicReference<>();
-        final AtomicLong lastPosition = new AtomicLong(0);
+    private Consumer<RowAddress> processRow(Consumer<Row> rowConsumer) {
         return rowAddress -> {
-            try {
-                final Buffer.Element<Row> rowElement = buffer.get(rowAddress.getId());
-                if (rowElement != null) {
-                    if (!Buffer.State.DELETED.equals(rowElement.getState())) {
-                        rowConsumer.accept(objectConverter.clone(rowElement.getValue()));
-                    }
-                    return;
-                }
-                Utils.compareAndRun(rowAddress.getFilePath(), fileName.get(), actual -> {
-                    lastPosition.set(0);
-                    fileName.set(actual);
-                    chainInputStream.init(fileName.get());
-                });
-                fileHelper.skip(chainInputStream.getStream(), rowAddress.getPosition() - lastPosition.get());
-                lastPosition.set(rowAddress.getPosition() + rowAddress.getSize());
-                final byte[] bytes = new byte[rowAddress.getSize()];
-                final int actual = chainInputStream.getStream().read(bytes);
-                if (actual != bytes.length) {
-                    throw new RuntimeException("actual bytes size " + actual + " is not equal " + bytes.length);
-                }
-                final Row row = objectConverter.fromBytes(Row.class, bytes);
-                buffer.add(row, Buffer.State.READ);
+            final Row row = readRow(rowAddress);
+            if (row != null) {
                 rowConsumer.accept(row);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
             }
         };
     }
 
+    /**
+     * @return строка из буфера, кэша или файла, null - если строка удалена
+     */
+    private Row readRow(RowAddress rowAddress) {
+        final long stamp = rowCache.stamp(rowCacheTable);
+        final Buffer.Element<Row> rowElement = buffer.get(rowAddress.getId());
+        if (rowElement != null) {
+            return Buffer.State.DELETED.equals(rowElement.getState()) ? null : rowElement.getValue();
+        }
+        final Row cached = rowCache.get(rowCacheTable, rowAddress.getId());
+        if (cached != null) {
+            return cached;
+        }
+        final byte[] bytes = fileHelper.read(rowAddress);
+        if (bytes == null) {
+            return null;
+        }
+        final Row row = rowConverter.fromBytes(bytes).freeze();
+        rowCache.put(rowCacheTable, row, weight(row), stamp);
+        return row;
+    }
+
+    /**
+     * Строки в файлах проверяются по байтам: конвертер уже не знает имен удаленных полей и пропускает их при чтении,
+     * поэтому строка с их значениями переписывается, даже если прочитанная строка их не содержит.
+     * Строки буфера и старого формата хранят имена полей и проверяются по именам
+     */
     private void processDeletedFields(Set<String> deletedFields) {
         if (deletedFields.isEmpty()) {
             return;
         }
         final AtomicLong counter = new AtomicLong();
         log.info("processing deleted fields to rows");
-        try (final FileHelper.ChainStream<InputStream> chainInputStream = fileHelper.getChainInputStream()) {
-            final Consumer<RowAddress> rowAddressConsumer = processRow(chainInputStream, row -> {
-                final boolean[] deleted = {false};
-                deletedFields.forEach(field -> {
-                    if (!deleted[0] && row.getFields().containsKey(field)) {
-                        deleted[0] = true;
-                    }
+        rowIdRepository.batchStream().forEach(rowAddress -> {
+            final Buffer.Element<Row> rowElement = buffer.get(rowAddress.getId());
+            final Row frozenRow;
+            boolean deleted = false;
+            if (rowElement != null) {
+                if (Buffer.State.DELETED.equals(rowElement.getState())) {
+                    return;
+                }
+                frozenRow = rowElement.getValue();
+            } else {
+                final byte[] bytes = fileHelper.read(rowAddress);
+                if (bytes == null) {
+                    return;
+                }
+                deleted = rowConverter.hasDeletedFields(bytes);
+                frozenRow = rowConverter.fromBytes(bytes);
+            }
+            final Row row = new Row(frozenRow);
+            for (String field : deletedFields) {
+                if (row.getFields().containsKey(field)) {
                     row.getFields().remove(field);
-                });
-                if (deleted[0]) {
-                    add(row);
+                    deleted = true;
                 }
-                if (deleted[0] && counter.incrementAndGet() % 1000 == 0) {
+            }
+            if (deleted) {
+                write(row);
+                if (counter.incrementAndGet() % 1000 == 0) {
                     log.info("processed deleted fields " + counter.get() + " rows");
                 }
-            });
-            final StoppableBatchStream<RowAddress> stream = rowIdRepository.batchStream();
-            stream.addOnBatchEnd(() -> {
-                try {
-                    chainInputStream.close();
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            });
-            stream.forEach(rowAddressConsumer);
-            log.info("processing deleted fields to rows done, count " + counter.get());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+            }
+        });
+        log.info("processing deleted fields to rows done, count " + counter.get());
     }
 
     private void processIndexesChanges(Set<String> indexes) {
         final AtomicLong counter = new AtomicLong();
         log.info("processing inserted indexes to rows");
-        try (final FileHelper.ChainStream<InputStream> chainInputStream = fileHelper.getChainInputStream()) {
-            final Consumer<RowAddress> rowAddressConsumer = processRow(chainInputStream, row -> {
-                indexService.insert(row, indexes);
+        final IndexService.IndexBuilder indexBuilder = indexService.builder(indexes);
+        try {
+            rowIdRepository.batchStream().forEach(processRow(row -> {
+                indexBuilder.add(row);
                 if (counter.incrementAndGet() % 1000 == 0) {
                     log.info("processed inserted indexes " + counter.get() + " rows");
                 }
-            });
-            final StoppableBatchStream<RowAddress> stream = rowIdRepository.batchStream();
-            stream.addOnBatchEnd(() -> {
-                try {
-                    chainInputStream.close();
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+            }));
+            indexBuilder.build();
+        } finally {
+            indexBuilder.clear();
+        }
+        log.info("processing inserted indexes to rows done, count " + counter.get());
+    }
+
+    /**
+     * После записи в файлы закэшированные версии строк устаревают, в том числе если часть файлов записать не удалось
+     */
+    private Consumer<List<Buffer.Element<Row>>> flushConsumer() {
+        final Consumer<List<Buffer.Element<Row>>> bufferConsumer = bufferConsumer();
+        return list -> {
+            try {
+                flush(list, bufferConsumer);
+            } finally {
+                list.forEach(element -> rowCache.invalidate(rowCacheTable, element.getValue().getId()));
+            }
+        };
+    }
+
+    /**
+     * Файлы строк независимы, поэтому каждый переписывается отдельно со своим временным файлом и обновлением адресов,
+     * при общем пуле - одновременно. Строки записанного файла помечаются сброшенными, поэтому при ошибке буфер
+     * возвращает только строки файлов, которые записать не удалось. Сброс ждет все файлы и пробрасывает первую ошибку
+     */
+    private void flush(List<Buffer.Element<Row>> list, Consumer<List<Buffer.Element<Row>>> bufferConsumer) {
+        final Map<String, List<Buffer.Element<Row>>> rowFiles = list.stream()
+                .collect(Collectors.groupingBy(element -> rowIdRepository.getRowFileName(element.getValue().getId()), LinkedHashMap::new, Collectors.toList()));
+        final Executor executor = flushExecutor == null || flushExecutor.isShutdown() || rowFiles.size() < 2 ? Runnable::run : flushExecutor;
+        final List<CompletableFuture<Void>> futures = rowFiles.values().stream()
+                .map(rowFileList -> CompletableFuture.runAsync(() -> {
+                    bufferConsumer.accept(rowFileList);
+                    rowFileList.forEach(element -> element.setFlushed(true));
+                }, executor))
+                .collect(Collectors.toList());
+        RuntimeException exception = null;
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                if (exception == null) {
+                    exception = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
                 }
-            });
-            stream.forEach(rowAddressConsumer);
-            log.info("processing inserted indexes to rows done, count " + counter.get());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            }
+        }
+        if (exception != null) {
+            throw exception;
         }
     }
 
-    private Consumer<List<Buffer.Element<Row>>> bufferConsumer() {
+    protected Consumer<List<Buffer.Element<Row>>> bufferConsumer() {
         return list -> {
             if (list.isEmpty()) {
                 return;
@@ -328,7 +532,7 @@ public class RowRepositoryImpl extends BaseDestroyable implements RowRepository
             fileHelper.collect(stream, collectBean -> {
                 final Buffer.Element<Row> element = map.get(collectBean.rowAddress.getId());
                 final Row row = element.getValue();
-                final byte[] rowBytes = objectConverter.toBytes(row);
+                final byte[] rowBytes = rowConverter.toBytes(row);
                 switch (element.getState()) {
                     case ADDED:
                         try {
@@ -358,12 +562,30 @@ public class RowRepositoryImpl extends BaseDestroyable implements RowRepository
 
     @Override
     public void destroy() {
-        buffer.flush();
+        if (writeAheadLog == null) {
+            buffer.flush();
+        } else {
+            writeAheadLog.checkpoint(() -> {
+                buffer.flush();
+                rowIdRepository.destroy();
+                indexService.destroy();
+            });
+        }
+    }
+
+    @Override
+    public long getDirtyBytes() {
+        return buffer.bytes();
     }
 
     @Override
     public void stop() {
         super.stop();
+        rowCache.invalidate(rowCacheTable);
+        fileHelper.release(filePath);
+        if (writeAheadLog != null) {
+            writeAheadLog.stop();
+        }
         rowIdRepository.stop();
         indexService.stop();
         modelService.stop();
@@ -16,39 +16,56 @@ public class TableManagerImpl extends BaseDestroyable implements TableManager {
     private static final Logger log = LoggerFactory.getLogger(TableManagerImpl.class);
     private static final String FILE_NAME = "tables";
 
+    private final Set<String> tables = ConcurrentHashMap.newKeySet();
     private final Map<String, ServiceHolder> map = new ConcurrentHashMap<>();
     private final TableServiceFactory tableServiceFactory;
     private final String tablesFileName;
     private volatile boolean changed;
 
     public TableManagerImpl(String filePath, boolean init, ObjectConverter objectConverter, DestroyService destroyService, TableServiceFactory tableServiceFactory) {
+        this(filePath, init, objectConverter, destroyService, tableServiceFactory, false);
+    }
+
+    /**
+     * @param lazy сервисы таблицы создаются при первом обращении к ней, а не при запуске
+     */
+    public TableManagerImpl(String filePath, boolean init, ObjectConverter objectConverter, DestroyService destroyService, TableServiceFactory tableServiceFactory, boolean lazy) {
         super(filePath, init, objectConverter, destroyService);
         this.tableServiceFactory = tableServiceFactory;
         this.tablesFileName = filePath + FILE_NAME;
         if (new File(tablesFileName).exists()) {
-            objectConverter.fromFile(HashSet.class, this.tablesFileName).forEach(table -> create((String) table));
+            final Set<String> savedTables = Utils.logTime(log, "tables", () -> objectConverter.fromFile(HashSet.class, this.tablesFileName));
+            tables.addAll(savedTables);
+            if (!lazy) {
+                savedTables.forEach(this::getServiceHolder);
+            }
         }
     }
 
     @Override
     public void create(String tableName) {
-        map.putIfAbsent(tableName, createServiceHolder(tableName));
+        tables.add(tableName);
+        getServiceHolder(tableName);
         changed = true;
     }
 
     private ServiceHolder createServiceHolder(String tableName) {
-        final ServiceHolder[] serviceHolders = new ServiceHolder[1];
-        tableServiceFactory.createServices(tableName, map -> {
-            serviceHolders[0] = new ServiceHolder((RowRepository) map.get(RowRepository.class), (ModelService) map.get(ModelService.class), (ConditionService) map.get(ConditionService.class));
-        }, ModelService.class, RowRepository.class, ConditionService.class);
-        return serviceHolders[0];
+        return Utils.logTime(log, "table " + tableName, () -> {
+            final ServiceHolder[] serviceHolders = new ServiceHolder[1];
+            tableServiceFactory.createServices(tableName, map -> {
+                serviceHolders[0] = new ServiceHolder((RowRepository) map.get(RowRepository.class), (ModelService) map.get(ModelService.class), (ConditionService) map.get(ConditionService.class));
+            }, ModelService.class, RowRepository.class, ConditionService.class);
+            return serviceHolders[0];
+        });
     }
 
     @Override
     public void delete(String tableName) {
-        final ServiceHolder serviceHolder = map.remove(tableName);
-        if (serviceHolder != null) {
-            serviceHolder.rowRepository.stop();
+        if (tables.remove(tableName)) {
+            final ServiceHolder serviceHolder = map.remove(tableName);
+            if (serviceHolder != null) {
+                serviceHolder.rowRepository.stop();
+            }
             new Thread(() -> {
                 try {
                     Thread.sleep(destroyService.getSleepTime());
@@ -67,18 +84,21 @@ public class TableManagerImpl extends BaseDestroyable implements TableManager {
 
     @Override
     public ServiceHolder getServiceHolder(String tableName) {
-        return map.get(tableName);
+        if (!tables.contains(tableName)) {
+            return null;
+        }
+        return map.computeIfAbsent(tableName, this::createServiceHolder);
     }
 
     @Override
     public Set<String> getTables() {
-        return map.keySet();
+        return tables;
     }
 
     @Override
     public void destroy() {
         if (changed) {
-            objectConverter.toFile(new HashSet<>(map.keySet()), tablesFileName);
+            objectConverter.toFile(new HashSet<>(tables), tablesFileName);
             changed = false;
         }
     }
@@ -0,0 +1,226 @@
+package server.model.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import server.model.*;
+import server.model.lock.LockService;
+import server.model.pojo.Row;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Последовательный журнал изменений строк. Записи сбрасываются на диск группами:
+ * поток, дождавшийся fsync, подтверждает все записи, сделанные до него
+ */
+public class WriteAheadLogImpl extends BaseDestroyable implements WriteAheadLog {
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLogImpl.class);
+    private static final String DIRECTORY = "wal";
+    private static final String SEGMENT_NAME = "wal";
+    private static final int HEADER_SIZE = Integer.BYTES + Byte.BYTES + Long.BYTES;
+
+    private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private final Object writeLock = new Object();
+    private final Object syncLock = new Object();
+    private final String path;
+    private final RowConverter rowConverter;
+    private final boolean sync;
+    private FileChannel channel;
+    private long segment;
+    private long written;
+    private volatile long synced;
+
+    public WriteAheadLogImpl(String filePath, boolean init, ObjectConverter objectConverter, DestroyService destroyService, RowConverter rowConverter, boolean sync) {
+        super(filePath, init, objectConverter, destroyService, Utils.getFullPath(filePath, DIRECTORY));
+        this.path = Utils.getFullPath(filePath, DIRECTORY);
+        this.rowConverter = rowConverter;
+        this.sync = sync;
+        final List<Long> segments = segments();
+        this.segment = segments.isEmpty() ? 0 : segments.get(segments.size() - 1);
+        openNextSegment();
+    }
+
+    @Override
+    public void append(Buffer.State state, Row row, Runnable applier) {
+        final byte[] bytes = rowConverter.toBytes(row);
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bytes.length);
+        buffer.putInt(bytes.length).put((byte) state.ordinal()).putLong(checksum(state, bytes)).put(bytes);
+        buffer.flip();
+        final long sequence = LockService.doInReadWriteLock(checkpointLock.readLock(), () -> {
+            final long result;
+            synchronized (writeLock) {
+                try {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                result = ++written;
+            }
+            applier.run();
+            return result;
+        });
+        if (sync) {
+            sync(sequence);
+        }
+    }
+
+    private void sync(long sequence) {
+        synchronized (syncLock) {
+            if (synced >= sequence) {
+                return;
+            }
+            final long target;
+            final FileChannel current;
+            synchronized (writeLock) {
+                target = written;
+                current = channel;
+            }
+            try {
+                current.force(false);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            synced = target;
+        }
+    }
+
+    @Override
+    public void replay(BiConsumer<Buffer.State, Row> consumer) {
+        long count = 0;
+        for (long number : segments()) {
+            if (number >= segment) {
+                continue;
+            }
+            try (FileChannel input = FileChannel.open(new File(getSegmentName(number)).toPath(), StandardOpenOption.READ)) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                while (readFully(input, header)) {
+                    header.flip();
+                    final int length = header.getInt();
+                    final int stateIndex = header.get();
+                    final long checksum = header.getLong();
+                    header.clear();
+                    if (stateIndex < 0 || stateIndex >= Buffer.State.values().length || length < 0 || length > input.size() - input.position()) {
+                        log.warn("wal segment " + number + " has a broken header at position " + (input.position() - HEADER_SIZE) + ", skipping the rest");
+                        break;
+                    }
+                    final Buffer.State state = Buffer.State.values()[stateIndex];
+                    final ByteBuffer body = ByteBuffer.allocate(length);
+                    if (!readFully(input, body) || checksum(state, body.array()) != checksum) {
+                        log.warn("wal segment " + number + " is cut at position " + input.position() + ", skipping the rest");
+                        break;
+                    }
+                    consumer.accept(state, rowConverter.fromBytes(body.array()));
+                    count++;
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        log.info("wal replay done, records " + count);
+    }
+
+    private boolean readFully(FileChannel input, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (input.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Переключает журнал на новый сегмент, сбрасывает данные и удаляет сегменты,
+     * все записи которых попали в сброшенные файлы
+     */
+    @Override
+    public void checkpoint(Runnable flusher) {
+        final long lastSegment = LockService.doInReadWriteLock(checkpointLock.writeLock(), () -> {
+            synchronized (syncLock) {
+                synchronized (writeLock) {
+                    final long current = segment;
+                    openNextSegment();
+                    synced = written;
+                    return current;
+                }
+            }
+        });
+        flusher.run();
+        for (long number : segments()) {
+            if (number <= lastSegment && !new File(getSegmentName(number)).delete()) {
+                throw new RuntimeException("cannot delete file " + getSegmentName(number));
+            }
+        }
+    }
+
+    private void openNextSegment() {
+        try {
+            if (channel != null) {
+                channel.force(false);
+                channel.close();
+            }
+            segment++;
+            channel = FileChannel.open(new File(getSegmentName(segment)).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private List<Long> segments() {
+        final File[] files = new File(path).listFiles((dir, name) -> name.startsWith(SEGMENT_NAME));
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        final List<Long> list = new ArrayList<>();
+        for (File file : files) {
+            list.add(Long.parseLong(file.getName().substring(SEGMENT_NAME.length())));
+        }
+        Collections.sort(list);
+        return list;
+    }
+
+    private String getSegmentName(long number) {
+        return path + SEGMENT_NAME + number;
+    }
+
+    private long checksum(Buffer.State state, byte[] bytes) {
+        final CRC32 crc32 = new CRC32();
+        crc32.update(state.ordinal());
+        crc32.update(bytes);
+        return crc32.getValue();
+    }
+
+    @Override
+    public void destroy() {
+        if (!sync) {
+            final long sequence;
+            synchronized (writeLock) {
+                sequence = written;
+            }
+            sync(sequence);
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        synchronized (syncLock) {
+            synchronized (writeLock) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    log.error("error while closing wal segment", e);
+                }
+            }
+        }
+    }
+}
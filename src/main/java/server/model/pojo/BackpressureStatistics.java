@@ -0,0 +1,61 @@
+package server.model.pojo;
+
+import java.io.Serializable;
+
+public class BackpressureStatistics implements Serializable {
+    private static final long serialVersionUID = -6254719871440318266L;
+    private final long waits;
+    private final long waitTime;
+    private final long rejections;
+    private final long bytes;
+    private final long highWatermark;
+    private final long lowWatermark;
+
+    public BackpressureStatistics(long waits, long waitTime, long rejections, long bytes, long highWatermark, long lowWatermark) {
+        this.waits = waits;
+        this.waitTime = waitTime;
+        this.rejections = rejections;
+        this.bytes = bytes;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+    }
+
+    public long getWaits() {
+        return waits;
+    }
+
+    /**
+     * @return суммарное время ожидания писателей в миллисекундах
+     */
+    public long getWaitTime() {
+        return waitTime;
+    }
+
+    public long getRejections() {
+        return rejections;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getHighWatermark() {
+        return highWatermark;
+    }
+
+    public long getLowWatermark() {
+        return lowWatermark;
+    }
+
+    @Override
+    public String toString() {
+        return "BackpressureStatistics{" +
+                "waits=" + waits +
+                ", waitTime=" + waitTime +
+                ", rejections=" + rejections +
+                ", bytes=" + bytes +
+                ", highWatermark=" + highWatermark +
+                ", lowWatermark=" + lowWatermark +
+                '}';
+    }
+}
@@ -0,0 +1,77 @@
+package server.model.pojo;
+
+import java.io.Serializable;
+
+public class CacheStatistics implements Serializable {
+    private static final long serialVersionUID = 4120577328946150331L;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int size;
+    private final int maxSize;
+    private final long bytes;
+    private final long maxBytes;
+
+    public CacheStatistics(long hits, long misses, long evictions, int size, int maxSize) {
+        this(hits, misses, evictions, size, maxSize, -1, -1);
+    }
+
+    /**
+     * @param maxSize -1, если кэш ограничен только по байтам
+     */
+    public CacheStatistics(long hits, long misses, long evictions, int size, int maxSize, long bytes, long maxBytes) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.size = size;
+        this.maxSize = maxSize;
+        this.bytes = bytes;
+        this.maxBytes = maxBytes;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public double getHitRatio() {
+        final long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics{" +
+                "hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                ", size=" + size +
+                ", maxSize=" + maxSize +
+                ", bytes=" + bytes +
+                ", maxBytes=" + maxBytes +
+                '}';
+    }
+}
@@ -1,5 +1,6 @@
 package server.model.pojo;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -8,18 +9,61 @@ public class Row extends TableType {
     private static final long serialVersionUID = -172808855119652235L;
 
     private final Map<String, Comparable> fields;
+    private final boolean frozen;
 
     public Row() {
         this.fields = new HashMap<>();
+        this.frozen = false;
     }
 
     public Row(Map<String, Comparable> fields) {
         this.fields = fields;
+        this.frozen = false;
     }
 
     public Row(int id, Map<String, Comparable> fields) {
         this.id = id;
         this.fields = fields;
+        this.frozen = false;
+    }
+
+    /**
+     * Изменяемая копия строки. Значения полей неизменяемые, поэтому достаточно скопировать map
+     */
+    public Row(Row row) {
+        this(row.getId(), new HashMap<>(row.fields));
+    }
+
+    private Row(int id, Map<String, Comparable> fields, boolean frozen) {
+        this.id = id;
+        this.fields = Collections.unmodifiableMap(fields);
+        this.frozen = frozen;
+    }
+
+    /**
+     * Неизменяемый снимок строки, который можно отдавать читателям без копирования
+     */
+    public Row freeze() {
+        return frozen ? this : new Row(getId(), new HashMap<>(fields), true);
+    }
+
+    /**
+     * Неизменяемая строка поверх переданной map без копирования, map не должна меняться после вызова
+     */
+    public static Row frozen(int id, Map<String, Comparable> fields) {
+        return new Row(id, fields, true);
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    @Override
+    public synchronized void setId(int id) {
+        if (frozen) {
+            throw new UnsupportedOperationException("row " + this.id + " is frozen");
+        }
+        super.setId(id);
     }
 
     public Map<String, Comparable> getFields() {
@@ -18,6 +18,13 @@ public class RowAddress extends TableType {
         this.size = size;
     }
 
+    public RowAddress(RowAddress rowAddress) {
+        this(rowAddress.filePath, rowAddress.getId(), rowAddress.position, rowAddress.size);
+        this.previous = rowAddress.previous;
+        this.next = rowAddress.next;
+        this.saved = rowAddress.saved;
+    }
+
     public String getFilePath() {
         return filePath;
     }
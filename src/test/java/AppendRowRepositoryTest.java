@@ -0,0 +1,123 @@
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import server.model.*;
+import server.model.impl.*;
+import server.model.pojo.ICondition;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AppendRowRepositoryTest {
+    private static final String fileVariablesName = "rowIdVariables";
+    private static final String filesIdPath = "rowId";
+    private static final String filesRowPath = "row";
+    private static final String garbageFileName = "rowGarbage";
+    private static final int maxIdSize = 20;
+    private static final int compressSize = 2;
+
+    @After
+    public void after() throws IOException {
+        assertEquals(0, Objects.requireNonNull(new File(filesRowPath).listFiles((dir, name) -> name.endsWith(".tmp"))).length);
+        FileUtils.deleteDirectory(new File(filesIdPath));
+        FileUtils.deleteDirectory(new File(filesRowPath));
+        new File(garbageFileName).delete();
+    }
+
+    @Test
+    public void updateAndCompactTest() {
+        final int lastId = 30;
+        createFiles(lastId);
+        final File rowFile = new File(filesRowPath + "/" + filesRowPath + "1");
+        final long initialLength = rowFile.length();
+        final RowRepository rowRepository = prepareRepository(0.5);
+        rowRepository.add(TestUtils.generateRow(2, 200));
+        rowRepository.add(TestUtils.generateRow(0, 301));
+        rowRepository.delete(3);
+        rowRepository.destroy();
+        assertTrue(rowFile.length() > initialLength);
+        assertTrue(rowRepository.process(1, row -> assertEquals(TestUtils.generateRow(1, 1), row)));
+        assertTrue(rowRepository.process(2, row -> assertEquals(TestUtils.generateRow(2, 200), row)));
+        assertFalse(rowRepository.process(3, Assert::assertNull));
+        assertTrue(rowRepository.process(31, row -> assertEquals(TestUtils.generateRow(31, 301), row)));
+        for (int i = 0; i < 10; i++) {
+            rowRepository.add(TestUtils.generateRow(4, 400 + i));
+            rowRepository.destroy();
+        }
+        final RowRepository reopened = prepareRepository(0.5);
+        assertTrue(reopened.process(2, row -> assertEquals(TestUtils.generateRow(2, 200), row)));
+        assertFalse(reopened.process(3, Assert::assertNull));
+        assertTrue(reopened.process(4, row -> assertEquals(TestUtils.generateRow(4, 409), row)));
+        assertTrue(reopened.process(10, row -> assertEquals(TestUtils.generateRow(10, 10), row)));
+        assertEquals(lastId, reopened.size(ICondition.empty, -1));
+        assertTrue(rowFile.length() < initialLength * 2);
+        rowRepository.stop();
+        reopened.stop();
+    }
+
+    @Test
+    public void backgroundCompactTest() {
+        final int lastId = 30;
+        createFiles(lastId);
+        final File rowFile = new File(filesRowPath + "/" + filesRowPath + "1");
+        final long initialLength = rowFile.length();
+        final List<Runnable> compactions = new ArrayList<>();
+        final RowRepository rowRepository = prepareRepository(0.1, compactions::add);
+        for (int i = 0; i < 20; i++) {
+            rowRepository.add(TestUtils.generateRow(4, 400 + i));
+            rowRepository.destroy();
+        }
+        assertEquals(1, compactions.size());
+        final long length = rowFile.length();
+        assertTrue(length > initialLength);
+        compactions.get(0).run();
+        assertTrue(rowFile.length() < length);
+        assertTrue(rowRepository.process(4, row -> assertEquals(TestUtils.generateRow(4, 419), row)));
+        assertTrue(rowRepository.process(10, row -> assertEquals(TestUtils.generateRow(10, 10), row)));
+        assertEquals(lastId, rowRepository.size(ICondition.empty, -1));
+        rowRepository.destroy();
+        assertEquals(1, compactions.size());
+        rowRepository.stop();
+    }
+
+    private RowRepository prepareRepository(double compactionRatio) {
+        return prepareRepository(compactionRatio, Runnable::run);
+    }
+
+    private RowRepository prepareRepository(double compactionRatio, Executor compactionExecutor) {
+        final ObjectConverter objectConverter = new ObjectConverterImpl(new DataCompressorImpl());
+        final RowIdRepository rowIdRepository = TestUtils.prepareRowIdRepository("", null, maxIdSize, compressSize, objectConverter);
+        final IndexService indexService = mock(IndexService.class);
+        when(indexService.search(any(ICondition.class), anyInt())).thenReturn(new IndexService.SearchResult(false, null));
+        return new AppendRowRepositoryImpl("", true, objectConverter, mock(DestroyService.class), rowIdRepository, new FileHelperImpl(),
+                indexService, new ConditionServiceImpl(TestUtils.mockModelService()), TestUtils.mockModelService(), 1000,
+                null, new RowConverterImpl(TestUtils.mockModelService(), objectConverter), new RowCacheImpl(1024 * 1024), Long.MAX_VALUE, Long.MAX_VALUE, -1, null, compactionRatio, compactionExecutor) {
+            @Override
+            public void destroy() {
+                super.destroy();
+                rowIdRepository.destroy();
+            }
+        };
+    }
+
+    private void createFiles(int lastId) {
+        final Map<Integer, byte[]> map = TestUtils.createRowMap(lastId);
+        Utils.createDirectoryTree(new File(filesIdPath));
+        Utils.createDirectoryTree(new File(filesRowPath));
+        TestUtils.createRowFiles(map, filesRowPath + "/" + filesRowPath, maxIdSize / compressSize);
+        TestUtils.createRowIdFiles(lastId, maxIdSize, compressSize, filesIdPath + "/" + fileVariablesName,
+                filesIdPath + "/" + filesIdPath, filesRowPath + "/" + filesRowPath, 0, map);
+    }
+}
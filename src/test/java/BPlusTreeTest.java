@@ -1,3 +1,4 @@
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import server.model.ConditionService;
@@ -14,6 +15,8 @@ import java.io.File;
 import java.util.*;
 import java.util.function.Function;
 
+import static org.junit.Assert.*;
+
 @RunWith(Parameterized.class)
 public class BPlusTreeTest extends FieldKeeperTest {
     protected final int treeFactor;
@@ -33,15 +36,41 @@ public class BPlusTreeTest extends FieldKeeperTest {
 
     @Override
     <T extends Comparable<T>> FieldKeeper<T, Integer> prepareFieldKeeper(Class<T> clazz, String fieldName) {
-        return new TestBPlusTree<>(fieldName, "test", new ObjectConverterImpl(new DataCompressorImpl()), new ConditionServiceImpl(TestUtils.mockModelService()), treeFactor);
+        return new TestBPlusTree<>(fieldName, "test", new ObjectConverterImpl(new DataCompressorImpl()), new ConditionServiceImpl(TestUtils.mockModelService()), treeFactor, clazz);
+    }
+
+    @Test
+    public void numberKeysTest() {
+        final List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            values.add(i);
+        }
+        Collections.shuffle(values, new Random(5));
+        checkKeys(prepareFieldKeeper(Long.class, "long"), values, value -> value * 3_000_000_000L - 700_000_000_000L, value -> value * 3_000_000_000L - 700_000_000_001L);
+        checkKeys(prepareFieldKeeper(Double.class, "double"), values, value -> value / 4.0 - 50, value -> value / 4.0 - 50.1);
+    }
+
+    private <T extends Comparable<T>> void checkKeys(FieldKeeper<T, Integer> fieldKeeper, List<Integer> values, Function<Integer, T> key, Function<Integer, T> absentKey) {
+        TestUtils.doAndSleep(fieldKeeper, () -> {
+            values.forEach(value -> fieldKeeper.insert(key.apply(value), value));
+            for (int value : values) {
+                assertEquals(Collections.singleton(value), fieldKeeper.search(key.apply(value)));
+                assertEquals(Collections.emptySet(), fieldKeeper.search(absentKey.apply(value)));
+            }
+            values.stream().filter(value -> value % 2 == 0).forEach(value -> assertTrue(fieldKeeper.delete(key.apply(value), value).fully));
+            for (int value : values) {
+                assertEquals(value % 2 == 0 ? Collections.emptySet() : Collections.singleton(value), fieldKeeper.search(key.apply(value)));
+            }
+        }, sleepTime * 3);
+        fieldKeeper.clear();
     }
 
     private static class TestBPlusTree<U extends Comparable<U>, V> extends BPlusTree<U, V> {
         private Node<U, V> root;
         private Map<String, LeafNode<U, V>> map;
 
-        private TestBPlusTree(String fieldName, String path, ObjectConverter objectConverter, ConditionService conditionService, int treeFactor) {
-            super(fieldName, path, objectConverter, conditionService, 10, treeFactor);
+        private TestBPlusTree(String fieldName, String path, ObjectConverter objectConverter, ConditionService conditionService, int treeFactor, Class<U> keyType) {
+            super(fieldName, path, objectConverter, conditionService, 10, treeFactor, keyType);
         }
 
         @Override
@@ -1,12 +1,18 @@
 import org.junit.Test;
 import server.model.Buffer;
+import server.model.BufferFullException;
 import server.model.StoppableStream;
 import server.model.impl.BufferImpl;
+import server.model.pojo.BackpressureStatistics;
 import server.model.pojo.Row;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
@@ -53,131 +59,78 @@ public class BufferTest {
         buffer.add(row, Buffer.State.DELETED);
         buffer.flush();
         counter.set(0);
-        previous.set(0);
-        buffer.stream().forEach(value -> {
-            counter.incrementAndGet();
-            assertEquals(value, buffer.get(value.getValue().getId()));
-            assertTrue(value.isFlushed());
-            assertTrue(previous.get() <= value.getValue().getId());
-            previous.set(value.getValue().getId());
-        });
-        assertEquals(maxSize - 2, counter.get());
-        assertEquals(maxSize - 2, buffer.size());
-        {
-            assertNull(buffer.get(0));
-        }
+        buffer.stream().forEach(value -> counter.incrementAndGet());
+        assertEquals(0, counter.get());
+        assertEquals(0, buffer.size());
+        assertNull(buffer.get(0));
+        assertNull(buffer.get(1));
         assertEquals(maxSize - 1, flushedConsumerCounter.get());
 
         row = new Row(maxSize - 1, new HashMap<>());
         buffer.add(row, Buffer.State.ADDED);
-        counter.set(0);
-        previous.set(0);
-        final AtomicInteger flushed = new AtomicInteger();
-        buffer.stream().forEach(value -> {
-            counter.incrementAndGet();
-            assertEquals(value, buffer.get(value.getValue().getId()));
-            if (value.isFlushed()) {
-                flushed.incrementAndGet();
-            }
-            assertTrue(previous.get() <= value.getValue().getId());
-            previous.set(value.getValue().getId());
-        });
-        assertEquals(maxSize - 1, counter.get());
-        assertEquals(maxSize - 1, buffer.size());
-        assertEquals(maxSize - 2, flushed.get());
         {
             final Buffer.Element<Row> element = buffer.get(maxSize - 1);
             assertEquals(row, element.getValue());
             assertEquals(Buffer.State.ADDED, element.getState());
         }
-        assertEquals(maxSize - 1, flushedConsumerCounter.get());
-
         row = new Row(maxSize, new HashMap<>());
         buffer.add(row, Buffer.State.UPDATED);
-        counter.set(0);
-        previous.set(0);
-        flushed.set(0);
-        buffer.stream().forEach(value -> {
-            counter.incrementAndGet();
-            assertEquals(value, buffer.get(value.getValue().getId()));
-            if (value.isFlushed()) {
-                flushed.incrementAndGet();
-            }
-            assertTrue(previous.get() <= value.getValue().getId());
-            previous.set(value.getValue().getId());
-        });
-        assertEquals(maxSize, counter.get());
-        assertEquals(maxSize, buffer.size());
-        assertEquals(maxSize - 2, flushed.get());
         {
             final Buffer.Element<Row> element = buffer.get(maxSize);
             assertEquals(row, element.getValue());
             assertEquals(Buffer.State.UPDATED, element.getState());
         }
-        assertEquals(maxSize - 1, flushedConsumerCounter.get());
-
         final Map<String, Comparable> map = new HashMap<>();
         map.put("print", Integer.toString(maxSize + 1));
         row = new Row(maxSize + 1, map);
         buffer.add(row, Buffer.State.UPDATED);
+        {
+            final Buffer.Element<Row> element = buffer.get(maxSize + 1);
+            assertEquals(row, element.getValue());
+            assertEquals(Buffer.State.UPDATED, element.getState());
+        }
         counter.set(0);
         previous.set(0);
-        flushed.set(0);
         buffer.stream().forEach(value -> {
             counter.incrementAndGet();
             assertEquals(value, buffer.get(value.getValue().getId()));
-            if (value.isFlushed()) {
-                flushed.incrementAndGet();
-            }
+            assertFalse(value.isFlushed());
             assertTrue(previous.get() <= value.getValue().getId());
             previous.set(value.getValue().getId());
         });
-        assertEquals(maxSize + 1, counter.get());
-        assertEquals(maxSize + 1, buffer.size());
-        assertEquals(maxSize - 2, flushed.get());
-        {
-            final Buffer.Element<Row> element = buffer.get(maxSize + 1);
-            assertEquals(row, element.getValue());
-            assertEquals(Buffer.State.UPDATED, element.getState());
-        }
+        assertEquals(3, counter.get());
+        assertEquals(3, buffer.size());
         assertEquals(maxSize - 1, flushedConsumerCounter.get());
 
         buffer.flush();
         counter.set(0);
-        previous.set(0);
         StoppableStream<Buffer.Element<Row>> stream = buffer.stream();
         final boolean[] onStreamEnd = new boolean[]{false, false};
         stream.addOnStreamEnd(() -> {
-            assertEquals(maxSize, counter.get());
-            assertEquals(maxSize, buffer.size());
+            assertEquals(0, counter.get());
+            assertEquals(0, buffer.size());
             assertEquals(maxSize + 2, flushedConsumerCounter.get());
             onStreamEnd[0] = true;
         });
         stream.addOnStreamEnd(() -> {
-            assertEquals(maxSize, counter.get());
-            assertEquals(maxSize, buffer.size());
+            assertEquals(0, counter.get());
+            assertEquals(0, buffer.size());
             assertEquals(maxSize + 2, flushedConsumerCounter.get());
             onStreamEnd[1] = true;
         });
-        stream.forEach(value -> {
-            counter.incrementAndGet();
-            assertEquals(value, buffer.get(value.getValue().getId()));
-            assertTrue(value.isFlushed());
-            assertTrue(previous.get() <= value.getValue().getId());
-            previous.set(value.getValue().getId());
-        });
-        assertEquals(maxSize, counter.get());
-        assertEquals(maxSize, buffer.size());
-        assertEquals(maxSize + 2, flushedConsumerCounter.get());
+        stream.forEach(value -> counter.incrementAndGet());
         assertTrue(onStreamEnd[0]);
         assertTrue(onStreamEnd[1]);
 
+        for (int i = 0; i < maxSize; i++) {
+            buffer.add(new Row(i, new HashMap<>()), Buffer.State.ADDED);
+        }
         counter.set(0);
         final StoppableStream<Buffer.Element<Row>> stream2 = buffer.stream();
         stream2.forEach(value -> {
             counter.incrementAndGet();
             assertEquals(value, buffer.get(value.getValue().getId()));
-            assertTrue(value.isFlushed());
+            assertFalse(value.isFlushed());
             if (counter.get() >= Math.ceil(maxSize / 2)) {
                 stream2.stop();
             }
@@ -225,8 +178,8 @@ public class BufferTest {
 
         buffer.flush();
 
-        assertTrue(buffer.get(1).isFlushed());
-        assertEquals(Buffer.State.ADDED, buffer.get(1).getState());
+        assertNull(buffer.get(1));
+        assertNull(buffer.get(2));
         {
             final Map<String, Comparable> map = new HashMap<>();
             map.put("field", Integer.toString(1));
@@ -237,12 +190,7 @@ public class BufferTest {
 
         buffer.flush();
 
-        {
-            final Map<String, Comparable> map = new HashMap<>();
-            map.put("field", Integer.toString(1));
-            buffer.add(new Row(3, map), Buffer.State.READ);
-        }
-        assertTrue(buffer.get(3).isFlushed());
+        assertEquals(0, buffer.size());
         final boolean[] flushed = new boolean[]{false};
         consumerReference.set(list -> {
             assertEquals(0, list.size());
@@ -252,6 +200,86 @@ public class BufferTest {
         assertTrue(flushed[0]);
     }
 
+    @Test
+    public void replacedDuringFlushTest() {
+        final Map<String, Comparable> map = new HashMap<>();
+        map.put("field", "new");
+        final Row newRow = new Row(1, map);
+        final AtomicReference<Buffer<Row>> bufferReference = new AtomicReference<>();
+        final Buffer<Row> buffer = new BufferImpl<>(10, list -> {
+            if (list.size() == 2) {
+                bufferReference.get().add(newRow, Buffer.State.UPDATED);
+            }
+        });
+        bufferReference.set(buffer);
+        buffer.add(new Row(1, new HashMap<>()), Buffer.State.UPDATED);
+        buffer.add(new Row(2, new HashMap<>()), Buffer.State.UPDATED);
+        buffer.flush();
+        assertEquals(1, buffer.size());
+        assertEquals(newRow, buffer.get(1).getValue());
+        assertFalse(buffer.get(1).isFlushed());
+        assertNull(buffer.get(2));
+        buffer.flush();
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void generationTest() {
+        final AtomicReference<Buffer<Row>> bufferReference = new AtomicReference<>();
+        final List<Integer> streamIds = new ArrayList<>();
+        final List<Integer> flushedIds = new ArrayList<>();
+        final Buffer<Row> buffer = new BufferImpl<>(10, list -> {
+            final Buffer<Row> current = bufferReference.get();
+            list.forEach(element -> flushedIds.add(element.getValue().getId()));
+            if (list.size() == 3) {
+                current.add(new Row(2, new HashMap<>()), Buffer.State.UPDATED);
+                current.add(new Row(4, new HashMap<>()), Buffer.State.ADDED);
+                assertEquals(Buffer.State.ADDED, current.get(1).getState());
+                assertEquals(Buffer.State.UPDATED, current.get(2).getState());
+                assertEquals(5, current.size());
+                current.stream().forEach(element -> streamIds.add(element.getValue().getId()));
+            }
+        });
+        bufferReference.set(buffer);
+        buffer.add(new Row(1, new HashMap<>()), Buffer.State.ADDED);
+        buffer.add(new Row(2, new HashMap<>()), Buffer.State.ADDED);
+        buffer.add(new Row(3, new HashMap<>()), Buffer.State.DELETED);
+        buffer.flush();
+        assertEquals(Arrays.asList(1, 2, 3, 4), streamIds);
+        assertEquals(Arrays.asList(1, 2, 3), flushedIds);
+        assertEquals(2, buffer.size());
+        assertNull(buffer.get(1));
+        assertEquals(Buffer.State.UPDATED, buffer.get(2).getState());
+        flushedIds.clear();
+        buffer.flush();
+        assertEquals(Arrays.asList(2, 4), flushedIds);
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void failedFlushTest() {
+        final boolean[] fail = {true};
+        final Buffer<Row> buffer = new BufferImpl<>(10, list -> {
+            if (fail[0]) {
+                throw new RuntimeException("flush failed");
+            }
+        });
+        buffer.add(new Row(1, new HashMap<>()), Buffer.State.ADDED);
+        buffer.add(new Row(2, new HashMap<>()), Buffer.State.UPDATED);
+        try {
+            buffer.flush();
+            fail("flush must fail");
+        } catch (RuntimeException e) {
+            assertEquals("flush failed", e.getMessage());
+        }
+        assertEquals(2, buffer.size());
+        assertEquals(Buffer.State.ADDED, buffer.get(1).getState());
+        assertEquals(Buffer.State.UPDATED, buffer.get(2).getState());
+        fail[0] = false;
+        buffer.flush();
+        assertEquals(0, buffer.size());
+    }
+
     @Test
     public void filledTest() {
         final int[] size = new int[]{0};
@@ -282,4 +310,89 @@ public class BufferTest {
         buffer.flush();
         assertEquals(3, size[0]);
     }
+
+    @Test
+    public void orderTest() {
+        final List<Integer> flushedIds = new ArrayList<>();
+        final Buffer<Row> buffer = new BufferImpl<>(1000, list -> list.forEach(element -> flushedIds.add(element.getValue().getId())));
+        final List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ids.add(i);
+        }
+        Collections.shuffle(ids, new Random(1));
+        ids.forEach(id -> buffer.add(new Row(id, new HashMap<>()), id % 2 == 0 ? Buffer.State.ADDED : Buffer.State.UPDATED));
+        final List<Integer> streamIds = new ArrayList<>();
+        buffer.stream().forEach(element -> streamIds.add(element.getValue().getId()));
+        assertEquals(100, streamIds.size());
+        for (int i = 0; i < streamIds.size(); i++) {
+            assertEquals(i, (int) streamIds.get(i));
+        }
+        buffer.flush();
+        assertEquals(100, flushedIds.size());
+        for (int i = 0; i < flushedIds.size(); i++) {
+            assertEquals(i, (int) flushedIds.get(i));
+        }
+        assertEquals(0, buffer.size());
+        flushedIds.clear();
+        buffer.add(new Row(7, new HashMap<>()), Buffer.State.UPDATED);
+        buffer.add(new Row(3, new HashMap<>()), Buffer.State.DELETED);
+        buffer.flush();
+        assertEquals(Arrays.asList(3, 7), flushedIds);
+        assertNull(buffer.get(3));
+        assertEquals(0, buffer.size());
+        flushedIds.clear();
+        buffer.flush();
+        assertEquals(0, flushedIds.size());
+    }
+
+    @Test
+    public void backpressureTest() throws InterruptedException {
+        {
+            final Buffer<Row> buffer = new BufferImpl<>(1000, null, list -> {
+            }, row -> 100, 500, 200, 0);
+            for (int i = 1; i <= 4; i++) {
+                buffer.add(new Row(i, new HashMap<>()), Buffer.State.ADDED);
+                buffer.awaitCapacity();
+            }
+            buffer.add(new Row(5, new HashMap<>()), Buffer.State.ADDED);
+            try {
+                buffer.awaitCapacity();
+                fail("buffer must be full");
+            } catch (BufferFullException e) {
+                // ожидаемый отказ
+            }
+            assertEquals(1, buffer.getBackpressureStatistics().getRejections());
+            assertEquals(500, buffer.getBackpressureStatistics().getBytes());
+            buffer.flush();
+            assertEquals(0, buffer.getBackpressureStatistics().getBytes());
+            buffer.awaitCapacity();
+        }
+        {
+            final AtomicReference<Buffer<Row>> bufferReference = new AtomicReference<>();
+            final AtomicInteger filled = new AtomicInteger();
+            final Buffer<Row> buffer = new BufferImpl<>(1000, () -> {
+                if (filled.incrementAndGet() == 1) {
+                    new Thread(() -> {
+                        try {
+                            Thread.sleep(200);
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                        bufferReference.get().flush();
+                    }).start();
+                }
+            }, list -> {
+            }, row -> 100, 500, 200, 5000);
+            bufferReference.set(buffer);
+            for (int i = 1; i <= 5; i++) {
+                buffer.add(new Row(i, new HashMap<>()), Buffer.State.ADDED);
+            }
+            buffer.awaitCapacity();
+            final BackpressureStatistics statistics = buffer.getBackpressureStatistics();
+            assertEquals(1, statistics.getWaits());
+            assertEquals(0, statistics.getRejections());
+            assertTrue(statistics.getWaitTime() >= 100);
+            assertEquals(0, buffer.size());
+        }
+    }
 }
@@ -1,13 +1,28 @@
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
 import org.junit.Test;
+import server.model.CodecService;
 import server.model.DataCompressor;
-import server.model.impl.DataCompressorImpl;
+import server.model.ObjectConverter;
+import server.model.impl.*;
+import server.model.pojo.Row;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Random;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class DataCompressorTest {
 
+    @After
+    public void after() throws IOException {
+        FileUtils.deleteDirectory(new File("codecs"));
+        new File("row.temp").delete();
+    }
+
     @Test
     public void fullTest() {
         final DataCompressor dataCompressor = new DataCompressorImpl();
@@ -17,4 +32,51 @@ public class DataCompressorTest {
         TestUtils.assertBytes(input, dataCompressor.decompress(output));
     }
 
+    @Test
+    public void codecsTest() {
+        final byte[] text = "test text for compressing test text for compressing test text for compressing test text for compressing test text for compressing".getBytes(StandardCharsets.UTF_8);
+        final byte[] random = new byte[100000];
+        new Random(1).nextBytes(random);
+        final byte[] repeated = new byte[70000];
+        for (int i = 0; i < repeated.length; i++) {
+            repeated[i] = (byte) (i % 7 == 0 ? i : 5);
+        }
+        for (String codec : new String[]{"none", "lz", "deflate", "deflate:1", "deflate:9", "gzip"}) {
+            final DataCompressor dataCompressor = CodecServiceImpl.parse(codec);
+            for (byte[] input : new byte[][]{new byte[0], new byte[]{1}, text, random, repeated}) {
+                TestUtils.assertBytes(input, dataCompressor.decompress(dataCompressor.compress(input)));
+            }
+            if (!"none".equals(codec)) {
+                assertTrue(codec, dataCompressor.compress(text).length < text.length);
+                assertTrue(codec, dataCompressor.compress(repeated).length < repeated.length / 2);
+            }
+        }
+    }
+
+    @Test
+    public void codecServiceTest() {
+        final ObjectConverter objectConverter = new ObjectConverterImpl(new DataCompressorImpl());
+        final CodecService codecService = new CodecServiceImpl("", true, objectConverter, null, "lz", "deflate:1", "none");
+        final DataCompressor rows = codecService.getCompressor(CodecService.DataKind.Rows);
+        final byte[] input = "test text for compressing test text for compressing".getBytes(StandardCharsets.UTF_8);
+        final byte[] lz = rows.compress(input);
+        assertEquals(LzDataCompressorImpl.ID, lz[1]);
+        codecService.setCodec(CodecService.DataKind.Rows, "deflate:9");
+        final byte[] deflate = rows.compress(input);
+        assertEquals(DeflaterDataCompressorImpl.ID, deflate[1]);
+        TestUtils.assertBytes(input, rows.decompress(lz));
+        TestUtils.assertBytes(input, rows.decompress(deflate));
+        TestUtils.assertBytes(input, rows.decompress(new DataCompressorImpl().compress(input)));
+
+        final Row row = TestUtils.generateRow(1, 1);
+        objectConverter.toFile(row, "row.temp");
+        final ObjectConverter metadata = codecService.getObjectConverter(CodecService.DataKind.Metadata);
+        assertEquals(row, metadata.fromFile(Row.class, "row.temp"));
+        metadata.toFile(row, "row.temp");
+        assertEquals(row, metadata.fromFile(Row.class, "row.temp"));
+        assertEquals(row, metadata.fromBytes(Row.class, metadata.toBytes(row)));
+        codecService.destroy();
+        assertEquals("deflate:9", new CodecServiceImpl("", true, objectConverter, null, "lz", "deflate:1", "none").getCodec(CodecService.DataKind.Rows));
+    }
+
 }
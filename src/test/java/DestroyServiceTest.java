@@ -1,9 +1,16 @@
 import org.junit.Test;
+import server.model.BaseFilePathHolder;
 import server.model.DestroyService;
 import server.model.Destroyable;
 import server.model.impl.DestroyServiceImpl;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class DestroyServiceTest {
 
@@ -52,4 +59,85 @@ public class DestroyServiceTest {
         assertEquals(1, values[0]);
         assertEquals(1, values[1]);
     }
+
+    @Test
+    public void tableTest() throws InterruptedException {
+        final Map<String, Long> sleepTimes = new HashMap<>();
+        sleepTimes.put("fast", 300L);
+        final DestroyService destroyService = new DestroyServiceImpl(10000, 2, sleepTimes);
+        final TestDestroyable slow = new TestDestroyable("slow/", 2000);
+        final TestDestroyable slow2 = new TestDestroyable("slow/", 0);
+        final TestDestroyable fast = new TestDestroyable("fast/", 0);
+        destroyService.register(slow);
+        destroyService.register(slow2);
+        destroyService.register(fast);
+        destroyService.wakeUp(slow);
+        Thread.sleep(1000);
+        assertEquals(1, slow.counter.get());
+        assertEquals(0, slow2.counter.get());
+        assertTrue(fast.counter.get() >= 2);
+        destroyService.wakeUp(slow2);
+        Thread.sleep(200);
+        assertEquals(0, slow2.counter.get());
+        Thread.sleep(1500);
+        assertEquals(1, slow2.counter.get());
+    }
+
+    @Test
+    public void dirtyBytesTest() throws InterruptedException {
+        final DestroyService destroyService = new DestroyServiceImpl(10000, 2, new HashMap<>(), 1000);
+        final TestDestroyable big = new TestDestroyable("big/", 0);
+        final TestDestroyable small = new TestDestroyable("small/", 0);
+        destroyService.register(big);
+        destroyService.register(small);
+        small.dirtyBytes.set(500);
+        Thread.sleep(500);
+        assertEquals(0, big.counter.get());
+        assertEquals(0, small.counter.get());
+        big.dirtyBytes.set(800);
+        Thread.sleep(500);
+        assertEquals(1, big.counter.get());
+        assertEquals(0, small.counter.get());
+        assertEquals(0, big.dirtyBytes.get());
+        destroyService.destroy();
+    }
+
+    @Test
+    public void destroyTest() throws InterruptedException {
+        final DestroyService destroyService = new DestroyServiceImpl(200);
+        final TestDestroyable destroyable = new TestDestroyable("test/", 0);
+        destroyService.register(destroyable);
+        destroyService.destroy();
+        assertEquals(1, destroyable.counter.get());
+        destroyService.wakeUp();
+        Thread.sleep(600);
+        assertEquals(1, destroyable.counter.get());
+    }
+
+    private static class TestDestroyable extends BaseFilePathHolder implements Destroyable {
+        private final AtomicInteger counter = new AtomicInteger();
+        private final AtomicLong dirtyBytes = new AtomicLong();
+        private final long duration;
+
+        private TestDestroyable(String filePath, long duration) {
+            super(filePath);
+            this.duration = duration;
+        }
+
+        @Override
+        public void destroy() {
+            counter.incrementAndGet();
+            dirtyBytes.set(0);
+            try {
+                Thread.sleep(duration);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public long getDirtyBytes() {
+            return dirtyBytes.get();
+        }
+    }
 }
@@ -0,0 +1,48 @@
+import org.junit.Test;
+import server.model.impl.ExternalSorter;
+import server.model.pojo.Pair;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ExternalSorterTest {
+
+    @Test
+    public void sortTest() {
+        for (int size : new int[]{0, 5, 7, 1000}) {
+            final ExternalSorter<Integer, Integer> sorter = new ExternalSorter<>("test.sort", 7);
+            final List<Pair<Integer, Integer>> pairs = new ArrayList<>();
+            final Random random = new Random(size);
+            for (int i = 0; i < size; i++) {
+                final Pair<Integer, Integer> pair = new Pair<>(random.nextInt(size / 3 + 1), i);
+                pairs.add(pair);
+                sorter.add(pair.getFirst(), pair.getSecond());
+            }
+            final List<Pair<Integer, Integer>> sorted = new ArrayList<>();
+            sorter.iterator().forEachRemaining(sorted::add);
+            for (int i = 1; i < sorted.size(); i++) {
+                assert sorted.get(i - 1).getFirst() <= sorted.get(i).getFirst();
+            }
+            assertEquals(new HashSet<>(pairs), new HashSet<>(sorted));
+            assertEquals(pairs.size(), sorted.size());
+            sorter.clear();
+            assertFalse(new File("test.sort.0").exists());
+        }
+    }
+
+    @Test
+    public void stringTest() {
+        final ExternalSorter<String, Integer> sorter = new ExternalSorter<>("test.sort", 3);
+        final List<String> keys = Arrays.asList("d", "a", "c", "b", "a", "e", "f", "c");
+        for (int i = 0; i < keys.size(); i++) {
+            sorter.add(keys.get(i), i);
+        }
+        final List<String> sorted = new ArrayList<>();
+        sorter.iterator().forEachRemaining(pair -> sorted.add(pair.getFirst()));
+        sorter.clear();
+        assertEquals(Arrays.asList("a", "a", "b", "c", "c", "d", "e", "f"), sorted);
+    }
+}
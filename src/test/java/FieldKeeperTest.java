@@ -3,6 +3,7 @@ import org.junit.Test;
 import server.model.ConditionException;
 import server.model.FieldKeeper;
 import server.model.impl.BPlusTree;
+import server.model.impl.LinkedBPlusTree;
 import server.model.pojo.FieldComplexCondition;
 import server.model.pojo.ICondition;
 import server.model.pojo.SimpleCondition;
@@ -28,6 +29,8 @@ public abstract class FieldKeeperTest {
             final int size;
             if (fieldKeeper instanceof BPlusTree) {
                 size = Math.max(100, ((BPlusTree<Integer, Integer>) fieldKeeper).treeFactor * 20);
+            } else if (fieldKeeper instanceof LinkedBPlusTree) {
+                size = Math.max(100, ((LinkedBPlusTree<Integer, Integer>) fieldKeeper).treeFactor * 20);
             } else {
                 size = 1000;
             }
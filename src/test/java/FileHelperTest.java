@@ -89,6 +89,32 @@ public class FileHelperTest {
         }
     }
 
+    @Test
+    public void releaseTest() {
+        try {
+            final byte[] bytes = new byte[]{1, 3, 4, 8, 6};
+            fileHelper.write("test", bytes, false);
+            final RowAddress rowAddress = new RowAddress("test", 1, 1, 3);
+            TestUtils.assertBytes(new byte[]{3, 4, 8}, fileHelper.read(rowAddress));
+            fileHelper.write("test", new byte[]{7, 7}, true);
+            TestUtils.assertBytes(new byte[]{6, 7, 7}, fileHelper.read(new RowAddress("test", 2, 4, 3)));
+            fileHelper.write("test1", bytes, false);
+            final RowAddress otherRowAddress = new RowAddress("test1", 1, 1, 3);
+            TestUtils.assertBytes(new byte[]{3, 4, 8}, fileHelper.read(otherRowAddress));
+            fileHelper.release("te");
+            fileHelper.release("test");
+            assertTrue(new File("test").delete());
+            assertNull(fileHelper.read(rowAddress));
+            assertTrue(new File("test1").delete());
+            TestUtils.assertBytes(new byte[]{3, 4, 8}, fileHelper.read(otherRowAddress));
+            fileHelper.release("test1");
+            assertNull(fileHelper.read(otherRowAddress));
+        } finally {
+            new File("test").delete();
+            new File("test1").delete();
+        }
+    }
+
     @Test
     public void chainInputStreamTest() throws IOException {
         try {
@@ -210,6 +236,91 @@ public class FileHelperTest {
         }
     }
 
+    @Test
+    public void blockTest() throws IOException {
+        final String directory = "row";
+        Utils.createDirectoryTree(new File(directory));
+        final FileHelper blockFileHelper = new FileHelperImpl(16, new DataCompressorImpl(), 100, 2);
+        try {
+            final Pair<List<Row>, List<RowAddress>> pair = makePair(directory, 0);
+            for (int i = 0; i < 6; i++) {
+                final byte[] bytes = objectConverter.toBytes(pair.getFirst().get(i));
+                blockFileHelper.write(pair.getSecond().get(i).getFilePath(), bytes, true);
+            }
+            final StoppableBatchStream<RowAddress> stream = new BaseStoppableBatchStream<RowAddress>() {
+                @Override
+                public void forEach(Consumer<RowAddress> consumer) {
+                    pair.getSecond().forEach(consumer);
+                    onBatchEnd.forEach(Runnable::run);
+                }
+            };
+            final Pair<List<Row>, List<RowAddress>> changedPair = makePair(directory, 1);
+            final AtomicInteger counter = new AtomicInteger(0);
+            blockFileHelper.collect(stream, collectBean -> {
+                blockFileHelper.skip(collectBean.inputStream, collectBean.rowAddress.getSize());
+                try {
+                    collectBean.outputStream.write(objectConverter.toBytes(changedPair.getFirst().get(counter.getAndIncrement())));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            for (int i = 5; i >= 0; i--) {
+                TestUtils.assertBytes(objectConverter.toBytes(changedPair.getFirst().get(i)), blockFileHelper.read(changedPair.getSecond().get(i)));
+            }
+            final RowAddress last = changedPair.getSecond().get(5);
+            final byte[] bytes = objectConverter.toBytes(TestUtils.generateRow(6, 6));
+            assertEquals(last.getPosition() + last.getSize(), blockFileHelper.append(last.getFilePath(), bytes));
+            assertEquals(last.getPosition() + last.getSize() + bytes.length, blockFileHelper.length(last.getFilePath()));
+            TestUtils.assertBytes(bytes, blockFileHelper.read(new RowAddress(last.getFilePath(), 6, last.getPosition() + last.getSize(), bytes.length)));
+            TestUtils.assertBytes(objectConverter.toBytes(changedPair.getFirst().get(4)), blockFileHelper.read(changedPair.getSecond().get(4)));
+            final FileHelper.ChainStream<InputStream> chainInputStream = blockFileHelper.getChainInputStream();
+            chainInputStream.init(last.getFilePath());
+            final byte[] first = new byte[changedPair.getSecond().get(4).getSize()];
+            assertEquals(first.length, org.apache.commons.io.IOUtils.read(chainInputStream.getStream(), first));
+            TestUtils.assertBytes(objectConverter.toBytes(changedPair.getFirst().get(4)), first);
+            chainInputStream.close();
+            assertNotEquals(bytes.length + last.getPosition() + last.getSize(), new File(last.getFilePath()).length());
+        } finally {
+            blockFileHelper.release(directory);
+            assertEquals(0, Objects.requireNonNull(new File(directory).listFiles((dir, name) -> name.endsWith(".tmp"))).length);
+            FileUtils.deleteDirectory(new File(directory));
+        }
+    }
+
+    @Test
+    public void appendTest() throws IOException {
+        final String directory = "row";
+        Utils.createDirectoryTree(new File(directory));
+        final String fileName = directory + "/append";
+        final FileHelper blockFileHelper = new FileHelperImpl(16, new DataCompressorImpl(), 100, 0);
+        try {
+            final List<RowAddress> rowAddresses = new ArrayList<>();
+            long position = 0;
+            for (int i = 0; i < 20; i++) {
+                final byte[] bytes = objectConverter.toBytes(TestUtils.generateRow(i, i));
+                assertEquals(position, blockFileHelper.append(fileName, bytes));
+                rowAddresses.add(new RowAddress(fileName, i, position, bytes.length));
+                position += bytes.length;
+                assertEquals(position, blockFileHelper.length(fileName));
+                for (int j = 0; j <= i; j++) {
+                    TestUtils.assertBytes(objectConverter.toBytes(TestUtils.generateRow(j, j)), blockFileHelper.read(rowAddresses.get(j)));
+                }
+            }
+            // индекс блоков не перестраивается по заголовкам, испорченный заголовок первого блока не читается
+            try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+                file.seek(4);
+                file.writeInt(-1);
+            }
+            final byte[] bytes = objectConverter.toBytes(TestUtils.generateRow(20, 20));
+            assertEquals(position, blockFileHelper.append(fileName, bytes));
+            TestUtils.assertBytes(bytes, blockFileHelper.read(new RowAddress(fileName, 20, position, bytes.length)));
+            TestUtils.assertBytes(objectConverter.toBytes(TestUtils.generateRow(0, 0)), blockFileHelper.read(rowAddresses.get(0)));
+        } finally {
+            blockFileHelper.release(directory);
+            FileUtils.deleteDirectory(new File(directory));
+        }
+    }
+
     private Pair<List<Row>, List<RowAddress>> makePair(String directory, int additionalParameter) {
         final List<Row> rowList = new ArrayList<>();
         final List<RowAddress> rowAddressList = new ArrayList<>();
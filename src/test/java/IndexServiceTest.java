@@ -8,10 +8,13 @@ import server.model.impl.IndexServiceImpl;
 import server.model.pojo.EmptyCondition;
 import server.model.pojo.ICondition;
 import server.model.pojo.MultiComplexCondition;
+import server.model.pojo.Pair;
+import server.model.pojo.Row;
 import server.model.pojo.SimpleCondition;
 
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
@@ -269,6 +272,84 @@ public class IndexServiceTest {
         assertTrue(deleted[1]);
     }
 
+    @Test
+    public void builderTest() {
+        final List<List<Pair<Integer, Integer>>> loaded = new ArrayList<>();
+        final Map<String, FieldKeeper> fieldKeepers = new HashMap<>();
+        fieldKeepers.put("int", mockBulkFieldKeeper(loaded));
+        final IndexService indexService = new IndexServiceImpl(fieldKeepers, new ConditionServiceImpl(TestUtils.mockModelService()));
+        final IndexService.IndexBuilder indexBuilder = indexService.builder(Collections.singleton("int"));
+        for (int i = 5; i > 0; i--) {
+            indexBuilder.add(intRow(i));
+        }
+        indexBuilder.build();
+        indexBuilder.clear();
+        assertEquals(1, loaded.size());
+        final List<Integer> keys = loaded.get(0).stream().map(Pair::getFirst).collect(Collectors.toList());
+        assertEquals(keys.stream().sorted().collect(Collectors.toList()), keys);
+        assertEquals(5, keys.size());
+        assertTrue(fieldKeepers.containsKey("int"));
+    }
+
+    @Test
+    public void builderFailureTest() throws ConditionException {
+        final List<List<Pair<Integer, Integer>>> loaded = new ArrayList<>();
+        final Map<String, FieldKeeper> fieldKeepers = new HashMap<>();
+        final FieldKeeper<Integer, Integer> fieldKeeper = mockBulkFieldKeeper(loaded);
+        fieldKeepers.put("int", fieldKeeper);
+        final IndexService indexService = new IndexServiceImpl(fieldKeepers, new ConditionServiceImpl(TestUtils.mockModelService()));
+        final IndexService.IndexBuilder indexBuilder = indexService.builder(Collections.singleton("int"));
+        indexBuilder.add(intRow(1));
+        indexBuilder.clear();
+        assertEquals(1, loaded.size());
+        assertTrue(loaded.get(0).isEmpty());
+        assertFalse(fieldKeepers.containsKey("int"));
+        verify(fieldKeeper).clear();
+        assertFalse(indexService.search(SimpleCondition.make(ICondition.SimpleType.EQ, "int", 1), -1).found);
+    }
+
+    @Test
+    public void builderLoadFailureTest() throws ConditionException {
+        final Map<String, FieldKeeper> fieldKeepers = new HashMap<>();
+        final FieldKeeper<Integer, Integer> fieldKeeper = (FieldKeeper<Integer, Integer>) mock(FieldKeeper.class);
+        when(fieldKeeper.getFieldName()).thenReturn("int");
+        final AtomicInteger calls = new AtomicInteger();
+        when(fieldKeeper.bulkInsert()).thenReturn(sortedPairs -> {
+            calls.incrementAndGet();
+            throw new RuntimeException("load failed");
+        });
+        fieldKeepers.put("int", fieldKeeper);
+        final IndexService indexService = new IndexServiceImpl(fieldKeepers, new ConditionServiceImpl(TestUtils.mockModelService()));
+        final IndexService.IndexBuilder indexBuilder = indexService.builder(Collections.singleton("int"));
+        indexBuilder.add(intRow(1));
+        try {
+            indexBuilder.build();
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals("load failed", e.getMessage());
+        }
+        indexBuilder.clear();
+        assertEquals(1, calls.get());
+        assertFalse(fieldKeepers.containsKey("int"));
+        verify(fieldKeeper).clear();
+        assertFalse(indexService.search(SimpleCondition.make(ICondition.SimpleType.EQ, "int", 1), -1).found);
+    }
+
+    private static Row intRow(int id) {
+        return new Row(id, new HashMap<>(Collections.singletonMap("int", id)));
+    }
+
+    private FieldKeeper<Integer, Integer> mockBulkFieldKeeper(List<List<Pair<Integer, Integer>>> loaded) {
+        final FieldKeeper<Integer, Integer> fieldKeeper = (FieldKeeper<Integer, Integer>) mock(FieldKeeper.class);
+        when(fieldKeeper.getFieldName()).thenReturn("int");
+        when(fieldKeeper.bulkInsert()).thenReturn(sortedPairs -> {
+            final List<Pair<Integer, Integer>> pairs = new ArrayList<>();
+            sortedPairs.forEachRemaining(pairs::add);
+            loaded.add(pairs);
+        });
+        return fieldKeeper;
+    }
+
     private IndexService prepareIndexService() throws ConditionException {
         final Map<String, FieldKeeper> fieldKeepers = new HashMap<>();
         fieldKeepers.put("int", mockIntFieldKeeper());
@@ -0,0 +1,297 @@
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import server.model.ConditionException;
+import server.model.ConditionService;
+import server.model.FieldKeeper;
+import server.model.ObjectConverter;
+import server.model.impl.ConditionServiceImpl;
+import server.model.impl.DataCompressorImpl;
+import server.model.impl.LinkedBPlusTree;
+import server.model.impl.ObjectConverterImpl;
+import server.model.impl.PageCacheImpl;
+import server.model.impl.PagedFile;
+import server.model.lock.LockService;
+import server.model.pojo.FieldComplexCondition;
+import server.model.pojo.FieldCondition;
+import server.model.pojo.ICondition;
+import server.model.pojo.Pair;
+import server.model.pojo.SimpleCondition;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(Parameterized.class)
+public class LinkedBPlusTreeTest extends FieldKeeperTest {
+    protected final int treeFactor;
+
+    public LinkedBPlusTreeTest(int treeFactor) {
+        this.treeFactor = treeFactor;
+    }
+
+    @Parameterized.Parameters
+    public static Collection<Object[]> data() {
+        final List<Object[]> data = new ArrayList<>();
+        for (int i = 2; i <= 15; i++) {
+            data.add(new Object[]{i});
+        }
+        return data;
+    }
+
+    @Override
+    <T extends Comparable<T>> FieldKeeper<T, Integer> prepareFieldKeeper(Class<T> clazz, String fieldName) {
+        return new TestLinkedBPlusTree<>(fieldName, "test", new ObjectConverterImpl(new DataCompressorImpl()), new ConditionServiceImpl(TestUtils.mockModelService()), treeFactor, clazz);
+    }
+
+    @Test
+    public void rangeTest() {
+        final FieldKeeper<Integer, Integer> fieldKeeper = prepareFieldKeeper(Integer.class, "int");
+        final List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            values.add(i);
+        }
+        Collections.shuffle(values, new Random(7));
+        TestUtils.doAndSleep(fieldKeeper, () -> {
+            values.forEach(value -> fieldKeeper.insert(value, value));
+            values.stream().filter(value -> value % 3 == 0).forEach(value -> fieldKeeper.delete(value, value));
+            try {
+                checkRange(fieldKeeper, SimpleCondition.make(ICondition.SimpleType.EQ, "int", 100), value -> value == 100);
+                checkRange(fieldKeeper, SimpleCondition.make(ICondition.SimpleType.GT, "int", 100), value -> value > 100);
+                checkRange(fieldKeeper, SimpleCondition.make(ICondition.SimpleType.GTE, "int", 101), value -> value >= 101);
+                checkRange(fieldKeeper, SimpleCondition.make(ICondition.SimpleType.LT, "int", 50), value -> value < 50);
+                checkRange(fieldKeeper, SimpleCondition.make(ICondition.SimpleType.LTE, "int", 50), value -> value <= 50);
+                checkRange(fieldKeeper, SimpleCondition.make(ICondition.SimpleType.NOT, "int", 50), value -> value != 50);
+                checkRange(fieldKeeper, FieldComplexCondition.make(ICondition.ComplexType.AND,
+                        SimpleCondition.make(ICondition.SimpleType.GT, "int", 40),
+                        SimpleCondition.make(ICondition.SimpleType.LTE, "int", 200)), value -> value > 40 && value <= 200);
+                checkRange(fieldKeeper, FieldComplexCondition.make(ICondition.ComplexType.AND,
+                        SimpleCondition.make(ICondition.SimpleType.GT, "int", 200),
+                        SimpleCondition.make(ICondition.SimpleType.LT, "int", 40)), value -> false);
+                checkRange(fieldKeeper, FieldComplexCondition.make(ICondition.ComplexType.OR,
+                        SimpleCondition.make(ICondition.SimpleType.LT, "int", 20),
+                        SimpleCondition.make(ICondition.SimpleType.GTE, "int", 280)), value -> value < 20 || value >= 280);
+                checkRange(fieldKeeper, FieldComplexCondition.make(ICondition.ComplexType.OR,
+                        SimpleCondition.make(ICondition.SimpleType.GT, "int", 150),
+                        SimpleCondition.make(ICondition.SimpleType.EQ, "int", 150)), value -> value >= 150);
+                assertEquals(10, fieldKeeper.conditionSearch(SimpleCondition.make(ICondition.SimpleType.GT, "int", 100), 10).size());
+            } catch (ConditionException e) {
+                throw new RuntimeException(e);
+            }
+        }, sleepTime * 3);
+        fieldKeeper.clear();
+    }
+
+    /**
+     * Потоки вставляют и удаляют свои непересекающиеся множества ключей без общей блокировки дерева,
+     * параллельно идут поиск и проход по листьям. После остановки потоков дерево должно быть корректным
+     */
+    @Test
+    public void latchTest() throws InterruptedException {
+        final TestLinkedBPlusTree<Integer, Integer> fieldKeeper = (TestLinkedBPlusTree<Integer, Integer>) prepareFieldKeeper(Integer.class, "int");
+        fieldKeeper.checked = false;
+        final int threadCount = 4;
+        final int max = Math.max(400, treeFactor * 60);
+        final List<Throwable> errors = new CopyOnWriteArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = thread; i < max; i += threadCount) {
+                        fieldKeeper.insert(i, i);
+                        fieldKeeper.insert(i, i + max);
+                    }
+                    for (int i = thread; i < max; i += threadCount) {
+                        assertEquals(new HashSet<>(Arrays.asList(i, i + max)), fieldKeeper.search(i));
+                        fieldKeeper.delete(i, i + max);
+                        if (i % 3 == 0) {
+                            assertTrue(fieldKeeper.delete(i, i).fully);
+                            assertEquals(Collections.emptySet(), fieldKeeper.search(i));
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            try {
+                for (int i = 0; i < 50; i++) {
+                    final List<Integer> keys = new ArrayList<>(fieldKeeper.conditionSearch(SimpleCondition.make(ICondition.SimpleType.GTE, "int", 0), -1));
+                    assert keys.stream().allMatch(key -> key >= 0 && key < 2 * max);
+                }
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        }));
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+        fieldKeeper.checkTree();
+        for (int i = 0; i < max; i++) {
+            assertEquals(i % 3 == 0 ? Collections.emptySet() : Collections.singleton(i), fieldKeeper.search(i));
+        }
+        TestUtils.doAndSleep(fieldKeeper, () -> {
+        }, sleepTime);
+        fieldKeeper.clear();
+    }
+
+    /**
+     * Построение из отсортированных пар разного размера. Вставки и удаления во время построения не теряются,
+     * после построения дерево корректно, принимает обычные изменения и читается заново с диска
+     */
+    @Test
+    public void bulkInsertTest() {
+        for (int size : new int[]{0, 1, treeFactor, 2 * treeFactor + 1, 1000}) {
+            final TestLinkedBPlusTree<Integer, Integer> fieldKeeper = (TestLinkedBPlusTree<Integer, Integer>) prepareFieldKeeper(Integer.class, "int");
+            fieldKeeper.insert(-1, 1);
+            fieldKeeper.insert(size / 2, -2);
+            final Consumer<Iterator<Pair<Integer, Integer>>> loader = fieldKeeper.bulkInsert();
+            fieldKeeper.insert(size + 1, -3);
+            fieldKeeper.delete(0, 0);
+            fieldKeeper.transform(size - 1, size + 2, size - 1);
+            final List<Pair<Integer, Integer>> pairs = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                pairs.add(new Pair<>(i, i));
+                if (i % 5 == 0) {
+                    pairs.add(new Pair<>(i, i + size));
+                }
+            }
+            loader.accept(pairs.iterator());
+            fieldKeeper.checkTree();
+
+            final Map<Integer, Set<Integer>> expected = new HashMap<>();
+            pairs.forEach(pair -> expected.computeIfAbsent(pair.getFirst(), key -> new HashSet<>()).add(pair.getSecond()));
+            expected.computeIfAbsent(-1, key -> new HashSet<>()).add(1);
+            expected.computeIfAbsent(size / 2, key -> new HashSet<>()).add(-2);
+            expected.computeIfAbsent(size + 1, key -> new HashSet<>()).add(-3);
+            expected.getOrDefault(0, new HashSet<>()).remove(0);
+            expected.getOrDefault(size - 1, new HashSet<>()).remove(size - 1);
+            expected.computeIfAbsent(size + 2, key -> new HashSet<>()).add(size - 1);
+            checkContent(fieldKeeper, expected, size);
+            for (int i = 0; i < size; i += 3) {
+                fieldKeeper.insert(i, -4);
+                fieldKeeper.delete(i, i);
+                expected.get(i).add(-4);
+                expected.get(i).remove(i);
+            }
+            checkContent(fieldKeeper, expected, size);
+            fieldKeeper.destroy();
+            checkContent(prepareFieldKeeper(Integer.class, "int"), expected, size);
+            fieldKeeper.clear();
+        }
+    }
+
+    private void checkContent(FieldKeeper<Integer, Integer> fieldKeeper, Map<Integer, Set<Integer>> expected, int size) {
+        for (int i = -1; i <= size + 2; i++) {
+            assertEquals(expected.getOrDefault(i, Collections.emptySet()), fieldKeeper.search(i));
+        }
+        final Set<Integer> values = new HashSet<>();
+        expected.values().forEach(values::addAll);
+        try {
+            assertEquals(values, fieldKeeper.conditionSearch(SimpleCondition.make(ICondition.SimpleType.GTE, "int", -1), -1));
+        } catch (ConditionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void checkRange(FieldKeeper<Integer, Integer> fieldKeeper, FieldCondition condition, Predicate<Integer> predicate) {
+        final Set<Integer> expected = new HashSet<>();
+        for (int i = 0; i < 300; i++) {
+            if (i % 3 != 0 && predicate.test(i)) {
+                expected.add(i);
+            }
+        }
+        assertEquals(expected, fieldKeeper.conditionSearch(condition, -1));
+    }
+
+    private static class TestLinkedBPlusTree<U extends Comparable<U>, V> extends LinkedBPlusTree<U, V> {
+        private volatile boolean checked = true;
+
+        private TestLinkedBPlusTree(String fieldName, String path, ObjectConverter objectConverter, ConditionService conditionService, int treeFactor, Class<U> keyType) {
+            super(fieldName, path, objectConverter, conditionService, treeFactor, 10, keyType, new PageCacheImpl(4096 * 8));
+        }
+
+        @Override
+        public void insert(U key, V value) {
+            if (!checked) {
+                super.insert(key, value);
+                return;
+            }
+            LockService.doInReadWriteLock(readWriteLock.writeLock(), () -> {
+                super.insert(key, value);
+                checkTree();
+            });
+        }
+
+        @Override
+        public DeleteResult delete(U key, V value) {
+            if (!checked) {
+                return super.delete(key, value);
+            }
+            return LockService.doInReadWriteLock(readWriteLock.writeLock(), () -> {
+                final DeleteResult deleteResult = super.delete(key, value);
+                checkTree();
+                return deleteResult;
+            });
+        }
+
+        @Override
+        public void transform(U oldKey, U key, V value) {
+            if (!checked) {
+                super.transform(oldKey, key, value);
+                return;
+            }
+            LockService.doInReadWriteLock(readWriteLock.writeLock(), () -> {
+                super.transform(oldKey, key, value);
+                checkTree();
+            });
+        }
+
+        /**
+         * Проверяет размеры узлов, порядок ключей и то, что цепочка листьев обходит листья дерева по порядку
+         */
+        private void checkTree() {
+            final List<Long> leaves = new ArrayList<>();
+            checkNode(readNode(getVariables().root), null, null, leaves);
+            final List<Long> chain = new ArrayList<>();
+            for (long page = getVariables().firstLeaf; page != PagedFile.NONE; page = ((Leaf<U, V>) readNode(page)).next) {
+                chain.add(page);
+            }
+            assertEquals(leaves, chain);
+        }
+
+        private void checkNode(Node<U, V> node, U lower, U upper, List<Long> leaves) {
+            final boolean isRoot = node.page == getVariables().root;
+            assert isRoot || size(node) >= treeFactor - 1;
+            assert size(node) <= 2 * treeFactor - 1;
+            final List<U> keys = new ArrayList<>();
+            if (isLeaf(node)) {
+                leaves.add(node.page);
+                ((Leaf<U, V>) node).pairs.forEach(pair -> {
+                    assert !pair.getSecond().isEmpty();
+                    keys.add(pair.getFirst());
+                });
+            } else {
+                final InternalNode<U, V> internalNode = (InternalNode<U, V>) node;
+                assert internalNode.children.size() == internalNode.keys.size() + 1;
+                internalNode.keys.forEach(pair -> keys.add(pair.getFirst()));
+                for (int i = 0; i < internalNode.children.size(); i++) {
+                    checkNode(readChild(internalNode, i), i == 0 ? lower : keys.get(i - 1), i == keys.size() ? upper : keys.get(i), leaves);
+                }
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                assert i == 0 || keys.get(i - 1).compareTo(keys.get(i)) < 0;
+                assert lower == null || keys.get(i).compareTo(lower) >= 0;
+                assert upper == null || keys.get(i).compareTo(upper) < 0;
+            }
+        }
+    }
+}
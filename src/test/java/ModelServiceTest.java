@@ -1,15 +1,16 @@
+import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Test;
 import server.model.ModelService;
+import server.model.ObjectConverter;
 import server.model.impl.DataCompressorImpl;
 import server.model.impl.ModelServiceImpl;
 import server.model.impl.ObjectConverterImpl;
 
 import java.io.File;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
@@ -19,8 +20,8 @@ public class ModelServiceTest {
     private static final String FILE_NAME = "model";
 
     @After
-    public void after() {
-        new File(FILE_NAME).delete();
+    public void after() throws IOException {
+        FileUtils.deleteDirectory(new File(FILE_NAME));
     }
 
     @Test
@@ -32,6 +33,61 @@ public class ModelServiceTest {
         assertTrue(modelService.contains("test1"));
         assertTrue(modelService.contains("test2"));
         assertFalse(modelService.contains("test3"));
+        assertEquals(new HashSet<>(Arrays.asList(1, 2)), modelService.getFields().stream().map(ModelService.FieldInfo::getOrdinal).collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void ordinalTest() {
+        final ObjectConverter objectConverter = new ObjectConverterImpl(new DataCompressorImpl());
+        final ModelService modelService = new ModelServiceImpl("", true, objectConverter, null);
+        modelService.add("test1", Integer.class);
+        modelService.add("test2", String.class);
+        modelService.delete("test2");
+        modelService.add("test3", String.class);
+        assertEquals(3, getOrdinal(modelService, "test3"));
+        modelService.delete("test3");
+        modelService.destroy();
+        final ModelService reopened = new ModelServiceImpl("", true, objectConverter, null);
+        reopened.add("test2", String.class);
+        assertEquals(1, getOrdinal(reopened, "test1"));
+        assertEquals(4, getOrdinal(reopened, "test2"));
+    }
+
+    @Test
+    public void crashTest() {
+        final ObjectConverter objectConverter = new ObjectConverterImpl(new DataCompressorImpl());
+        final ModelService modelService = new ModelServiceImpl("", true, objectConverter, null);
+        modelService.add("test1", Integer.class);
+        modelService.add("test2", String.class);
+        modelService.delete("test2");
+        final ModelService reopened = new ModelServiceImpl("", true, objectConverter, null);
+        assertEquals(1, getOrdinal(reopened, "test1"));
+        assertEquals(2, getOrdinal(reopened, "test2"));
+        assertEquals(2, reopened.getLastOrdinal());
+        reopened.add("test3", String.class);
+        assertEquals(3, getOrdinal(reopened, "test3"));
+        assertFalse(new File(FILE_NAME + "/" + FILE_NAME + ".tmp").exists());
+    }
+
+    @Test
+    public void legacyOrdinalTest() {
+        final ObjectConverter objectConverter = new ObjectConverterImpl(new DataCompressorImpl());
+        final ConcurrentHashMap<String, ModelService.FieldInfo> fields = new ConcurrentHashMap<>();
+        fields.put("test1", new ModelService.FieldInfo("test1", Integer.class, false));
+        fields.put("test2", new ModelService.FieldInfo("test2", String.class, false));
+        fields.get("test2").setOrdinal(5);
+        new File(FILE_NAME).mkdirs();
+        objectConverter.toFile(fields, FILE_NAME + "/" + FILE_NAME);
+        final ModelService modelService = new ModelServiceImpl("", true, objectConverter, null);
+        assertEquals(6, getOrdinal(modelService, "test1"));
+        assertEquals(5, getOrdinal(modelService, "test2"));
+        modelService.add("test3", String.class);
+        assertEquals(7, getOrdinal(modelService, "test3"));
+    }
+
+    private static int getOrdinal(ModelService modelService, String field) {
+        return modelService.getFields().stream().filter(info -> field.equals(info.getName())).findFirst()
+                .map(ModelService.FieldInfo::getOrdinal).orElse(0);
     }
 
     @Test
@@ -97,6 +153,29 @@ public class ModelServiceTest {
         assertEquals(new HashSet<>(Arrays.asList("test2", "test3")), modelService.getIndexedFields());
     }
 
+    @Test
+    public void addIndexFailureTest() {
+        final ModelService modelService = new ModelServiceImpl("", true, new ObjectConverterImpl(new DataCompressorImpl()), null);
+        modelService.add("test1", Byte.class);
+        modelService.add("test2", Character.class);
+        modelService.addIndex("test1");
+        final List<Set<String>> notified = new ArrayList<>();
+        modelService.subscribeOnIndexesChanges(fields -> {
+            notified.add(fields);
+            if (fields.contains("test2")) {
+                throw new RuntimeException("scan failed");
+            }
+        });
+        try {
+            modelService.addIndex("test1", "test2");
+            fail("index must not be added");
+        } catch (RuntimeException e) {
+            assertEquals("scan failed", e.getMessage());
+        }
+        assertEquals(new HashSet<>(Collections.singletonList("test1")), modelService.getIndexedFields());
+        assertEquals(Arrays.asList(new HashSet<>(Arrays.asList("test1", "test2")), Collections.singleton("test1")), notified);
+    }
+
     @Test
     public void deleteIndexTest() {
         final ModelService modelService = new ModelServiceImpl("", true, new ObjectConverterImpl(new DataCompressorImpl()), null);
@@ -0,0 +1,166 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import server.model.PageCache;
+import server.model.impl.PageCacheImpl;
+import server.model.impl.PagedFile;
+import server.model.pojo.CacheStatistics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PagedFileTest {
+    private static final String FILE_NAME = "test.paged";
+
+    @Before
+    @After
+    public void delete() {
+        new File(FILE_NAME).delete();
+    }
+
+    @Test
+    public void recordTest() {
+        final PagedFile pagedFile = new PagedFile(FILE_NAME, 128, new PageCacheImpl(1024 * 1024));
+        final byte[] small = bytes(50, 1);
+        final byte[] large = bytes(1000, 2);
+        final long smallPage = pagedFile.write(PagedFile.NONE, small);
+        final long largePage = pagedFile.write(PagedFile.NONE, large);
+        assertArrayEquals(small, pagedFile.read(smallPage));
+        assertArrayEquals(large, pagedFile.read(largePage));
+        final long pageCount = pagedFile.getPageCount();
+
+        assertEquals(largePage, pagedFile.write(largePage, small));
+        assertArrayEquals(small, pagedFile.read(largePage));
+        assertEquals(smallPage, pagedFile.write(smallPage, large));
+        assertArrayEquals(large, pagedFile.read(smallPage));
+        assertEquals(pageCount, pagedFile.getPageCount());
+
+        pagedFile.free(smallPage);
+        final long page = pagedFile.write(PagedFile.NONE, large);
+        assertArrayEquals(large, pagedFile.read(page));
+        assertArrayEquals(small, pagedFile.read(largePage));
+        assertEquals(pageCount, pagedFile.getPageCount());
+        pagedFile.close();
+    }
+
+    @Test
+    public void reopenTest() {
+        final PageCache pageCache = new PageCacheImpl(1024 * 1024);
+        final byte[] record = bytes(700, 3);
+        {
+            final PagedFile pagedFile = new PagedFile(FILE_NAME, 256, pageCache);
+            pagedFile.setRoot(pagedFile.write(PagedFile.NONE, record));
+            pagedFile.free(pagedFile.write(PagedFile.NONE, bytes(900, 4)));
+            pagedFile.sync();
+            pagedFile.close();
+        }
+        assertTrue(PagedFile.isPagedFile(FILE_NAME));
+        final PagedFile pagedFile = new PagedFile(FILE_NAME, 4096, pageCache);
+        assertEquals(256, pagedFile.getPageSize());
+        assertArrayEquals(record, pagedFile.read(pagedFile.getRoot()));
+        final long pageCount = pagedFile.getPageCount();
+        pagedFile.write(PagedFile.NONE, bytes(600, 5));
+        assertEquals(pageCount, pagedFile.getPageCount());
+        pagedFile.close();
+    }
+
+    @Test
+    public void checksumTest() throws IOException {
+        final long page;
+        {
+            final PagedFile pagedFile = new PagedFile(FILE_NAME, 128, new PageCacheImpl(1024 * 1024));
+            page = pagedFile.write(PagedFile.NONE, bytes(50, 6));
+            pagedFile.sync();
+            pagedFile.close();
+        }
+        final byte[] content = Files.readAllBytes(new File(FILE_NAME).toPath());
+        final byte[] record = bytes(50, 6);
+        int position = 0;
+        while (!Arrays.equals(record, Arrays.copyOfRange(content, position, position + record.length))) {
+            position++;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(FILE_NAME, "rw")) {
+            file.seek(position + 10);
+            file.write(0xFF);
+        }
+        final PagedFile pagedFile = new PagedFile(FILE_NAME, 128, new PageCacheImpl(1024 * 1024));
+        try {
+            pagedFile.read(page);
+            fail("checksum must not match");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("checksum"));
+        }
+        pagedFile.close();
+    }
+
+    @Test
+    public void crashTest() {
+        final PageCache pageCache = new PageCacheImpl(1024 * 1024);
+        final long first;
+        final long second;
+        {
+            final PagedFile pagedFile = new PagedFile(FILE_NAME, 128, pageCache);
+            first = pagedFile.write(PagedFile.NONE, bytes(300, 1));
+            second = pagedFile.write(PagedFile.NONE, bytes(500, 2));
+            pagedFile.setRoot(first);
+            pagedFile.sync();
+            pagedFile.write(first, bytes(400, 3));
+            pagedFile.free(second);
+            pagedFile.setRoot(pagedFile.write(PagedFile.NONE, bytes(700, 4)));
+            pagedFile.write(PagedFile.NONE, bytes(900, 5));
+            pagedFile.close();
+        }
+        final PagedFile pagedFile = new PagedFile(FILE_NAME, 128, pageCache);
+        assertEquals(first, pagedFile.getRoot());
+        assertArrayEquals(bytes(300, 1), pagedFile.read(first));
+        assertArrayEquals(bytes(500, 2), pagedFile.read(second));
+        pagedFile.write(first, bytes(400, 3));
+        pagedFile.sync();
+        pagedFile.close();
+        final PagedFile reopened = new PagedFile(FILE_NAME, 128, pageCache);
+        assertArrayEquals(bytes(400, 3), reopened.read(first));
+        assertArrayEquals(bytes(500, 2), reopened.read(second));
+        reopened.close();
+    }
+
+    @Test
+    public void pendingTest() {
+        final PagedFile pagedFile = new PagedFile(FILE_NAME, 128, new PageCacheImpl(1024 * 1024));
+        final long id = pagedFile.write(PagedFile.NONE, bytes(1000, 1));
+        pagedFile.sync();
+        final long pageCount = pagedFile.getPageCount();
+        pagedFile.free(id);
+        pagedFile.write(PagedFile.NONE, bytes(1000, 2));
+        assertTrue(pagedFile.getPageCount() > pageCount);
+        pagedFile.sync();
+        final long syncedPageCount = pagedFile.getPageCount();
+        pagedFile.write(PagedFile.NONE, bytes(1000, 3));
+        assertEquals(syncedPageCount, pagedFile.getPageCount());
+        pagedFile.close();
+    }
+
+    @Test
+    public void cacheBudgetTest() {
+        final PageCache pageCache = new PageCacheImpl(128 * 4);
+        final PagedFile pagedFile = new PagedFile(FILE_NAME, 128, pageCache);
+        final long page = pagedFile.write(PagedFile.NONE, bytes(1000, 7));
+        assertArrayEquals(bytes(1000, 7), pagedFile.read(page));
+        final CacheStatistics statistics = pageCache.getStatistics();
+        assertTrue(statistics.getBytes() <= 128 * 4);
+        assertTrue(statistics.getEvictions() > 0);
+        pagedFile.close();
+        assertEquals(0, pageCache.getStatistics().getSize());
+    }
+
+    private static byte[] bytes(int size, int seed) {
+        final byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,110 @@
+import org.junit.Test;
+import server.model.RowCache;
+import server.model.impl.RowCacheImpl;
+import server.model.pojo.CacheStatistics;
+import server.model.pojo.Row;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class RowCacheTest {
+
+    @Test
+    public void fullTest() {
+        final RowCache rowCache = new RowCacheImpl(10000);
+        final int table = rowCache.register();
+        assertNull(rowCache.get(table, 1));
+        final Row row = new Row(1, new HashMap<>());
+        rowCache.put(table, row, 100, rowCache.stamp(table));
+        assertEquals(row, rowCache.get(table, 1));
+
+        final long stamp = rowCache.stamp(table);
+        rowCache.invalidate(table, 1);
+        assertNull(rowCache.get(table, 1));
+        rowCache.put(table, row, 100, stamp);
+        assertNull(rowCache.get(table, 1));
+        rowCache.put(table, row, 100, rowCache.stamp(table));
+        assertEquals(row, rowCache.get(table, 1));
+
+        rowCache.put(table, new Row(2, new HashMap<>()), 20000, rowCache.stamp(table));
+        assertNull(rowCache.get(table, 2));
+
+        final CacheStatistics statistics = rowCache.getStatistics();
+        assertEquals(2, statistics.getHits());
+        assertEquals(4, statistics.getMisses());
+        assertEquals(1, statistics.getSize());
+        assertEquals(100, statistics.getBytes());
+        assertEquals(10000, statistics.getMaxBytes());
+    }
+
+    @Test
+    public void budgetTest() {
+        final RowCache rowCache = new RowCacheImpl(10000);
+        final int table = rowCache.register();
+        for (int i = 0; i < 1000; i++) {
+            rowCache.get(table, i);
+            rowCache.put(table, new Row(i, new HashMap<>()), 100, rowCache.stamp(table));
+        }
+        final CacheStatistics statistics = rowCache.getStatistics();
+        assertTrue(statistics.getBytes() <= 10000);
+        assertEquals(statistics.getSize() * 100, statistics.getBytes());
+        assertEquals(1000 - statistics.getSize(), statistics.getEvictions());
+    }
+
+    @Test
+    public void tablesTest() {
+        final RowCache rowCache = new RowCacheImpl(10000);
+        final int first = rowCache.register();
+        final int second = rowCache.register();
+        final Row firstRow = new Row(1, new HashMap<>());
+        final Row secondRow = new Row(1, new HashMap<>());
+        secondRow.getFields().put("field", "value");
+        rowCache.put(first, firstRow, 100, rowCache.stamp(first));
+        final long secondStamp = rowCache.stamp(second);
+        rowCache.invalidate(first, 2);
+        rowCache.put(second, secondRow, 100, secondStamp);
+        assertEquals(firstRow, rowCache.get(first, 1));
+        assertEquals(secondRow, rowCache.get(second, 1));
+
+        for (int i = 2; i < 1000; i++) {
+            rowCache.put(second, new Row(i, new HashMap<>()), 100, rowCache.stamp(second));
+        }
+        assertTrue(rowCache.getStatistics().getBytes() <= 10000);
+
+        rowCache.invalidate(second);
+        assertEquals(firstRow, rowCache.get(first, 1));
+        assertNull(rowCache.get(second, 1));
+        assertEquals(100, rowCache.getStatistics().getBytes());
+    }
+
+    @Test
+    public void scanResistanceTest() {
+        final RowCache rowCache = new RowCacheImpl(10000);
+        final int table = rowCache.register();
+        for (int i = 0; i < 50; i++) {
+            for (int j = 0; j < 5; j++) {
+                if (rowCache.get(table, i) == null) {
+                    rowCache.put(table, new Row(i, new HashMap<>()), 100, rowCache.stamp(table));
+                }
+            }
+        }
+        int hot = 0;
+        for (int i = 1000; i < 11000; i++) {
+            if (rowCache.get(table, i) == null) {
+                rowCache.put(table, new Row(i, new HashMap<>()), 100, rowCache.stamp(table));
+            }
+            if (i % 200 == 0) {
+                hot = 0;
+                for (int j = 0; j < 50; j++) {
+                    if (rowCache.get(table, j) != null) {
+                        hot++;
+                    } else {
+                        rowCache.put(table, new Row(j, new HashMap<>()), 100, rowCache.stamp(table));
+                    }
+                }
+            }
+        }
+        assertTrue("hot rows left " + hot, hot >= 45);
+    }
+}
@@ -0,0 +1,118 @@
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import server.model.ModelService;
+import server.model.ObjectConverter;
+import server.model.RowConverter;
+import server.model.impl.DataCompressorImpl;
+import server.model.impl.ModelServiceImpl;
+import server.model.impl.ObjectConverterImpl;
+import server.model.impl.RowConverterImpl;
+import server.model.pojo.Row;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RowConverterTest {
+    private final ObjectConverter objectConverter = new ObjectConverterImpl(new DataCompressorImpl());
+
+    @Test
+    public void bytesTest() {
+        final RowConverter rowConverter = new RowConverterImpl(mockModelService(), objectConverter);
+        final Map<String, Comparable> fields = new HashMap<>();
+        fields.put("byte", (byte) -5);
+        fields.put("char", 'ж');
+        fields.put("short", (short) -300);
+        fields.put("int", Integer.MIN_VALUE);
+        fields.put("long", Long.MAX_VALUE);
+        fields.put("float", 1.5f);
+        fields.put("double", -2.25d);
+        fields.put("string", "строка");
+        fields.put("unknown", 100);
+        fields.put("null", null);
+        final Row row = new Row(123456, fields);
+        final byte[] bytes = rowConverter.toBytes(row);
+        assertEquals(row, rowConverter.fromBytes(bytes));
+        assertTrue(bytes.length < objectConverter.toBytes(row).length);
+    }
+
+    @Test
+    public void legacyBytesTest() {
+        final RowConverter rowConverter = new RowConverterImpl(mockModelService(), objectConverter);
+        final Row row = TestUtils.generateRow(10, 10);
+        assertEquals(row, rowConverter.fromBytes(objectConverter.toBytes(row)));
+        final Map<String, Comparable> fields = new HashMap<>();
+        fields.put("boolean", true);
+        final Row notSupported = new Row(1, fields);
+        assertEquals(notSupported, rowConverter.fromBytes(rowConverter.toBytes(notSupported)));
+    }
+
+    @Test
+    public void deletedFieldsTest() throws IOException {
+        final ModelServiceImpl modelService = new ModelServiceImpl("", true, objectConverter, null);
+        try {
+            modelService.stop();
+            modelService.add("int", Integer.class);
+            modelService.add("string", String.class);
+            final RowConverter rowConverter = new RowConverterImpl(modelService, objectConverter);
+            final Map<String, Comparable> fields = new HashMap<>();
+            fields.put("int", 1);
+            fields.put("string", "value");
+            fields.put("unknown", 2);
+            final byte[] bytes = rowConverter.toBytes(new Row(1, fields));
+            assertFalse(rowConverter.hasDeletedFields(bytes));
+            assertFalse(rowConverter.hasDeletedFields(objectConverter.toBytes(new Row(1, fields))));
+            modelService.delete("string");
+            assertTrue(rowConverter.hasDeletedFields(bytes));
+            fields.remove("string");
+            assertEquals(new Row(1, fields), rowConverter.fromBytes(bytes));
+            modelService.add("string", String.class);
+            assertTrue(rowConverter.hasDeletedFields(bytes));
+            assertEquals(new Row(1, fields), rowConverter.fromBytes(bytes));
+        } finally {
+            FileUtils.deleteDirectory(new File("model"));
+        }
+    }
+
+    @Test
+    public void unknownOrdinalTest() {
+        final Map<String, Comparable> fields = new HashMap<>();
+        fields.put("int", 1);
+        fields.put("string", "value");
+        final byte[] bytes = new RowConverterImpl(mockModelService(), objectConverter).toBytes(new Row(1, fields));
+        final ModelService modelService = mock(ModelService.class);
+        final ModelService.FieldInfo info = new ModelService.FieldInfo("int", Integer.class, false);
+        info.setOrdinal(4);
+        when(modelService.getFields()).thenReturn(Collections.singletonList(info));
+        final RowConverter rowConverter = new RowConverterImpl(modelService, objectConverter);
+        try {
+            rowConverter.fromBytes(bytes);
+            fail("never");
+        } catch (IllegalStateException e) {
+            assertEquals("unknown field ordinal 8, last ordinal 4", e.getMessage());
+        }
+        when(modelService.getLastOrdinal()).thenReturn(8);
+        fields.remove("string");
+        assertEquals(new Row(1, fields), rowConverter.fromBytes(bytes));
+        assertTrue(rowConverter.hasDeletedFields(bytes));
+    }
+
+    private ModelService mockModelService() {
+        final ModelService modelService = mock(ModelService.class);
+        final String[] names = {"byte", "char", "short", "int", "long", "float", "double", "string"};
+        final ModelService.FieldInfo[] infos = new ModelService.FieldInfo[names.length];
+        for (int i = 0; i < names.length; i++) {
+            infos[i] = new ModelService.FieldInfo(names[i], ModelService.types.get(i), false);
+            infos[i].setOrdinal(i + 1);
+        }
+        when(modelService.getFields()).thenReturn(Arrays.asList(infos));
+        return modelService;
+    }
+}
@@ -10,13 +10,18 @@ import server.model.Utils;
 import server.model.impl.DataCompressorImpl;
 import server.model.impl.DestroyServiceImpl;
 import server.model.impl.ObjectConverterImpl;
+import server.model.impl.RowIdRepositoryImpl;
+import server.model.pojo.CacheStatistics;
 import server.model.pojo.RowAddress;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -54,6 +59,20 @@ public class RowIdRepositoryTest {
         });
     }
 
+    @Test
+    public void rowFileIdsTest() {
+        final int lastId = 750;
+        createFiles(lastId);
+        final RowIdRepository rowIdRepository = prepareRowIdRepository(maxIdSize);
+        TestUtils.doAndSleep(rowIdRepository, () -> {
+            final Map<String, Set<Integer>> expected = new HashMap<>();
+            rowIdRepository.batchStream().forEach(rowAddress -> expected.computeIfAbsent(rowAddress.getFilePath(), k -> new HashSet<>()).add(rowAddress.getId()));
+            assertEquals(3, expected.size());
+            expected.forEach((fileName, idSet) -> assertEquals(idSet, new HashSet<>(rowIdRepository.getRowFileIds(fileName))));
+            assertEquals(250, rowIdRepository.getRowFileIds(rowIdRepository.getRowFileName(750)).size());
+        });
+    }
+
     @Test
     public void processTest() {
         final int lastId = 750;
@@ -69,54 +88,50 @@ public class RowIdRepositoryTest {
                 assertEquals(1, rowAddress.getId());
                 assertEquals(0, rowAddress.getPosition());
                 assertEquals(rowAddressSize, rowAddress.getSize());
-                final RowAddress rowAddressNext = new RowAddress(filesRowPath + "/" + filesRowPath + 1, 2, 5, rowAddressSize);
-                assertEquals(rowAddressNext.getId(), rowAddress.getNext());
             }));
+            assertNext(rowIdRepository, 1, 2);
             assertTrue(rowIdRepository.process(250, rowAddress -> {
                 assertEquals(filesRowPath + "/" + filesRowPath + 1, rowAddress.getFilePath());
                 assertEquals(250, rowAddress.getId());
                 assertEquals(1245, rowAddress.getPosition());
                 assertEquals(rowAddressSize, rowAddress.getSize());
-                assertEquals(-1, rowAddress.getNext());
             }));
+            assertNext(rowIdRepository, 250, -1);
             assertTrue(rowIdRepository.process(499, rowAddress -> {
                 assertEquals(filesRowPath + "/" + filesRowPath + 2, rowAddress.getFilePath());
                 assertEquals(499, rowAddress.getId());
                 assertEquals(1240, rowAddress.getPosition());
                 assertEquals(rowAddressSize, rowAddress.getSize());
-                final RowAddress rowAddressNext = new RowAddress(filesRowPath + "/" + filesRowPath + 2, 500, 1245, rowAddressSize);
-                assertEquals(rowAddressNext.getId(), rowAddress.getNext());
             }));
+            assertNext(rowIdRepository, 499, 500);
             assertTrue(rowIdRepository.process(500, rowAddress -> {
                 assertEquals(filesRowPath + "/" + filesRowPath + 2, rowAddress.getFilePath());
                 assertEquals(500, rowAddress.getId());
                 assertEquals(1245, rowAddress.getPosition());
                 assertEquals(rowAddressSize, rowAddress.getSize());
-                assertEquals(-1, rowAddress.getNext());
             }));
+            assertNext(rowIdRepository, 500, -1);
             assertTrue(rowIdRepository.process(501, rowAddress -> {
                 assertEquals(filesRowPath + "/" + filesRowPath + 3, rowAddress.getFilePath());
                 assertEquals(501, rowAddress.getId());
                 assertEquals(0, rowAddress.getPosition());
                 assertEquals(rowAddressSize, rowAddress.getSize());
-                final RowAddress rowAddressNext = new RowAddress(filesRowPath + "/" + filesRowPath + 3, 502, 5, rowAddressSize);
-                assertEquals(rowAddressNext.getId(), rowAddress.getNext());
             }));
+            assertNext(rowIdRepository, 501, 502);
             assertTrue(rowIdRepository.process(749, rowAddress -> {
                 assertEquals(filesRowPath + "/" + filesRowPath + 3, rowAddress.getFilePath());
                 assertEquals(749, rowAddress.getId());
                 assertEquals(1240, rowAddress.getPosition());
                 assertEquals(rowAddressSize, rowAddress.getSize());
-                final RowAddress rowAddressNext = new RowAddress(filesRowPath + "/" + filesRowPath + 3, 750, 1245, rowAddressSize);
-                assertEquals(rowAddressNext.getId(), rowAddress.getNext());
             }));
+            assertNext(rowIdRepository, 749, 750);
             assertTrue(rowIdRepository.process(750, rowAddress -> {
                 assertEquals(filesRowPath + "/" + filesRowPath + 3, rowAddress.getFilePath());
                 assertEquals(750, rowAddress.getId());
                 assertEquals(1245, rowAddress.getPosition());
                 assertEquals(rowAddressSize, rowAddress.getSize());
-                assertEquals(-1, rowAddress.getNext());
             }));
+            assertNext(rowIdRepository, 750, -1);
             assertFalse(rowIdRepository.process(751, rowAddress -> {
             }));
         });
@@ -144,9 +159,9 @@ public class RowIdRepositoryTest {
                 assertEquals(751, rowAddress.getId());
                 assertEquals(0, rowAddress.getPosition());
                 assertEquals(10, rowAddress.getSize());
-                assertEquals(-1, rowAddress.getPrevious());
-                assertEquals(-1, rowAddress.getNext());
             }));
+            assertPrevious(rowIdRepository, 751, -1);
+            assertNext(rowIdRepository, 751, -1);
         });
     }
 
@@ -165,30 +180,30 @@ public class RowIdRepositoryTest {
                     assertEquals(250, rowAddress.getId());
                     assertEquals(1245, rowAddress.getPosition());
                     assertEquals(rowAddressSize, rowAddress.getSize());
-                    assertEquals(-1, rowAddress.getNext());
                 }));
+                assertNext(rowIdRepository, 250, -1);
                 assertTrue(rowIdRepository.process(750, rowAddress -> {
                     assertEquals(filesRowPath + "/" + filesRowPath + 3, rowAddress.getFilePath());
                     assertEquals(750, rowAddress.getId());
                     assertEquals(1245, rowAddress.getPosition());
                     assertEquals(rowAddressSize, rowAddress.getSize());
-                    assertEquals(-1, rowAddress.getNext());
                 }));
+                assertNext(rowIdRepository, 750, -1);
                 assertTrue(rowIdRepository.process(751, rowAddress -> {
                     assertEquals(filesRowPath + "/" + filesRowPath + 4, rowAddress.getFilePath());
                     assertEquals(751, rowAddress.getId());
                     assertEquals(0, rowAddress.getPosition());
                     assertEquals(10, rowAddress.getSize());
-                    assertEquals(-1, rowAddress.getPrevious());
-                    assertEquals(-1, rowAddress.getNext());
                 }));
+                assertPrevious(rowIdRepository, 751, -1);
+                assertNext(rowIdRepository, 751, -1);
                 assertTrue(rowIdRepository.process(250, rowAddress -> {
                     assertEquals(filesRowPath + "/" + filesRowPath + 1, rowAddress.getFilePath());
                     assertEquals(250, rowAddress.getId());
                     assertEquals(1245, rowAddress.getPosition());
                     assertEquals(rowAddressSize, rowAddress.getSize());
-                    assertEquals(-1, rowAddress.getNext());
                 }));
+                assertNext(rowIdRepository, 250, -1);
                 rowIdRepository.save(rowIdRepository.newId(), rowAddress -> {
                     rowAddress.setSize(67);
                 });
@@ -197,49 +212,46 @@ public class RowIdRepositoryTest {
                     assertEquals(250, rowAddress.getId());
                     assertEquals(1245, rowAddress.getPosition());
                     assertEquals(rowAddressSize, rowAddress.getSize());
-                    assertEquals(-1, rowAddress.getNext());
                 }));
+                assertNext(rowIdRepository, 250, -1);
                 assertTrue(rowIdRepository.process(750, rowAddress -> {
                     assertEquals(filesRowPath + "/" + filesRowPath + 3, rowAddress.getFilePath());
                     assertEquals(750, rowAddress.getId());
                     assertEquals(1245, rowAddress.getPosition());
                     assertEquals(rowAddressSize, rowAddress.getSize());
-                    assertEquals(-1, rowAddress.getNext());
                 }));
+                assertNext(rowIdRepository, 750, -1);
                 assertTrue(rowIdRepository.process(751, rowAddress -> {
                     assertEquals(filesRowPath + "/" + filesRowPath + 4, rowAddress.getFilePath());
                     assertEquals(751, rowAddress.getId());
                     assertEquals(0, rowAddress.getPosition());
                     assertEquals(10, rowAddress.getSize());
-                    assertEquals(-1, rowAddress.getPrevious());
-                    final RowAddress rowAddressNext = new RowAddress(filesRowPath + "/" + filesRowPath + 4, 752, 10, 67);
-                    assertEquals(rowAddressNext.getId(), rowAddress.getNext());
                 }));
+                assertPrevious(rowIdRepository, 751, -1);
+                assertNext(rowIdRepository, 751, 752);
                 assertTrue(rowIdRepository.process(752, rowAddress -> {
                     assertEquals(filesRowPath + "/" + filesRowPath + 4, rowAddress.getFilePath());
                     assertEquals(752, rowAddress.getId());
                     assertEquals(10, rowAddress.getPosition());
                     assertEquals(67, rowAddress.getSize());
-                    final RowAddress rowAddressPrevious = new RowAddress(filesRowPath + "/" + filesRowPath + 4, 751, 0, 10);
-                    assertEquals(rowAddressPrevious.getId(), rowAddress.getPrevious());
-                    assertEquals(-1, rowAddress.getNext());
                 }));
+                assertPrevious(rowIdRepository, 752, 751);
+                assertNext(rowIdRepository, 752, -1);
                 assertTrue(rowIdRepository.process(250, rowAddress -> {
                     assertEquals(filesRowPath + "/" + filesRowPath + 1, rowAddress.getFilePath());
                     assertEquals(250, rowAddress.getId());
                     assertEquals(1245, rowAddress.getPosition());
                     assertEquals(rowAddressSize, rowAddress.getSize());
-                    assertEquals(-1, rowAddress.getNext());
                 }));
+                assertNext(rowIdRepository, 250, -1);
                 assertTrue(rowIdRepository.process(752, rowAddress -> {
                     assertEquals(filesRowPath + "/" + filesRowPath + 4, rowAddress.getFilePath());
                     assertEquals(752, rowAddress.getId());
                     assertEquals(10, rowAddress.getPosition());
                     assertEquals(67, rowAddress.getSize());
-                    final RowAddress rowAddressPrevious = new RowAddress(filesRowPath + "/" + filesRowPath + 4, 751, 0, 10);
-                    assertEquals(rowAddressPrevious.getId(), rowAddress.getPrevious());
-                    assertEquals(-1, rowAddress.getNext());
                 }));
+                assertPrevious(rowIdRepository, 752, 751);
+                assertNext(rowIdRepository, 752, -1);
             });
         }
         {
@@ -255,47 +267,43 @@ public class RowIdRepositoryTest {
                     assertEquals(501, rowAddress.getId());
                     assertEquals(0, rowAddress.getPosition());
                     assertEquals(14, rowAddress.getSize());
-                    final RowAddress rowAddressNext = new RowAddress(filesRowPath + "/" + filesRowPath + 3, 502, 14, rowAddressSize);
-                    assertEquals(rowAddressNext.getId(), rowAddress.getNext());
                 }));
+                assertNext(rowIdRepository, 501, 502);
                 assertTrue(rowIdRepository.process(650, rowAddress -> {
                     assertEquals(filesRowPath + "/" + filesRowPath + 3, rowAddress.getFilePath());
                     assertEquals(650, rowAddress.getId());
                     assertEquals(754, rowAddress.getPosition());
                     assertEquals(rowAddressSize, rowAddress.getSize());
-                    final RowAddress rowAddressNext = new RowAddress(filesRowPath + "/" + filesRowPath + 3, 651, 759, rowAddressSize);
-                    assertEquals(rowAddressNext.getId(), rowAddress.getNext());
                 }));
+                assertNext(rowIdRepository, 650, 651);
                 assertTrue(rowIdRepository.process(750, rowAddress -> {
                     assertEquals(filesRowPath + "/" + filesRowPath + 3, rowAddress.getFilePath());
                     assertEquals(750, rowAddress.getId());
                     assertEquals(1254, rowAddress.getPosition());
                     assertEquals(rowAddressSize, rowAddress.getSize());
-                    assertEquals(-1, rowAddress.getNext());
                 }));
+                assertNext(rowIdRepository, 750, -1);
                 assertTrue(rowIdRepository.process(1, rowAddress -> {
                     assertEquals(filesRowPath + "/" + filesRowPath + 1, rowAddress.getFilePath());
                     assertEquals(1, rowAddress.getId());
                     assertEquals(0, rowAddress.getPosition());
                     assertEquals(rowAddressSize, rowAddress.getSize());
-                    final RowAddress rowAddressNext = new RowAddress(filesRowPath + "/" + filesRowPath + 1, 2, 5, rowAddressSize);
-                    assertEquals(rowAddressNext.getId(), rowAddress.getNext());
                 }));
+                assertNext(rowIdRepository, 1, 2);
                 assertTrue(rowIdRepository.process(250, rowAddress -> {
                     assertEquals(filesRowPath + "/" + filesRowPath + 1, rowAddress.getFilePath());
                     assertEquals(250, rowAddress.getId());
                     assertEquals(1245, rowAddress.getPosition());
                     assertEquals(7, rowAddress.getSize());
-                    assertEquals(-1, rowAddress.getNext());
                 }));
+                assertNext(rowIdRepository, 250, -1);
                 assertTrue(rowIdRepository.process(499, rowAddress -> {
                     assertEquals(filesRowPath + "/" + filesRowPath + 2, rowAddress.getFilePath());
                     assertEquals(499, rowAddress.getId());
                     assertEquals(1240, rowAddress.getPosition());
                     assertEquals(rowAddressSize, rowAddress.getSize());
-                    final RowAddress rowAddressNext = new RowAddress(filesRowPath + "/" + filesRowPath + 2, 500, 1245, rowAddressSize);
-                    assertEquals(rowAddressNext.getId(), rowAddress.getNext());
                 }));
+                assertNext(rowIdRepository, 499, 500);
                 rowIdRepository.save(100, rowAddress -> {
                     rowAddress.setSize(15);
                 });
@@ -304,37 +312,58 @@ public class RowIdRepositoryTest {
                     assertEquals(99, rowAddress.getId());
                     assertEquals(490, rowAddress.getPosition());
                     assertEquals(rowAddressSize, rowAddress.getSize());
-                    final RowAddress rowAddressNext = new RowAddress(filesRowPath + "/" + filesRowPath + 1, 100, 495, 15);
-                    assertEquals(rowAddressNext.getId(), rowAddress.getNext());
                 }));
+                assertNext(rowIdRepository, 99, 100);
                 assertTrue(rowIdRepository.process(100, rowAddress -> {
                     assertEquals(filesRowPath + "/" + filesRowPath + 1, rowAddress.getFilePath());
                     assertEquals(100, rowAddress.getId());
                     assertEquals(495, rowAddress.getPosition());
                     assertEquals(15, rowAddress.getSize());
-                    final RowAddress rowAddressNext = new RowAddress(filesRowPath + "/" + filesRowPath + 1, 101, 510, rowAddressSize);
-                    assertEquals(rowAddressNext.getId(), rowAddress.getNext());
                 }));
+                assertNext(rowIdRepository, 100, 101);
                 assertTrue(rowIdRepository.process(250, rowAddress -> {
                     assertEquals(filesRowPath + "/" + filesRowPath + 1, rowAddress.getFilePath());
                     assertEquals(250, rowAddress.getId());
                     assertEquals(1255, rowAddress.getPosition());
                     assertEquals(7, rowAddress.getSize());
-                    assertEquals(-1, rowAddress.getNext());
                 }));
+                assertNext(rowIdRepository, 250, -1);
                 assertTrue(rowIdRepository.process(251, rowAddress -> {
                     assertEquals(filesRowPath + "/" + filesRowPath + 2, rowAddress.getFilePath());
                     assertEquals(251, rowAddress.getId());
                     assertEquals(0, rowAddress.getPosition());
                     assertEquals(rowAddressSize, rowAddress.getSize());
-                    assertEquals(-1, rowAddress.getPrevious());
-                    final RowAddress rowAddressNext = new RowAddress(filesRowPath + "/" + filesRowPath + 2, 252, 5, rowAddressSize);
-                    assertEquals(rowAddressNext.getId(), rowAddress.getNext());
                 }));
+                assertPrevious(rowIdRepository, 251, -1);
+                assertNext(rowIdRepository, 251, 252);
             });
         }
     }
 
+    @Test
+    public void previousTest() {
+        final int lastId = 750;
+        createFiles(lastId);
+        final RowIdRepository rowIdRepository = prepareRowIdRepository(maxIdSize);
+        TestUtils.doAndSleep(rowIdRepository, () -> {
+            rowIdRepository.delete(750);
+            rowIdRepository.delete(749);
+            rowIdRepository.add(750, rowAddress -> {
+                assertEquals(748, rowAddress.getPrevious());
+                assertEquals(1240, rowAddress.getPosition());
+            });
+            rowIdRepository.add(749, rowAddress -> {
+                assertEquals(748, rowAddress.getPrevious());
+                assertEquals(1240, rowAddress.getPosition());
+            });
+            rowIdRepository.add(rowIdRepository.newId(), rowAddress -> {
+                assertEquals(751, rowAddress.getId());
+                assertEquals(-1, rowAddress.getPrevious());
+                assertEquals(0, rowAddress.getPosition());
+            });
+        });
+    }
+
     @Test
     public void deleteTest() {
         final int lastId = 750;
@@ -346,11 +375,9 @@ public class RowIdRepositoryTest {
                 assertEquals(300, rowAddress.getId());
                 assertEquals(245, rowAddress.getPosition());
                 assertEquals(rowAddressSize, rowAddress.getSize());
-                final RowAddress rowAddressPrevious = new RowAddress(filesRowPath + "/" + filesRowPath + 2, 299, 240, rowAddressSize);
-                assertEquals(rowAddressPrevious.getId(), rowAddress.getPrevious());
-                final RowAddress rowAddressNext = new RowAddress(filesRowPath + "/" + filesRowPath + 2, 301, 250, rowAddressSize);
-                assertEquals(rowAddressNext.getId(), rowAddress.getNext());
             }));
+            assertPrevious(rowIdRepository, 300, 299);
+            assertNext(rowIdRepository, 300, 301);
             rowIdRepository.delete(300);
             assertFalse(rowIdRepository.process(300, rowAddress -> {
 
@@ -360,28 +387,24 @@ public class RowIdRepositoryTest {
                 assertEquals(750, rowAddress.getId());
                 assertEquals(1245, rowAddress.getPosition());
                 assertEquals(rowAddressSize, rowAddress.getSize());
-                assertEquals(-1, rowAddress.getNext());
             }));
+            assertNext(rowIdRepository, 750, -1);
             assertTrue(rowIdRepository.process(299, rowAddress -> {
                 assertEquals(filesRowPath + "/" + filesRowPath + 2, rowAddress.getFilePath());
                 assertEquals(299, rowAddress.getId());
                 assertEquals(240, rowAddress.getPosition());
                 assertEquals(rowAddressSize, rowAddress.getSize());
-                final RowAddress rowAddressPrevious = new RowAddress(filesRowPath + "/" + filesRowPath + 2, 298, 235, rowAddressSize);
-                assertEquals(rowAddressPrevious.getId(), rowAddress.getPrevious());
-                final RowAddress rowAddressNext = new RowAddress(filesRowPath + "/" + filesRowPath + 2, 301, 245, rowAddressSize);
-                assertEquals(rowAddressNext.getId(), rowAddress.getNext());
             }));
+            assertPrevious(rowIdRepository, 299, 298);
+            assertNext(rowIdRepository, 299, 301);
             assertTrue(rowIdRepository.process(301, rowAddress -> {
                 assertEquals(filesRowPath + "/" + filesRowPath + 2, rowAddress.getFilePath());
                 assertEquals(301, rowAddress.getId());
                 assertEquals(245, rowAddress.getPosition());
                 assertEquals(rowAddressSize, rowAddress.getSize());
-                final RowAddress rowAddressPrevious = new RowAddress(filesRowPath + "/" + filesRowPath + 2, 299, 240, rowAddressSize);
-                assertEquals(rowAddressPrevious.getId(), rowAddress.getPrevious());
-                final RowAddress rowAddressNext = new RowAddress(filesRowPath + "/" + filesRowPath + 2, 302, 250, rowAddressSize);
-                assertEquals(rowAddressNext.getId(), rowAddress.getNext());
             }));
+            assertPrevious(rowIdRepository, 301, 299);
+            assertNext(rowIdRepository, 301, 302);
             rowIdRepository.delete(750);
             final int[] id = new int[1];
             rowIdRepository.save(rowIdRepository.newId(), rowAddress -> {
@@ -599,6 +622,185 @@ public class RowIdRepositoryTest {
         });
     }
 
+    @Test
+    public void packedFormatTest() {
+        final int lastId = 750;
+        createFiles(lastId);
+        final ObjectConverterImpl objectConverter = new ObjectConverterImpl(new DataCompressorImpl());
+        assertTrue(objectConverter.fromFile(Serializable.class, filesIdPath + "/" + filesIdPath + 1) instanceof RowIdRepositoryImpl.RowAddresses);
+        {
+            final RowIdRepository rowIdRepository = prepareRowIdRepository(maxIdSize);
+            TestUtils.doAndSleep(rowIdRepository, () -> {
+                rowIdRepository.save(10, rowAddress -> rowAddress.setSize(20));
+                rowIdRepository.delete(11);
+            });
+        }
+        assertTrue(objectConverter.fromFile(Serializable.class, filesIdPath + "/" + filesIdPath + 1) instanceof RowIdRepositoryImpl.RowAddressTable);
+        final RowIdRepository rowIdRepository = prepareRowIdRepository(maxIdSize);
+        TestUtils.doAndSleep(rowIdRepository, () -> {
+            assertTrue(rowIdRepository.process(10, rowAddress -> {
+                assertEquals(45, rowAddress.getPosition());
+                assertEquals(20, rowAddress.getSize());
+            }));
+            assertPrevious(rowIdRepository, 10, 9);
+            assertNext(rowIdRepository, 10, 12);
+            assertFalse(rowIdRepository.process(11, rowAddress -> fail("never")));
+            assertTrue(rowIdRepository.process(12, rowAddress -> {
+                assertEquals(65, rowAddress.getPosition());
+            }));
+            assertPrevious(rowIdRepository, 12, 10);
+            assertTrue(rowIdRepository.process(750, rowAddress -> assertEquals(1245, rowAddress.getPosition())));
+        });
+    }
+
+    @Test
+    public void resizeTest() {
+        final int lastId = 750;
+        createFiles(lastId);
+        {
+            final RowIdRepository rowIdRepository = prepareRowIdRepository(maxIdSize);
+            TestUtils.doAndSleep(rowIdRepository, () -> {
+                for (int i = 1; i <= 100; i++) {
+                    final int size = rowAddressSize + i;
+                    rowIdRepository.save(i, rowAddress -> rowAddress.setSize(size));
+                }
+                rowIdRepository.delete(200);
+                assertTrue(rowIdRepository.process(101, rowAddress -> assertEquals(100 * rowAddressSize + 5050, rowAddress.getPosition())));
+                assertTrue(rowIdRepository.process(250, rowAddress -> assertEquals(1240 + 5050, rowAddress.getPosition())));
+                assertTrue(rowIdRepository.process(251, rowAddress -> assertEquals(0, rowAddress.getPosition())));
+                rowIdRepository.save(rowIdRepository.newId(), rowAddress -> rowAddress.setSize(7));
+                rowIdRepository.save(1, rowAddress -> rowAddress.setSize(1));
+                assertTrue(rowIdRepository.process(2, rowAddress -> assertEquals(1, rowAddress.getPosition())));
+                assertTrue(rowIdRepository.process(751, rowAddress -> assertEquals(0, rowAddress.getPosition())));
+            });
+        }
+        final RowIdRepository rowIdRepository = prepareRowIdRepository(maxIdSize);
+        TestUtils.doAndSleep(rowIdRepository, () -> {
+            assertTrue(rowIdRepository.process(2, rowAddress -> assertEquals(1, rowAddress.getPosition())));
+            assertTrue(rowIdRepository.process(250, rowAddress -> assertEquals(1240 + 5050 - 5, rowAddress.getPosition())));
+            final long[] position = {0};
+            rowIdRepository.batchStream().forEach(rowAddress -> {
+                if (rowAddress.getPosition() == 0) {
+                    position[0] = 0;
+                }
+                assertEquals(position[0], rowAddress.getPosition());
+                position[0] += rowAddress.getSize();
+            });
+        });
+    }
+
+    @Test
+    public void dirtyOnlyTest() {
+        final int lastId = 750;
+        createFiles(lastId);
+        final File firstFile = new File(filesIdPath + "/" + filesIdPath + 1);
+        final File secondFile = new File(filesIdPath + "/" + filesIdPath + 2);
+        assertTrue(firstFile.setLastModified(1000));
+        assertTrue(secondFile.setLastModified(1000));
+        final RowIdRepository rowIdRepository = prepareRowIdRepository(maxIdSize);
+        TestUtils.doAndSleep(rowIdRepository, () -> {
+            assertTrue(rowIdRepository.process(600, rowAddress -> assertEquals(600, rowAddress.getId())));
+            rowIdRepository.save(10, rowAddress -> rowAddress.setSize(20));
+        });
+        assertNotEquals(1000, firstFile.lastModified());
+        assertEquals(1000, secondFile.lastModified());
+    }
+
+    @Test
+    public void cacheTest() {
+        final int lastId = 2000;
+        createFiles(lastId);
+        final RowIdRepository rowIdRepository = new RowIdRepositoryImpl("", true, new ObjectConverterImpl(new DataCompressorImpl()),
+                new DestroyServiceImpl(60000), maxIdSize, compressSize, 2);
+        TestUtils.doAndSleep(rowIdRepository, () -> {
+            rowIdRepository.save(10, rowAddress -> rowAddress.setSize(20));
+            for (int id = 1; id <= lastId; id += 100) {
+                final int expected = id;
+                assertTrue(rowIdRepository.process(id, rowAddress -> assertEquals(expected, rowAddress.getId())));
+            }
+            final CacheStatistics statistics = rowIdRepository.getCacheStatistics();
+            assertEquals(4, statistics.getMisses());
+            assertEquals(17, statistics.getHits());
+            assertEquals(2, statistics.getEvictions());
+            assertEquals(2, statistics.getSize());
+            assertTrue(rowIdRepository.process(1900, rowAddress -> assertEquals(745, rowAddress.getPosition())));
+            assertTrue(rowIdRepository.process(12, rowAddress -> assertEquals(70, rowAddress.getPosition())));
+            assertEquals(4, rowIdRepository.getCacheStatistics().getMisses());
+        });
+        assertTrue(rowIdRepository.getCacheStatistics().getSize() <= 2);
+        final RowIdRepository reopened = prepareRowIdRepository(maxIdSize);
+        TestUtils.doAndSleep(reopened, () -> assertTrue(reopened.process(12, rowAddress -> assertEquals(70, rowAddress.getPosition()))));
+    }
+
+    @Test
+    public void partitionedStreamTest() {
+        final int lastId = 2000;
+        createFiles(lastId);
+        final RowIdRepository rowIdRepository = prepareRowIdRepository(maxIdSize);
+        TestUtils.doAndSleep(rowIdRepository, () -> {
+            rowIdRepository.delete(300);
+            {
+                final AtomicInteger counter = new AtomicInteger();
+                final boolean[] streamEnd = {false};
+                final StoppableStream<Integer> stream = rowIdRepository.batchStream(rowAddress -> rowAddress.getId() % 2 == 0 ? rowAddress.getId() : null);
+                stream.addOnStreamEnd(() -> streamEnd[0] = true);
+                final int[] lastValue = {0};
+                stream.forEach(id -> {
+                    assertEquals(0, id % 2);
+                    assertTrue(id > lastValue[0]);
+                    lastValue[0] = id;
+                    counter.incrementAndGet();
+                });
+                assertEquals(lastId / 2 - 1, counter.get());
+                assertEquals(lastId, lastValue[0]);
+                assertTrue(streamEnd[0]);
+            }
+            {
+                final AtomicInteger counter = new AtomicInteger();
+                final boolean[] streamEnd = {false};
+                final StoppableStream<RowAddress> stream = rowIdRepository.batchStream(rowAddress -> rowAddress);
+                stream.addOnStreamEnd(() -> streamEnd[0] = true);
+                stream.forEach(rowAddress -> {
+                    assertEquals(counter.incrementAndGet(), rowAddress.getId());
+                    if (counter.get() == 150) {
+                        stream.stop();
+                    }
+                });
+                assertEquals(150, counter.get());
+                assertFalse(streamEnd[0]);
+            }
+            {
+                final AtomicInteger mapped = new AtomicInteger();
+                final StoppableStream<Integer> stream = rowIdRepository.batchStream(rowAddress -> mapped.incrementAndGet());
+                stream.forEach(value -> stream.stop());
+                assertTrue("mapped " + mapped.get(), mapped.get() < lastId / 2);
+            }
+            {
+                final AtomicInteger active = new AtomicInteger();
+                final AtomicInteger maxActive = new AtomicInteger();
+                final AtomicInteger counter = new AtomicInteger();
+                final StoppableStream<Integer> stream = rowIdRepository.batchStream(rowAddress -> {
+                    if (rowAddress.getId() > lastId / 8) {
+                        return rowAddress.getId();
+                    }
+                    maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                    if (rowAddress.getId() % 50 == 0) {
+                        try {
+                            Thread.sleep(20);
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    active.decrementAndGet();
+                    return rowAddress.getId();
+                });
+                stream.forEach(id -> assertEquals(counter.incrementAndGet() + (id > 300 ? 1 : 0), (int) id));
+                assertEquals(lastId - 1, counter.get());
+                assertTrue("max active reads " + maxActive.get(), maxActive.get() > 1);
+            }
+        });
+    }
+
     private void createFiles(int lastId) {
         createFiles(lastId, maxIdSize);
     }
@@ -614,4 +816,26 @@ public class RowIdRepositoryTest {
         return TestUtils.prepareRowIdRepository("", new DestroyServiceImpl(1000), maxIdSize, compressSize, new ObjectConverterImpl(new DataCompressorImpl()));
     }
 
+    /**
+     * Ближайшая сохраненная строка того же файла после id или до него, -1 - такой строки нет
+     */
+    private static int neighbour(RowIdRepository rowIdRepository, int id, int step) {
+        final Set<Integer> fileIds = rowIdRepository.getRowFileIds(rowIdRepository.getRowFileName(id));
+        for (int neighbour = id + step; fileIds.contains(neighbour); neighbour += step) {
+            if (rowIdRepository.process(neighbour, rowAddress -> {
+            })) {
+                return neighbour;
+            }
+        }
+        return -1;
+    }
+
+    private static void assertPrevious(RowIdRepository rowIdRepository, int id, int previous) {
+        assertEquals(previous, neighbour(rowIdRepository, id, -1));
+    }
+
+    private static void assertNext(RowIdRepository rowIdRepository, int id, int next) {
+        assertEquals(next, neighbour(rowIdRepository, id, 1));
+    }
+
 }
@@ -13,7 +13,10 @@ import server.model.pojo.SimpleCondition;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
@@ -89,6 +92,17 @@ public class RowRepositoryTest {
             assertTrue(rowRepository.process(272, row -> assertEquals(TestUtils.generateRow(272, 272), row)));
             assertTrue(rowRepository.process(750, row -> assertEquals(TestUtils.generateRow(750, 750), row)));
             assertFalse(rowRepository.process(751, Assert::assertNull));
+            final Row row = TestUtils.generateRow(0, 1000);
+            rowRepository.add(row);
+            row.getFields().put("field1000", 1);
+            assertTrue(rowRepository.process(751, processedRow -> {
+                assertEquals(TestUtils.generateRow(751, 1000), processedRow);
+                try {
+                    processedRow.getFields().put("field1000", 1);
+                    fail("row must be frozen");
+                } catch (UnsupportedOperationException ignored) {
+                }
+            }));
         });
     }
 
@@ -128,6 +142,86 @@ public class RowRepositoryTest {
         });
     }
 
+    @Test
+    public void parallelFlushTest() {
+        int lastId = 750;
+        createFiles(lastId);
+        final ExecutorService flushExecutor = Executors.newFixedThreadPool(4);
+        final RowRepository rowRepository = new TestRowRepository(bufferSize, new ObjectConverterImpl(new DataCompressorImpl()), new DestroyServiceImpl(1000), TestUtils.mockModelService(), flushExecutor);
+        TestUtils.doAndSleep(rowRepository, () -> {
+            for (int i = 1; i <= lastId; i += 7) {
+                if (i % 3 == 0) {
+                    rowRepository.delete(i);
+                } else {
+                    rowRepository.add(TestUtils.generateRow(i, i + 1000));
+                }
+            }
+            rowRepository.add(TestUtils.generateRow(0, 751));
+            rowRepository.destroy();
+            for (int i = 1; i <= lastId; i++) {
+                final int id = i;
+                if (i % 7 != 1) {
+                    assertTrue(rowRepository.process(id, row -> assertEquals(TestUtils.generateRow(id, id), row)));
+                } else if (i % 3 == 0) {
+                    assertFalse(rowRepository.process(id, Assert::assertNull));
+                } else {
+                    assertTrue(rowRepository.process(id, row -> assertEquals(TestUtils.generateRow(id, id + 1000), row)));
+                }
+            }
+            assertTrue(rowRepository.process(751, row -> assertEquals(TestUtils.generateRow(751, 751), row)));
+        });
+        flushExecutor.shutdown();
+    }
+
+    @Test
+    public void flushFailureTest() {
+        int lastId = 750;
+        createFiles(lastId);
+        final ExecutorService flushExecutor = Executors.newFixedThreadPool(4);
+        final FailingRowRepository rowRepository = new FailingRowRepository(bufferSize, new ObjectConverterImpl(new DataCompressorImpl()), mock(DestroyService.class), TestUtils.mockModelService(), flushExecutor);
+        final String failedFile = rowRepository.getRowFileName(400);
+        TestUtils.doAndSleep(rowRepository, () -> {
+            for (int i = 1; i <= lastId; i += 7) {
+                if (i % 3 == 0) {
+                    rowRepository.delete(i);
+                } else {
+                    rowRepository.add(TestUtils.generateRow(i, i + 1000));
+                }
+            }
+            rowRepository.add(TestUtils.generateRow(0, 751));
+            rowRepository.add(TestUtils.generateRow(0, 752));
+            rowRepository.failedFile = failedFile;
+            try {
+                rowRepository.destroy();
+                fail("flush must fail");
+            } catch (RuntimeException e) {
+                assertEquals(failedFile, e.getMessage());
+            }
+            assertNotEquals(failedFile, rowRepository.getRowFileName(751));
+            rowRepository.add(TestUtils.generateRow(5, 5 + 2000));
+            rowRepository.destroy();
+            for (int i = 1; i <= lastId; i++) {
+                final int id = i;
+                if (i == 5) {
+                    assertTrue(rowRepository.process(id, row -> assertEquals(TestUtils.generateRow(id, id + 2000), row)));
+                } else if (i % 7 != 1) {
+                    assertTrue(rowRepository.process(id, row -> assertEquals(TestUtils.generateRow(id, id), row)));
+                } else if (i % 3 == 0) {
+                    assertFalse(rowRepository.process(id, Assert::assertNull));
+                } else {
+                    assertTrue(rowRepository.process(id, row -> assertEquals(TestUtils.generateRow(id, id + 1000), row)));
+                }
+            }
+            assertTrue(rowRepository.process(751, row -> assertEquals(TestUtils.generateRow(751, 751), row)));
+            assertTrue(rowRepository.process(752, row -> assertEquals(TestUtils.generateRow(752, 752), row)));
+            assertFalse(rowRepository.process(753, Assert::assertNull));
+            final Map<String, Long> rowFileSizes = rowRepository.getRowFileSizes();
+            assertTrue(rowFileSizes.containsKey(failedFile));
+            rowFileSizes.forEach((fileName, size) -> assertEquals(fileName, (long) size, new File(fileName).length()));
+        });
+        flushExecutor.shutdown();
+    }
+
     @Test
     public void deleteTest() {
         int lastId = 750;
@@ -259,7 +353,7 @@ public class RowRepositoryTest {
     }
 
     @Test
-    public void fieldsChangedTest() {
+    public void fieldsChangedTest() throws IOException {
         int lastId = 750;
         createFiles(lastId);
         final ModelService modelService = new ModelServiceImpl("", true, new ObjectConverterImpl(new DataCompressorImpl()), null);
@@ -322,10 +416,85 @@ public class RowRepositoryTest {
                 }
             });
         } finally {
-            new File("model").delete();
+            FileUtils.deleteDirectory(new File("model"));
         }
     }
 
+    @Test
+    public void deletedFieldValuesTest() throws IOException {
+        int lastId = 750;
+        createFiles(lastId);
+        final ModelService modelService = new ModelServiceImpl("", true, new ObjectConverterImpl(new DataCompressorImpl()), null);
+        try {
+            modelService.stop();
+            modelService.add("field1", String.class);
+            modelService.add("field2", String.class);
+            final RowRepository rowRepository = prepareRepository(modelService, bufferSize);
+            TestUtils.doAndSleep(rowRepository, () -> {
+                for (int i = 1; i <= lastId; i++) {
+                    final Map<String, Comparable> map = new HashMap<>();
+                    map.put("field1", "1f" + i);
+                    map.put("field2", "2f" + i);
+                    rowRepository.add(new Row(i, map));
+                }
+                rowRepository.destroy();
+                final long length = rowFilesLength();
+                modelService.delete("field2");
+                rowRepository.destroy();
+                assertTrue(rowFilesLength() < length);
+                modelService.add("field2", String.class);
+                for (int i = 1; i <= lastId; i++) {
+                    final Map<String, Comparable> map = new HashMap<>();
+                    map.put("field1", "1f" + i);
+                    assertRows(rowRepository, Collections.singletonList(new Row(i, map)), i, 0);
+                }
+            });
+        } finally {
+            FileUtils.deleteDirectory(new File("model"));
+        }
+    }
+
+    @Test
+    public void deletedFieldsBackpressureTest() throws IOException {
+        int lastId = 750;
+        createFiles(lastId);
+        final ModelService modelService = new ModelServiceImpl("", true, new ObjectConverterImpl(new DataCompressorImpl()), null);
+        try {
+            modelService.stop();
+            modelService.add("field1", String.class);
+            modelService.add("field2", String.class);
+            final RowRepository rowRepository = new TestRowRepository(100000, new ObjectConverterImpl(new DataCompressorImpl()), new DestroyServiceImpl(1000), modelService,
+                    20000, 10000, 1000);
+            TestUtils.doAndSleep(rowRepository, () -> {
+                for (int i = 1; i <= lastId; i++) {
+                    final Map<String, Comparable> map = new HashMap<>();
+                    map.put("field1", "1f" + i);
+                    map.put("field2", "2f" + i);
+                    rowRepository.add(new Row(i, map));
+                }
+                rowRepository.destroy();
+                modelService.delete("field2");
+                assertEquals(0, rowRepository.getBackpressureStatistics().getRejections());
+                rowRepository.destroy();
+                for (int i = 1; i <= lastId; i++) {
+                    final Map<String, Comparable> map = new HashMap<>();
+                    map.put("field1", "1f" + i);
+                    assertRows(rowRepository, Collections.singletonList(new Row(i, map)), i, 0);
+                }
+            });
+        } finally {
+            FileUtils.deleteDirectory(new File("model"));
+        }
+    }
+
+    private static long rowFilesLength() {
+        long length = 0;
+        for (File file : Objects.requireNonNull(new File(filesRowPath).listFiles())) {
+            length += file.length();
+        }
+        return length;
+    }
+
     @Test
     public void concurrentTest() {
         int lastId = 250;
@@ -489,6 +658,16 @@ public class RowRepositoryTest {
             super("", true, new ObjectConverterImpl(new DataCompressorImpl()), destroyService, TestUtils.prepareRowIdRepository("", destroyService, maxIdSize, compressSize, objectConverter), new FileHelperImpl(), mockIndexService(), new ConditionServiceImpl(TestUtils.mockModelService()), modelService, bufferSize);
         }
 
+        TestRowRepository(int bufferSize, ObjectConverter objectConverter, DestroyService destroyService, ModelService modelService, long bufferHighWatermark, long bufferLowWatermark, long bufferTimeout) {
+            super("", true, new ObjectConverterImpl(new DataCompressorImpl()), destroyService, TestUtils.prepareRowIdRepository("", destroyService, maxIdSize, compressSize, objectConverter), new FileHelperImpl(), mockIndexService(), new ConditionServiceImpl(TestUtils.mockModelService()), modelService, bufferSize,
+                    null, new RowConverterImpl(modelService, objectConverter), new RowCacheImpl(1024 * 1024), bufferHighWatermark, bufferLowWatermark, bufferTimeout);
+        }
+
+        TestRowRepository(int bufferSize, ObjectConverter objectConverter, DestroyService destroyService, ModelService modelService, ExecutorService flushExecutor) {
+            super("", true, new ObjectConverterImpl(new DataCompressorImpl()), destroyService, TestUtils.prepareRowIdRepository("", destroyService, maxIdSize, compressSize, objectConverter), new FileHelperImpl(), mockIndexService(), new ConditionServiceImpl(TestUtils.mockModelService()), modelService, bufferSize,
+                    null, new RowConverterImpl(modelService, objectConverter), new RowCacheImpl(1024 * 1024), Long.MAX_VALUE, Long.MAX_VALUE, -1, flushExecutor);
+        }
+
         @Override
         public void destroy() {
             super.destroy();
@@ -501,4 +680,41 @@ public class RowRepositoryTest {
             rowIdRepository.stop();
         }
     }
+
+    /**
+     * Один раз отказывает при сбросе строк заданного файла, не трогая сам файл
+     */
+    private static class FailingRowRepository extends TestRowRepository {
+        private volatile String failedFile;
+
+        FailingRowRepository(int bufferSize, ObjectConverter objectConverter, DestroyService destroyService, ModelService modelService, ExecutorService flushExecutor) {
+            super(bufferSize, objectConverter, destroyService, modelService, flushExecutor);
+        }
+
+        String getRowFileName(int id) {
+            return rowIdRepository.getRowFileName(id);
+        }
+
+        /**
+         * Сумма размеров строк по адресам в каждом файле, каждый файл должен состоять ровно из своих строк
+         */
+        Map<String, Long> getRowFileSizes() {
+            final Map<String, Long> rowFileSizes = new HashMap<>();
+            rowIdRepository.batchStream().forEach(rowAddress -> rowFileSizes.merge(rowAddress.getFilePath(), (long) rowAddress.getSize(), Long::sum));
+            return rowFileSizes;
+        }
+
+        @Override
+        protected Consumer<List<Buffer.Element<Row>>> bufferConsumer() {
+            final Consumer<List<Buffer.Element<Row>>> bufferConsumer = super.bufferConsumer();
+            return list -> {
+                final String file = failedFile;
+                if (file != null && file.equals(rowIdRepository.getRowFileName(list.get(0).getValue().getId()))) {
+                    failedFile = null;
+                    throw new RuntimeException(file);
+                }
+                bufferConsumer.accept(list);
+            };
+        }
+    }
 }
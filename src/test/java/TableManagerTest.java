@@ -9,6 +9,8 @@ import server.model.impl.DataCompressorImpl;
 import server.model.impl.DestroyServiceImpl;
 import server.model.impl.ObjectConverterImpl;
 import server.model.impl.TableManagerImpl;
+import server.model.pojo.BackpressureStatistics;
+import server.model.pojo.CacheStatistics;
 import server.model.pojo.ICondition;
 import server.model.pojo.Row;
 
@@ -24,6 +26,9 @@ import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 public class TableManagerTest {
     private static final String FILE_NAME = "tables";
@@ -74,6 +79,33 @@ public class TableManagerTest {
         }
     }
 
+    @Test
+    public void lazyTest() {
+        {
+            final TableManager tableManager = createTableManager();
+            TestUtils.doAndSleep(tableManager, () -> {
+                tableManager.create("test");
+                tableManager.create("test2");
+            });
+        }
+        {
+            final TableServiceFactory tableServiceFactory = mockTableServiceFactory();
+            final TableManager tableManager = new TableManagerImpl("", false, new ObjectConverterImpl(new DataCompressorImpl()),
+                    new DestroyServiceImpl(1000), tableServiceFactory, true);
+            TestUtils.doAndSleep(tableManager, () -> {
+                assertEquals(2, tableManager.getTables().size());
+                verify(tableServiceFactory, never()).createServices(any(String.class), any(Consumer.class), Matchers.<Class<?>>anyVararg());
+                assertEquals("test2", ((TestModelService) tableManager.getServiceHolder("test2").modelService).tableName);
+                assertEquals("test2", ((TestRowRepository) tableManager.getServiceHolder("test2").rowRepository).tableName);
+                verify(tableServiceFactory, times(1)).createServices(any(String.class), any(Consumer.class), Matchers.<Class<?>>anyVararg());
+                assertNull(tableManager.getServiceHolder("test3"));
+                tableManager.delete("test");
+                tableManager.delete("test2");
+                assertEquals(0, tableManager.getTables().size());
+            });
+        }
+    }
+
     private TableManager createTableManager() {
         return new TableManagerImpl("", false, new ObjectConverterImpl(new DataCompressorImpl()), new DestroyServiceImpl(1000), mockTableServiceFactory());
     }
@@ -149,6 +181,11 @@ public class TableManagerTest {
 
         }
 
+        @Override
+        public int getLastOrdinal() {
+            return 0;
+        }
+
         @Override
         public void destroy() {
 
@@ -187,6 +224,16 @@ public class TableManagerTest {
             return false;
         }
 
+        @Override
+        public CacheStatistics getCacheStatistics() {
+            return null;
+        }
+
+        @Override
+        public BackpressureStatistics getBackpressureStatistics() {
+            return null;
+        }
+
         @Override
         public void destroy() {
 
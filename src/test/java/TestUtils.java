@@ -13,6 +13,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -21,6 +22,8 @@ import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 public class TestUtils {
+    private static final ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+
     public static Row generateRow(int id, int intValue) {
         return new Row(id, new HashMap<String, Comparable>() {{
             put("field" + intValue, intValue);
@@ -28,7 +31,7 @@ public class TestUtils {
     }
 
     public static RowIdRepository prepareRowIdRepository(String filePath, DestroyService destroyService, int maxIdSize, int compressSize, ObjectConverter objectConverter) {
-        return new RowIdRepositoryImpl(filePath, true, objectConverter, destroyService, maxIdSize, compressSize);
+        return new RowIdRepositoryImpl(filePath, true, objectConverter, destroyService, maxIdSize, compressSize, 64, forkJoinPool);
     }
 
     public static ModelService mockModelService() {
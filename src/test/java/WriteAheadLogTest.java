@@ -0,0 +1,149 @@
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import server.model.*;
+import server.model.impl.*;
+import server.model.pojo.ICondition;
+import server.model.pojo.Row;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class WriteAheadLogTest {
+    private static final String walPath = "wal";
+    private static final String filesIdPath = "rowId";
+    private static final String filesRowPath = "row";
+    private static final int maxIdSize = 20;
+    private static final int compressSize = 2;
+
+    private final ObjectConverter objectConverter = new ObjectConverterImpl(new DataCompressorImpl());
+    private final RowConverter rowConverter = new RowConverterImpl(TestUtils.mockModelService(), objectConverter);
+
+    @After
+    public void after() throws IOException {
+        FileUtils.deleteDirectory(new File(walPath));
+        FileUtils.deleteDirectory(new File(filesIdPath));
+        FileUtils.deleteDirectory(new File(filesRowPath));
+    }
+
+    @Test
+    public void appendAndReplayTest() throws InterruptedException, IOException {
+        final WriteAheadLog writeAheadLog = new WriteAheadLogImpl("", true, objectConverter, null, rowConverter, true);
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        final Set<Integer> applied = Collections.synchronizedSet(new HashSet<>());
+        for (int i = 1; i <= 200; i++) {
+            final int id = i;
+            executorService.submit(() -> writeAheadLog.append(Buffer.State.ADDED, TestUtils.generateRow(id, id), () -> applied.add(id)));
+        }
+        executorService.shutdown();
+        assertTrue(executorService.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(200, applied.size());
+        writeAheadLog.append(Buffer.State.DELETED, TestUtils.generateRow(1, 1), () -> {
+        });
+        writeAheadLog.stop();
+        final File[] files = Objects.requireNonNull(new File(walPath).listFiles());
+        assertEquals(1, files.length);
+        try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        final WriteAheadLog reopened = new WriteAheadLogImpl("", true, objectConverter, null, rowConverter, true);
+        final Map<Integer, Row> replayed = new HashMap<>();
+        reopened.replay((state, row) -> {
+            assertEquals(Buffer.State.ADDED, state);
+            replayed.put(row.getId(), row);
+        });
+        assertEquals(200, replayed.size());
+        for (int i = 1; i <= 200; i++) {
+            assertEquals(TestUtils.generateRow(i, i), replayed.get(i));
+        }
+        final boolean[] flushed = {false};
+        reopened.checkpoint(() -> flushed[0] = true);
+        assertTrue(flushed[0]);
+        reopened.replay((state, row) -> fail());
+        assertEquals(1, Objects.requireNonNull(new File(walPath).listFiles()).length);
+        reopened.stop();
+    }
+
+    @Test
+    public void garbageTailTest() throws IOException {
+        final WriteAheadLog writeAheadLog = new WriteAheadLogImpl("", true, objectConverter, null, rowConverter, true);
+        writeAheadLog.append(Buffer.State.ADDED, TestUtils.generateRow(1, 1), () -> {
+        });
+        writeAheadLog.append(Buffer.State.UPDATED, TestUtils.generateRow(2, 2), () -> {
+        });
+        writeAheadLog.stop();
+        final File[] files = Objects.requireNonNull(new File(walPath).listFiles());
+        assertEquals(1, files.length);
+        final long length = files[0].length();
+        final byte[][] tails = {
+                {0, 0, 0, 1, 100, 0, 0, 0, 0, 0, 0, 0, 0, 1},
+                {0x7f, 0x7f, 0x7f, 0x7f, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1},
+                {-1, -1, -1, -1, 1, 0, 0, 0, 0, 0, 0, 0, 0, 1}};
+        for (byte[] tail : tails) {
+            try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+                file.setLength(length);
+                file.seek(length);
+                file.write(tail);
+            }
+            final WriteAheadLog reopened = new WriteAheadLogImpl("", true, objectConverter, null, rowConverter, true);
+            final List<Integer> replayed = new ArrayList<>();
+            reopened.replay((state, row) -> replayed.add(row.getId()));
+            assertEquals(Arrays.asList(1, 2), replayed);
+            reopened.stop();
+        }
+    }
+
+    @Test
+    public void recoveryTest() {
+        final int lastId = 30;
+        final Map<Integer, byte[]> map = TestUtils.createRowMap(lastId);
+        Utils.createDirectoryTree(new File(filesIdPath));
+        Utils.createDirectoryTree(new File(filesRowPath));
+        TestUtils.createRowFiles(map, filesRowPath + "/" + filesRowPath, maxIdSize / compressSize);
+        TestUtils.createRowIdFiles(lastId, maxIdSize, compressSize, filesIdPath + "/rowIdVariables",
+                filesIdPath + "/" + filesIdPath, filesRowPath + "/" + filesRowPath, 0, map);
+        final RowRepository rowRepository = prepareRepository();
+        rowRepository.add(TestUtils.generateRow(2, 200));
+        rowRepository.add(TestUtils.generateRow(0, 301));
+        rowRepository.delete(3);
+        rowRepository.stop();
+
+        final RowRepository recovered = prepareRepository();
+        assertTrue(recovered.process(1, row -> assertEquals(TestUtils.generateRow(1, 1), row)));
+        assertTrue(recovered.process(2, row -> assertEquals(TestUtils.generateRow(2, 200), row)));
+        assertFalse(recovered.process(3, Assert::assertNull));
+        assertTrue(recovered.process(31, row -> assertEquals(TestUtils.generateRow(31, 301), row)));
+        assertEquals(lastId, recovered.size(ICondition.empty, -1));
+        recovered.destroy();
+        recovered.stop();
+
+        final RowRepository flushed = prepareRepository();
+        assertTrue(flushed.process(2, row -> assertEquals(TestUtils.generateRow(2, 200), row)));
+        assertFalse(flushed.process(3, Assert::assertNull));
+        assertTrue(flushed.process(31, row -> assertEquals(TestUtils.generateRow(31, 301), row)));
+        assertEquals(lastId, flushed.size(ICondition.empty, -1));
+        flushed.stop();
+    }
+
+    private RowRepository prepareRepository() {
+        final RowIdRepository rowIdRepository = TestUtils.prepareRowIdRepository("", null, maxIdSize, compressSize, objectConverter);
+        final IndexService indexService = mock(IndexService.class);
+        when(indexService.search(any(ICondition.class), anyInt())).thenReturn(new IndexService.SearchResult(false, null));
+        return new RowRepositoryImpl("", true, objectConverter, mock(DestroyService.class), rowIdRepository, new FileHelperImpl(),
+                indexService, new ConditionServiceImpl(TestUtils.mockModelService()), TestUtils.mockModelService(), 1000,
+                new WriteAheadLogImpl("", true, objectConverter, null, rowConverter, true), rowConverter);
+    }
+}